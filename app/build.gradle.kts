@@ -1,7 +1,18 @@
+import com.example.jupitertheaterapp.build.GenerateTemplateSchema
+
 plugins {
     alias(libs.plugins.android.application)
 }
 
+// MsgTemplate schemas and the category registry, generated from the server's templates
+val generateTemplateSchema = tasks.register<GenerateTemplateSchema>("generateTemplateSchema") {
+    templatesDir.set(rootProject.layout.projectDirectory.dir("backend/json_templates"))
+    packageName.set("com.example.jupitertheaterapp.model")
+    // The enums whose labels the closed-vocabulary slots' pvalues are
+    vocabularies.putAll(mapOf("day" to "Day", "age" to "AgeCategory", "stars" to "StarRating"))
+    outputDir.set(layout.buildDirectory.dir("generated/source/templateSchema"))
+}
+
 android {
     namespace = "com.example.jupitertheaterapp"
     compileSdk = 35
@@ -29,6 +40,16 @@ android {
         sourceCompatibility = JavaVersion.VERSION_11
         targetCompatibility = JavaVersion.VERSION_11
     }
+    sourceSets {
+        // The show catalog the server answers from, for the on-device slot extractor's gazetteers
+        getByName("main").assets.srcDir(rootProject.layout.projectDirectory.dir("backend/shows"))
+    }
+}
+
+androidComponents {
+    onVariants { variant ->
+        variant.sources.java?.addGeneratedSourceDirectory(generateTemplateSchema, GenerateTemplateSchema::getOutputDir)
+    }
 }
 
 dependencies {
@@ -38,6 +59,8 @@ dependencies {
     implementation(libs.activity)
     implementation(libs.constraintlayout)
     testImplementation(libs.junit)
+    // android.jar only stubs org.json, so JVM tests that parse the catalog need the real one
+    testImplementation(libs.json)
     androidTestImplementation(libs.ext.junit)
     androidTestImplementation(libs.espresso.core)
 }
\ No newline at end of file
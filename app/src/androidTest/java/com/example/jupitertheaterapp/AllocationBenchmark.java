@@ -0,0 +1,64 @@
+package com.example.jupitertheaterapp;
+
+import android.os.Debug;
+import android.util.Log;
+
+/**
+ * Times an operation and counts what it allocates, by ART's allocation counter, over a fixed number of
+ * runs after a warm-up. The benchmarks run on a device because that counter is what we care about;
+ * results go to logcat.
+ */
+public final class AllocationBenchmark {
+    private final String tag;
+    private final int warmup;
+    private final int iterations;
+
+    public interface Op {
+        void run() throws Exception;
+    }
+
+    /**
+     * Time and allocation per run of one measured operation
+     */
+    public static final class Result {
+        public final double nanosPerOp;
+        public final double bytesPerOp;
+
+        Result(double nanosPerOp, double bytesPerOp) {
+            this.nanosPerOp = nanosPerOp;
+            this.bytesPerOp = bytesPerOp;
+        }
+    }
+
+    /**
+     * @param tag the logcat tag results are logged under
+     * @param warmup runs before measuring, so the measured ones run compiled
+     * @param iterations measured runs
+     */
+    public AllocationBenchmark(String tag, int warmup, int iterations) {
+        this.tag = tag;
+        this.warmup = warmup;
+        this.iterations = iterations;
+    }
+
+    public Result measure(String name, Op op) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            op.run();
+        }
+        long bytesBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            op.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes() - bytesBefore;
+
+        Result result = new Result((double) elapsed / iterations, (double) allocated / iterations);
+        Log.i(tag, String.format("%s: %.0f ns/op, %.0f B/op", name, result.nanosPerOp, result.bytesPerOp));
+        return result;
+    }
+
+    private static long allocatedBytes() {
+        return Long.parseLong(Debug.getRuntimeStat("art.gc.bytes-allocated"));
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.jupitertheaterapp.model;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.example.jupitertheaterapp.AllocationBenchmark;
+import com.example.jupitertheaterapp.util.ReplyDecoder;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares {@link MsgTemplate#valuesFromJson(String)} with the streaming
+ * {@link MsgTemplate#valuesFromDecoder(ReplyDecoder)} on EXTRACT payloads shaped like the server's.
+ * The JSONObject path is given the reply as a String already, so it is not charged for decoding the bytes.
+ * Measured with {@link AllocationBenchmark}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MsgTemplateParseBenchmark {
+    private static final AllocationBenchmark BENCHMARK = new AllocationBenchmark("MsgTemplateParseBenchmark",
+            1_000, 10_000);
+
+    private static final String[][] PAYLOADS = {
+            {"ΚΡΑΤΗΣΗ", "{\"show_name\":{\"value\":\"Ο Βυσσινόκηπος\",\"pvalues\":[]},"
+                    + "\"room\":{\"value\":\"Κεντρική Σκηνή\",\"pvalues\":[]},"
+                    + "\"day\":{\"value\":\"Saturday\",\"pvalues\":[\"Monday\",\"Tuesday\",\"Wednesday\","
+                    + "\"Thursday\",\"Friday\",\"Saturday\",\"Sunday\"]},"
+                    + "\"time\":{\"value\":\"21:00\",\"pvalues\":[]},"
+                    + "\"person\":{\"name\":{\"value\":\"Μαρία Παπαδοπούλου\",\"pvalues\":[]},"
+                    + "\"age\":{\"value\":\"grownup > 18\",\"pvalues\":[\"child < 18\",\"grownup > 18\",\"granny > 65\"]},"
+                    + "\"seat\":{\"value\":\"Γ14\",\"pvalues\":[]}}}"},
+            {"ΠΛΗΡΟΦΟΡΙΕΣ", "{\"name\":{\"value\":[\"Άμλετ\",\"Μακμπέθ\"],\"pvalues\":[]},"
+                    + "\"day\":{\"value\":[\"Friday\",\"Saturday\"],\"pvalues\":[\"Monday\",\"Tuesday\",\"Wednesday\","
+                    + "\"Thursday\",\"Friday\",\"Saturday\",\"Sunday\"]},"
+                    + "\"topic\":{\"value\":[\"τραγωδία\"],\"pvalues\":[]},\"time\":{\"value\":[],\"pvalues\":[]},"
+                    + "\"cast\":{\"value\":[],\"pvalues\":[]},\"room\":{\"value\":[],\"pvalues\":[]},"
+                    + "\"duration\":{\"value\":[],\"pvalues\":[]},"
+                    + "\"stars\":{\"value\":[\"4\"],\"pvalues\":[1,2,3,4,5]}}"},
+            {"ΠΡΟΣΦΟΡΕΣ & ΕΚΠΤΩΣΕΙΣ", "{\"show_name\":{\"value\":[\"Hamlet\",\"Macbeth\"],\"pvalues\":[]},"
+                    + "\"no_of_people\":{\"value\":3,\"pvalues\":[]},"
+                    + "\"age\":{\"value\":[\"child < 18\",\"granny > 65\"],"
+                    + "\"pvalues\":[\"child < 18\",\"grownup > 18\",\"granny > 65\"]},"
+                    + "\"date\":{\"value\":[\"2025-05-20\",\"2025-05-21\"],\"pvalues\":[]}}"},
+            {"ΑΞΙΟΛΟΓΗΣΕΙΣ & ΣΧΟΛΙΑ", "{\"reservation_number\":{\"value\":\"RES48213\",\"pvalues\":[]},"
+                    + "\"passcode\":{\"value\":\"JUPITER2025\",\"pvalues\":[]},"
+                    + "\"stars\":{\"value\":5,\"pvalues\":[1,2,3,4,5]},"
+                    + "\"review\":{\"value\":\"Εξαιρετική παράσταση, οι ηθοποιοί ήταν υπέροχοι!\",\"pvalues\":[]}}"},
+            {"ΑΚΥΡΩΣΗ", "{\"reservation_number\":{\"value\":\"RES78901\",\"pvalues\":[]},"
+                    + "\"passcode\":{\"value\":\"JUPITER2025\",\"pvalues\":[]}}"},
+    };
+
+    @Test
+    public void streamingParseAllocatesLessThanJsonObject() throws Exception {
+        ReplyDecoder decoder = new ReplyDecoder();
+        for (String[] payload : PAYLOADS) {
+            String category = payload[0];
+            String json = payload[1];
+            byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+
+            AllocationBenchmark.Result dom = BENCHMARK.measure(category + " valuesFromJson",
+                    () -> MsgTemplate.createTemplate(category).valuesFromJson(json));
+            AllocationBenchmark.Result streaming = BENCHMARK.measure(category + " valuesFromDecoder",
+                    () -> MsgTemplate.createTemplate(category).valuesFromDecoder(decoder.reset(bytes, 0, bytes.length)));
+
+            assertTrue(category + ": streaming allocated " + streaming.bytesPerOp + " B/op vs " + dom.bytesPerOp,
+                    streaming.bytesPerOp < dom.bytesPerOp);
+        }
+    }
+
+    @Test
+    public void streamingParseMatchesJsonObject() throws Exception {
+        String json = PAYLOADS[0][1];
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        BookingTemplate dom = (BookingTemplate) MsgTemplate.createTemplate("ΚΡΑΤΗΣΗ");
+        BookingTemplate streaming = (BookingTemplate) MsgTemplate.createTemplate("ΚΡΑΤΗΣΗ");
+        assertTrue(dom.valuesFromJson(json));
+        assertTrue(streaming.valuesFromDecoder(new ReplyDecoder().reset(bytes, 0, bytes.length)));
+
+        assertEquals(dom.getShowName(), streaming.getShowName());
+        assertEquals(dom.getDay(), streaming.getDay());
+        assertEquals(dom.getPossibleDays(), streaming.getPossibleDays());
+        assertEquals(dom.getPerson().getName(), streaming.getPerson().getName());
+        assertEquals(dom.getPerson().getPossibleAgeCategories(), streaming.getPerson().getPossibleAgeCategories());
+        assertEquals(dom.getPerson().getSeat(), streaming.getPerson().getSeat());
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.jupitertheaterapp.model;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.example.jupitertheaterapp.AllocationBenchmark;
+import com.example.jupitertheaterapp.util.ReplyDecoder;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Churns many short booking sessions, each decoding a few EXTRACT replies and merging them into its
+ * slots, once with a fresh template per reply and once recycling them through a {@link TemplatePool}.
+ * Measured with {@link AllocationBenchmark}, one op per session.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TemplatePoolBenchmark {
+    private static final String CATEGORY = "ΚΡΑΤΗΣΗ";
+    private static final AllocationBenchmark BENCHMARK = new AllocationBenchmark("TemplatePoolBenchmark",
+            200, 2_000);
+
+    // One booking filled over three turns, as the server answers when only the missing slots are asked for
+    private static final byte[][] TURNS = {
+            utf8("{\"show_name\":{\"value\":\"Ο Βυσσινόκηπος\",\"pvalues\":[]},"
+                    + "\"day\":{\"value\":\"Saturday\",\"pvalues\":[\"Monday\",\"Tuesday\",\"Wednesday\","
+                    + "\"Thursday\",\"Friday\",\"Saturday\",\"Sunday\"]}}"),
+            utf8("{\"room\":{\"value\":\"Κεντρική Σκηνή\",\"pvalues\":[]},"
+                    + "\"time\":{\"value\":\"21:00\",\"pvalues\":[]},"
+                    + "\"person\":{\"name\":{\"value\":\"Μαρία Παπαδοπούλου\",\"pvalues\":[]}}}"),
+            utf8("{\"person\":{\"age\":{\"value\":\"grownup > 18\","
+                    + "\"pvalues\":[\"child < 18\",\"grownup > 18\",\"granny > 65\"]},"
+                    + "\"seat\":{\"value\":\"Γ14\",\"pvalues\":[]}}}"),
+    };
+
+    @Test
+    public void pooledSessionsAllocateLess() throws Exception {
+        ReplyDecoder decoder = new ReplyDecoder();
+        AllocationBenchmark.Result fresh = BENCHMARK.measure("fresh templates", () -> {
+            MsgTemplate slots = MsgTemplate.createTemplate(CATEGORY);
+            for (int turn = 0; turn < TURNS.length; turn++) {
+                MsgTemplate delta = MsgTemplate.createTemplate(CATEGORY);
+                delta.valuesFromDecoder(decoder.reset(TURNS[turn], 0, TURNS[turn].length));
+                slots.mergeFrom(delta, SlotSource.SERVER, turn + 1);
+            }
+        });
+
+        // Like a session's pool, but kept across the measured sessions so the steady state is measured
+        TemplatePool pool = new TemplatePool(false);
+        AllocationBenchmark.Result pooled = BENCHMARK.measure("pooled templates", () -> {
+            MsgTemplate slots = pool.obtain(CATEGORY);
+            for (int turn = 0; turn < TURNS.length; turn++) {
+                MsgTemplate delta = pool.obtain(CATEGORY);
+                delta.valuesFromDecoder(decoder.reset(TURNS[turn], 0, TURNS[turn].length));
+                slots.mergeFrom(delta, SlotSource.SERVER, turn + 1);
+                pool.recycle(delta);
+            }
+            assertTrue(slots.isComplete());
+            pool.recycle(slots);
+        });
+
+        assertEquals(2, pool.getCreatedCount());
+        assertTrue("pooled sessions allocated " + pooled.bytesPerOp + " B/session vs " + fresh.bytesPerOp,
+                pooled.bytesPerOp < fresh.bytesPerOp);
+    }
+
+    @Test
+    public void leakedTemplateIsReported() throws Exception {
+        TemplatePool pool = new TemplatePool(true);
+        pool.obtain(CATEGORY);
+        for (int i = 0; i < 10 && pool.getLeakCount() == 0; i++) {
+            Runtime.getRuntime().gc();
+            Thread.sleep(50);
+        }
+        assertEquals(1, pool.getLeakCount());
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.jupitertheaterapp.util;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.example.jupitertheaterapp.AllocationBenchmark;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the JSONObject request/reply path with {@link RequestEncoder} and {@link ReplyDecoder}.
+ * Measured with {@link AllocationBenchmark}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RequestCodecBenchmark {
+    private static final AllocationBenchmark BENCHMARK = new AllocationBenchmark("RequestCodecBenchmark",
+            2_000, 20_000);
+
+    private static final ServerRequest REQUEST = new ServerRequest("EXTRACT", "ΚΡΑΤΗΣΗ",
+            "Θα ήθελα δύο εισιτήρια για την Κυριακή το βράδυ", "1a2b3c4d-17", 1_700_000_000_000L,
+            "6f1c2e4a-8b0d-4c3e-9f5a-2d7e1b3c4a5f");
+    private static final byte[] REPLY = ("{\"category\":\"ΚΡΑΤΗΣΗ\",\"message\":\"Για ποια παράσταση;\","
+            + "\"details\":{\"show_name\":{\"value\":null,\"pvalues\":[]},\"day\":{\"value\":\"Κυριακή\","
+            + "\"pvalues\":[]}},\"trace_id\":\"1a2b3c4d-17\",\"timings\":{\"queue_ms\":0.4,"
+            + "\"llm_ms\":812.3,\"serialize_ms\":0.2,\"server_ms\":813.1}}").getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void encodeAllocatesLessThanJsonObject() throws Exception {
+        RequestEncoder encoder = new RequestEncoder();
+        AllocationBenchmark.Result json = BENCHMARK.measure("encode JSONObject", () -> {
+            JSONObject request = new JSONObject();
+            request.put("type", REQUEST.type);
+            request.put("category", REQUEST.category);
+            request.put("message", REQUEST.message);
+            request.put("trace_id", REQUEST.traceId);
+            request.put("client_ts", REQUEST.clientTs);
+            request.put("idempotency_key", REQUEST.idempotencyKey);
+            (request.toString() + "\n").getBytes(StandardCharsets.UTF_8);
+        });
+        AllocationBenchmark.Result lean = BENCHMARK.measure("encode RequestEncoder",
+                () -> encoder.encodeLine(e -> e.request(REQUEST)));
+
+        assertEquals(REQUEST.message,
+                new JSONObject(encoder.encodeLine(e -> e.request(REQUEST)).toString().trim()).getString("message"));
+        assertTrue("RequestEncoder allocated " + lean.bytesPerOp + " B/op vs " + json.bytesPerOp,
+                lean.bytesPerOp < json.bytesPerOp);
+    }
+
+    @Test
+    public void decodeAllocatesLessThanJsonObject() throws Exception {
+        ReplyDecoder decoder = new ReplyDecoder();
+        AllocationBenchmark.Result json = BENCHMARK.measure("decode JSONObject", () -> {
+            JSONObject reply = new JSONObject(new String(REPLY, StandardCharsets.UTF_8));
+            reply.optString("category");
+            reply.optString("trace_id");
+            reply.optJSONObject("timings").optDouble("server_ms");
+        });
+        AllocationBenchmark.Result lean = BENCHMARK.measure("decode ReplyDecoder",
+                () -> ServerReply.decode(decoder.reset(REPLY, 0, REPLY.length)));
+
+        ServerReply reply = ServerReply.decode(decoder.reset(REPLY, 0, REPLY.length));
+        assertEquals("ΚΡΑΤΗΣΗ", reply.category);
+        assertEquals(813.1, reply.serverMs, 1e-9);
+        assertTrue("ReplyDecoder allocated " + lean.bytesPerOp + " B/op vs " + json.bytesPerOp,
+                lean.bytesPerOp < json.bytesPerOp);
+    }
+}
@@ -0,0 +1,366 @@
+package com.example.jupitertheaterapp.core;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.jupitertheaterapp.model.ChatMessage;
+import com.example.jupitertheaterapp.model.SlotSource;
+import com.example.jupitertheaterapp.model.Transcript;
+import com.example.jupitertheaterapp.util.Client;
+import com.example.jupitertheaterapp.util.Endpoint;
+import com.example.jupitertheaterapp.util.OutboundQueue;
+import com.example.jupitertheaterapp.util.ServerResponse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Process-scoped conversation state: the parsed tree, the server connection and the transcript.
+ * Activities attach to the single instance instead of owning these objects, so a configuration
+ * change reuses everything and only a finishing Activity tears the session down.
+ * All methods except {@link #obtain(Context)} and {@link #release()} must be called on the main thread.
+ */
+public class ChatSession {
+    private static final String TAG = "ChatSession";
+    private static final String SERVER_CONFIG_FILE = "server_config.txt";
+    private static final String OUTBOUND_QUEUE_FILE = "outbound_queue.jsonl";
+    private static final String SNAPSHOT_FILE = "session.snapshot";
+    private static final String TRAFFIC_FILE = "traffic.rec";
+
+    private static ChatSession instance;
+
+    /**
+     * Callbacks for the Activity currently showing the session
+     */
+    public interface Listener {
+        void onMessageAdded(int position);
+
+        /**
+         * The whole transcript changed, e.g. a previous session's conversation was restored
+         */
+        void onTranscriptChanged();
+
+        void onError(String errorMessage);
+    }
+
+    private final Context appContext;
+    private final ChatbotManager chatbotManager;
+    private final Client client;
+    private final Transcript transcript = new Transcript();
+    // Lets a conversation survive process death; written as it goes, read once at startup
+    private final SessionSnapshot snapshot;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Joins fragments typed in quick succession and paces requests; see InputScheduler
+    private final InputScheduler inputScheduler = new InputScheduler(mainHandler, this::handleUserMessage);
+
+    // Startup runs off the main thread; input typed before it finishes is queued
+    private final ExecutorService startupExecutor = Executors.newSingleThreadExecutor();
+    private final List<String> pendingInputs = new ArrayList<>();
+    private boolean greeted = false;  // The tree is in and the conversation is on screen
+    private boolean resumed = false;  // A previous process's conversation was restored
+    private boolean ready = false;
+
+    private Listener listener;
+
+    /**
+     * Returns the session for this process, creating and starting it on first use
+     */
+    public static synchronized ChatSession obtain(Context context) {
+        if (instance == null) {
+            instance = new ChatSession(context.getApplicationContext());
+            instance.start();
+        }
+        return instance;
+    }
+
+    /**
+     * Disconnects from the server and drops the session.
+     * The next {@link #obtain(Context)} starts a fresh one.
+     */
+    public static synchronized void release() {
+        if (instance != null) {
+            instance.shutdown();
+            instance = null;
+        }
+    }
+
+    private ChatSession(Context appContext) {
+        // Both constructors are cheap; the tree and the connection load in parallel in start()
+        this.appContext = appContext;
+        chatbotManager = new ChatbotManager(appContext);
+        client = new Client(chatbotManager);
+        snapshot = new SessionSnapshot(new File(appContext.getFilesDir(), SNAPSHOT_FILE), chatbotManager, transcript);
+        // Frames carry names, reservation numbers and passcodes, so only debuggable builds record
+        // them, for replaying against a server in regression and capacity tests
+        if ((appContext.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0) {
+            client.startRecording(new File(appContext.getFilesDir(), TRAFFIC_FILE));
+        }
+        // Predicted turns get their connection checked while the user is still typing
+        chatbotManager.setPrefetcher(client::prefetch);
+    }
+
+    private void start() {
+        // The config read is tiny, so queue it ahead of the tree on the startup executor
+        CompletableFuture<Boolean> serverReady = CompletableFuture
+                .supplyAsync(this::readServerConfig, startupExecutor)
+                .thenCompose(endpoints -> {
+                    client.setEndpoints(endpoints);
+                    return client.connectAsync();
+                });
+        CompletableFuture<ChatbotManager> treeReady = chatbotManager.loadAsync(startupExecutor);
+        // Messages queued offline by a previous process are answered once startup completes
+        CompletableFuture<List<OutboundQueue.Leftover>> leftovers = CompletableFuture
+                .supplyAsync(() -> client.openOutboundQueue(
+                        new File(appContext.getFilesDir(), OUTBOUND_QUEUE_FILE)), startupExecutor)
+                .exceptionally(error -> {
+                    Log.e(TAG, "Error opening outbound queue", error);
+                    return Collections.emptyList();
+                });
+        // The slots are decoded here; the turns refer to tree nodes and are decoded once the tree is in
+        CompletableFuture<SessionSnapshot.Restored> restored = CompletableFuture
+                .supplyAsync(() -> SessionSnapshot.read(new File(appContext.getFilesDir(), SNAPSHOT_FILE),
+                        chatbotManager.getTemplatePool()), startupExecutor)
+                .exceptionally(error -> {
+                    Log.e(TAG, "Error reading session snapshot", error);
+                    return null;
+                });
+        // The greeting only needs the tree, so it does not wait for a slow or unreachable server
+        CompletableFuture.allOf(treeReady, restored)
+                .whenComplete((ignored, error) -> mainHandler.post(() -> onTreeReady(restored.getNow(null))));
+        CompletableFuture.allOf(treeReady, serverReady, leftovers, restored)
+                .whenComplete((ignored, error) -> mainHandler.post(() -> onStartupComplete(
+                        leftovers.getNow(Collections.emptyList()), restored.getNow(null))));
+    }
+
+    /**
+     * Reads the backend endpoints from assets/server_config.txt, one host:port per line
+     */
+    private List<Endpoint> readServerConfig() {
+        try (InputStream is = appContext.getAssets().open(SERVER_CONFIG_FILE)) {
+            byte[] buffer = new byte[is.available()];
+            int read = is.read(buffer);
+            return Endpoint.parseConfig(new String(buffer, 0, Math.max(read, 0), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading server config", e);
+            return Collections.emptyList();
+        }
+    }
+
+    private void shutdown() {
+        inputScheduler.cancel();
+        // The user left on purpose, so the next start is a new conversation
+        snapshot.clear();
+        Log.d(TAG, "Input: " + inputScheduler.getInputCount() + " messages in "
+                + inputScheduler.getRequestCount() + " requests, " + inputScheduler.getThrottledCount()
+                + " throttled, window " + inputScheduler.getWindowMs() + "ms");
+        // Tells the server the conversation is over, ahead of anything still queued, then disconnects
+        client.exit();
+        chatbotManager.release();
+        startupExecutor.shutdown();
+        mainHandler.removeCallbacksAndMessages(null);
+        listener = null;
+        Log.d(TAG, "Chat session released");
+    }
+
+    public void attach(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void detach(Listener listener) {
+        if (this.listener == listener) {
+            this.listener = null;
+        }
+    }
+
+    /**
+     * The live transcript; the UI may read it but only the session appends to it
+     */
+    public Transcript getTranscript() {
+        return transcript;
+    }
+
+    public ChatbotManager getChatbotManager() {
+        return chatbotManager;
+    }
+
+    public Client getClient() {
+        return client;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Called on the main thread once the tree is loaded, to restore the previous conversation or
+     * greet the user without waiting for the server
+     * @param restored the conversation a previous process was in the middle of, or null
+     */
+    private void onTreeReady(SessionSnapshot.Restored restored) {
+        if (greeted) {
+            return;
+        }
+        greeted = true;
+
+        if (restored != null) {
+            // Only what was typed during startup is in the transcript yet; it goes after the restored turns
+            transcript.clear();
+            int turns = restored.applyTo(chatbotManager, transcript);
+            for (String userMessage : pendingInputs) {
+                transcript.addUser(userMessage);
+            }
+            resumed = turns > 0;
+            Log.d(TAG, "Resumed session at " + restored.nodeId + " with " + turns + " turn(s)");
+            if (listener != null) {
+                listener.onTranscriptChanged();
+            }
+        }
+        snapshot.start();
+
+        if (!resumed) {
+            // Display initial message
+            addMessage(chatbotManager.getInitialMessage(), ChatMessage.TYPE_BOT);
+        }
+    }
+
+    /**
+     * Called on the main thread once the tree is loaded and the first connection attempt has
+     * finished, to answer what is waiting: requests left by a previous process first, then input
+     * typed during startup
+     * @param leftovers requests a previous process queued offline and never got answers to
+     * @param restored the conversation a previous process was in the middle of, or null
+     */
+    private void onStartupComplete(List<OutboundQueue.Leftover> leftovers, SessionSnapshot.Restored restored) {
+        if (ready) {
+            return;
+        }
+        // Usually done already; the two callbacks are posted from different threads
+        onTreeReady(restored);
+        ready = true;
+
+        for (OutboundQueue.Leftover leftover : leftovers) {
+            // A resumed transcript already shows them; otherwise show them again before answering them
+            if (!resumed) {
+                addMessage(leftover.getMessage(), ChatMessage.TYPE_USER);
+            }
+            handleUserMessage(leftover.getMessage(), leftover);
+        }
+
+        // Typed during startup, so usually fragments of one request
+        for (String userMessage : pendingInputs) {
+            inputScheduler.submit(userMessage);
+        }
+        pendingInputs.clear();
+    }
+
+    /**
+     * Adds the user's message to the transcript and answers it, or queues it until startup completes.
+     * Messages sent in quick succession are answered together.
+     */
+    public void submitUserMessage(String userMessage) {
+        addMessage(userMessage, ChatMessage.TYPE_USER);
+        if (ready) {
+            inputScheduler.submit(userMessage);
+        } else {
+            pendingInputs.add(userMessage);
+        }
+    }
+
+    private void handleUserMessage(String userMessage) {
+        handleUserMessage(userMessage, null);
+    }
+
+    /**
+     * @param leftover the request a previous process queued for the message, resent under its
+     *                 idempotency key; null for a new message
+     */
+    private void handleUserMessage(String userMessage, OutboundQueue.Leftover leftover) {
+        if (chatbotManager.shouldUseServer()) {
+            // Get response from server
+            Client.ServerResponseCallback callback = new Client.ServerResponseCallback() {
+                @Override
+                public void onServerResponse(ServerResponse serverResponse) {
+                    // Get the full response for the node ID; the reply was decoded and checked off the main thread
+                    try {
+                        String response = chatbotManager.getResponseForNodeId(serverResponse.getNodeId());
+                        if (serverResponse.getTemplate() != null) {
+                            // The reply only holds what this message added; earlier turns' slots are kept
+                            chatbotManager.mergeSlots(serverResponse.getNodeId(), serverResponse.getTemplate(),
+                                    SlotSource.SERVER);
+                        }
+                        addMessage(response, ChatMessage.TYPE_SERVER);
+                        if (serverResponse.getTemplate() != null) {
+                            // Days, times and durations asked about are answered from the calendar
+                            String schedule = chatbotManager.describePerformances(serverResponse.getNodeId());
+                            if (schedule != null) {
+                                addMessage(schedule, ChatMessage.TYPE_BOT);
+                            }
+                        }
+                    } catch (Exception e) {
+                        String fallbackResponse = chatbotManager.getLocalResponse(userMessage);
+                        addMessage(fallbackResponse, ChatMessage.TYPE_BOT);
+                    }
+                    inputScheduler.onAnswered();
+                }
+
+                @Override
+                public void onQueued() {
+                    // No local fallback here: a guessed answer would derail the conversation
+                    inputScheduler.onAnswered();
+                    if (listener != null) {
+                        listener.onError("No connection. Your message will be sent when it is back.");
+                    }
+                }
+
+                @Override
+                public void onError(String errorMessage) {
+                    if (listener != null) {
+                        listener.onError(errorMessage);
+                    }
+                    // Fallback to local response
+                    String fallbackResponse = chatbotManager.getLocalResponse(userMessage);
+                    addMessage(fallbackResponse, ChatMessage.TYPE_BOT);
+                    inputScheduler.onAnswered();
+                }
+            };
+            if (leftover != null) {
+                client.resend(leftover, callback);
+            } else {
+                client.sendMessage(userMessage, callback);
+            }
+        } else {
+            // Get local response
+            String response = chatbotManager.getLocalResponse(userMessage);
+            addMessage(response, ChatMessage.TYPE_BOT);
+            inputScheduler.onAnswered();
+        }
+    }
+
+    private void addMessage(String message, int type) {
+        if (type == ChatMessage.TYPE_USER) {
+            transcript.addUser(message);
+        } else {
+            // Bot text is almost always the message or fallback of the node the conversation is now at
+            transcript.addBot(type, message, chatbotManager.getCurrentNode());
+        }
+        snapshot.recordTurn(transcript.size() - 1);
+        if (type != ChatMessage.TYPE_USER) {
+            // A bot turn follows a move and possibly new slots
+            snapshot.recordState();
+        }
+        if (listener != null) {
+            listener.onMessageAdded(transcript.size() - 1);
+        }
+    }
+}
@@ -1,102 +1,333 @@
 package com.example.jupitertheaterapp.core;
 
 import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.os.FileObserver;
 import android.util.Log;
 
 import com.example.jupitertheaterapp.model.ChatbotNode;
+import com.example.jupitertheaterapp.model.Day;
 import com.example.jupitertheaterapp.model.MsgTemplate;
+import com.example.jupitertheaterapp.model.PerformanceCalendar;
+import com.example.jupitertheaterapp.model.SlotExtractor;
+import com.example.jupitertheaterapp.model.SlotSet;
+import com.example.jupitertheaterapp.model.SlotSource;
+import com.example.jupitertheaterapp.model.TemplatePool;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class ChatbotManager {
     private static final String TAG = "ChatbotManager";
     private static final String CONVERSATION_FILE = "conversation_tree.json";
+    private static final String SHOWS_FILE = "shows.json";  // Packaged from backend/shows
+    private static final int SEASON_WEEKS = 26;  // Weeks of performances the calendar expands the catalog into
+    private static final int MAX_PERFORMANCES_LISTED = 5;
+    private static final DateTimeFormatter PERFORMANCE_FORMAT = DateTimeFormatter.ofPattern("d/M HH:mm");
+    private static final String TRANSITIONS_FILE = "transitions.json";
+    private static final String ANALYTICS_FILE = "analytics.json";
+    private static final int EXPORT_TURNS = 50;  // Turns between exports of the analytics and the transition model
+    private static final double DEFAULT_PREFETCH_MIN_PROBABILITY = 0.5;
+    private static final int DEFAULT_PREFETCH_MAX_PER_TURN = 1;
 
-    private JSONObject jsonTree; // Keep for reference
-    private ChatbotNode rootNode;
-    private Map<String, ChatbotNode> nodeMap;
+    // The tree in use; replaced as a whole when a newer version arrives, read from any thread
+    private final AtomicReference<ConversationTree> tree = new AtomicReference<>();
+    // The tree currentNode belongs to; moved to the latest tree on the main thread's next turn
+    private ConversationTree sessionTree;
     private ChatbotNode currentNode;
+    // Slots filled so far in this conversation, one template per category; each reply only adds a delta
+    private final Map<String, MsgTemplate> slotsByCategory = new HashMap<>();
+    private int slotTurn;
+    // Templates for replies and slots are recycled within the session; read by the client's I/O threads
+    private final TemplatePool templatePool;
+    // Finds the slots that need no LLM; built with the tree, null until then
+    private volatile SlotExtractor slotExtractor;
+    // The catalog's performances over the season; built with the tree, null until then
+    private volatile PerformanceCalendar calendar;
+    // The days the catalog has performances on; built with the tree, null until then
+    private volatile SlotSet<Day> catalogDays;
     private Random random = new Random();
     private boolean useServerForResponses = true;
 
+    // Where conversations go next, learned across sessions; drives speculative prefetch of the next turn
+    private final TransitionModel transitions = new TransitionModel();
+    private Prefetcher prefetcher;
+    private double prefetchMinProbability = DEFAULT_PREFETCH_MIN_PROBABILITY;
+    private int prefetchMaxPerTurn = DEFAULT_PREFETCH_MAX_PER_TURN;
+    // Predicted next nodes from the current node, most likely first, and the ones prefetched for
+    private List<String> predicted = Collections.emptyList();
+    private List<String> prefetched = Collections.emptyList();
+    private long predictions;
+    private long predictionHits;
+    private long prefetches;
+    private long prefetchesUsed;
+
+    // Always-on counts of node visits, fallbacks, abandons and transitions, exported to app storage
+    private final ConversationAnalytics analytics = new ConversationAnalytics();
+    private int turnsSinceExport;
+    // Exports run in order on one thread that exits when idle
+    private final ThreadPoolExecutor exportExecutor = new ThreadPoolExecutor(
+            1, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+
+    // Loading is deferred so construction stays cheap on the main thread
+    private final Context appContext;
+    private final CompletableFuture<ChatbotManager> ready = new CompletableFuture<>();
+    private boolean loadStarted;
+    // Reloads the tree when a new version is dropped into app storage
+    private FileObserver treeFileObserver;
+
+    /**
+     * Speculatively readies what a node the conversation is likely to move to will need
+     */
+    public interface Prefetcher {
+        /**
+         * Called on the main thread after each move; must not block
+         * @return whether anything was fetched, which counts against the per-turn budget
+         */
+        boolean prefetch(ChatbotNode predicted);
+    }
+
     public ChatbotManager(Context context) {
-        nodeMap = new HashMap<>();
-        loadConversationTree(context);
+        appContext = context.getApplicationContext();
+        // Leak tracking keeps a stack trace per template, so only debuggable builds pay for it
+        templatePool = new TemplatePool(
+                (appContext.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0);
+        exportExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Parses the conversation tree on the given executor, preferring a newer version left in app
+     * storage over the packaged one, and then watches app storage for further versions.
+     * Repeated calls return the same future, so the tree is only loaded once.
+     * @return a future that completes once the tree (or the minimal fallback) is in place
+     */
+    public synchronized CompletableFuture<ChatbotManager> loadAsync(Executor executor) {
+        if (!loadStarted) {
+            loadStarted = true;
+            executor.execute(() -> {
+                try {
+                    loadConversationTree(appContext);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Unexpected error loading conversation tree", e);
+                }
+                if (tree.get() == null) {
+                    publishTree(ConversationTree.minimal(), "fallback");
+                }
+                loadCatalog(appContext);
+                loadTransitions();
+                loadAnalytics();
+                ready.complete(this);
+                watchTreeFile(executor);
+            });
+        }
+        return ready;
+    }
+
+    public CompletableFuture<ChatbotManager> whenReady() {
+        return ready;
+    }
+
+    public boolean isReady() {
+        return ready.isDone();
     }
 
     private void loadConversationTree(Context context) {
+        String jsonString = readJSONFromAsset(context, CONVERSATION_FILE);
+        if (jsonString != null) {
+            reloadTree(jsonString, "assets");
+        } else {
+            Log.e(TAG, "Failed to read conversation tree JSON");
+        }
+        // A version pushed or dropped in after the APK was built wins if it is newer
+        File stored = storedTreeFile();
+        if (stored.exists()) {
+            reloadTree(readFile(stored), "app storage");
+        }
+    }
+
+    /**
+     * Parses and validates a tree and, if it is newer than the one in use, publishes it. Sessions
+     * move to it on their next turn, staying on the node with the same ID. Call off the main thread.
+     * @param source where the tree came from, for the log
+     * @return whether the tree was published; an invalid or older tree leaves the current one in place
+     */
+    public boolean reloadTree(String json, String source) {
+        if (json == null) {
+            return false;
+        }
+        ConversationTree parsed;
         try {
-            String jsonString = readJSONFromAsset(context, CONVERSATION_FILE);
-            if (jsonString != null) {
-                jsonTree = new JSONObject(jsonString);
-                rootNode = convertJsonToNodeStructure(jsonTree.getJSONObject("root"));
-                currentNode = rootNode;
-                Log.d(TAG, "Conversation tree loaded successfully");
-            } else {
-                Log.e(TAG, "Failed to read conversation tree JSON");
-                createMinimalStructure();
+            parsed = ConversationTree.parse(json);
+        } catch (JSONException | IllegalArgumentException e) {
+            Log.e(TAG, "Rejected conversation tree from " + source, e);
+            return false;
+        }
+        return publishTree(parsed, source);
+    }
+
+    /**
+     * Like {@link #reloadTree}, and also keeps a published tree in app storage for the next start.
+     * For trees pushed by the server.
+     */
+    public boolean installTree(String json, String source) {
+        if (!reloadTree(json, source)) {
+            return false;
+        }
+        File stored = storedTreeFile();
+        File temp = new File(stored.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Error storing conversation tree", e);
+            return true;
+        }
+        // The rename is atomic, so the watcher and the next start never see half a file
+        if (!temp.renameTo(stored)) {
+            Log.e(TAG, "Error storing conversation tree: rename failed");
+        }
+        return true;
+    }
+
+    private boolean publishTree(ConversationTree next, String source) {
+        while (true) {
+            ConversationTree current = tree.get();
+            if (current != null && next.getVersion() <= current.getVersion()) {
+                Log.d(TAG, "Ignoring conversation tree version " + next.getVersion() + " from " + source
+                        + ", already on " + current.getVersion());
+                return false;
             }
-        } catch (JSONException e) {
-            Log.e(TAG, "Error parsing conversation tree JSON", e);
-            createMinimalStructure();
-        }
-    }
-
-    private ChatbotNode convertJsonToNodeStructure(JSONObject jsonNode) throws JSONException {
-        String id = jsonNode.getString("id");
-        String type = jsonNode.getString("type");
-        String message = jsonNode.getString("message");
-        String content = jsonNode.optString("content", "");
-        String fallback = jsonNode.optString("fallback", "I didn't understand that.");
-
-        ChatbotNode node = new ChatbotNode(id, type, message, content, fallback);
-        nodeMap.put(id, node);
-
-        if (jsonNode.has("children")) {
-            Object childrenObj = jsonNode.get("children");
-            if (childrenObj instanceof JSONArray) {
-                JSONArray childArray = (JSONArray) childrenObj;
-                for (int i = 0; i < childArray.length(); i++) {
-                    Object childObj = childArray.get(i);
-                    if (childObj instanceof JSONObject) {
-                        ChatbotNode childNode = convertJsonToNodeStructure((JSONObject) childObj);
-                        childNode.setParent(node);
-                        node.addChild(childNode);
-                    } else if (childObj instanceof String) {
-                        // Handle string references (like "root")
-                        String childId = (String) childObj;
-                        // We'll link these after all nodes are created
-                        node.addPendingChildId(childId);
+            if (tree.compareAndSet(current, next)) {
+                Log.d(TAG, "Conversation tree version " + next.getVersion() + " (" + next.size()
+                        + " nodes) loaded from " + source);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * The version of the tree in use, or -1 before one is loaded. Safe to call from any thread.
+     */
+    public long getTreeVersion() {
+        ConversationTree current = tree.get();
+        return current == null ? -1 : current.getVersion();
+    }
+
+    private File storedTreeFile() {
+        return new File(appContext.getFilesDir(), CONVERSATION_FILE);
+    }
+
+    private void watchTreeFile(Executor executor) {
+        synchronized (this) {
+            if (treeFileObserver != null) {
+                return;
+            }
+            treeFileObserver = new FileObserver(appContext.getFilesDir(),
+                    FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO) {
+                @Override
+                public void onEvent(int event, String path) {
+                    if (CONVERSATION_FILE.equals(path)) {
+                        executor.execute(() -> reloadTree(readFile(storedTreeFile()), "app storage"));
                     }
                 }
+            };
+            treeFileObserver.startWatching();
+        }
+    }
+
+    /**
+     * The node the conversation is at, moved onto the latest tree first if a new one was published
+     * since the last turn. Main thread only.
+     */
+    private ChatbotNode current() {
+        ConversationTree latest = tree.get();
+        if (latest != null && latest != sessionTree) {
+            ChatbotNode migrated = currentNode == null ? null : latest.getNode(currentNode.getId());
+            if (migrated == null) {
+                if (currentNode != null) {
+                    Log.w(TAG, "Node " + currentNode.getId() + " is gone in tree version " + latest.getVersion()
+                            + ", restarting at the root");
+                }
+                migrated = latest.getRoot();
             }
+            currentNode = migrated;
+            sessionTree = latest;
         }
+        return currentNode;
+    }
 
-        return node;
+    /**
+     * The node with this ID in the tree the session is on, after moving it to the latest one,
+     * or null. Main thread only.
+     */
+    private ChatbotNode findNode(String nodeId) {
+        current();
+        return sessionTree == null ? null : sessionTree.getNode(nodeId);
     }
 
-    // Called after all nodes are created to resolve string references
-    private void resolveNodeReferences() {
-        for (ChatbotNode node : nodeMap.values()) {
-            List<String> pendingIds = node.getPendingChildIds();
-            for (String id : pendingIds) {
-                ChatbotNode referencedNode = nodeMap.get(id);
-                if (referencedNode != null) {
-                    node.addChild(referencedNode);
+    /**
+     * Whether the server may answer with this node ID. Safe to call from any thread.
+     */
+    public boolean isCategoryId(String nodeId) {
+        ConversationTree current = tree.get();
+        return current != null && current.isCategoryId(nodeId);
+    }
+
+    /**
+     * Builds the slot extractor's gazetteers and the performance calendar from the show catalog;
+     * without the catalog only show names and rooms are left to the server, and there is no calendar
+     */
+    private void loadCatalog(Context context) {
+        String jsonString = readJSONFromAsset(context, SHOWS_FILE);
+        if (jsonString != null) {
+            try {
+                JSONArray catalog = new JSONArray(jsonString);
+                slotExtractor = SlotExtractor.fromCatalog(catalog);
+                catalogDays = daysOf(catalog);
+                PerformanceCalendar season = PerformanceCalendar.fromCatalog(catalog, LocalDate.now(), SEASON_WEEKS);
+                for (PerformanceCalendar.Performance[] conflict : season.getRoomConflicts()) {
+                    Log.w(TAG, "Room conflict: " + conflict[0] + " overlaps " + conflict[1]);
                 }
+                Log.d(TAG, "Loaded " + season);
+                calendar = season;
+                return;
+            } catch (JSONException e) {
+                Log.e(TAG, "Error parsing show catalog", e);
             }
-            node.clearPendingChildIds();
         }
+        slotExtractor = new SlotExtractor();
+    }
+
+    private static SlotSet<Day> daysOf(JSONArray catalog) throws JSONException {
+        SlotSet<Day> days = new SlotSet<>(Day.class);
+        for (int i = 0; i < catalog.length(); i++) {
+            days.addBits(Day.bitsOf(catalog.getJSONObject(i).optString("day")));
+        }
+        return days;
     }
 
     private String readJSONFromAsset(Context context, String filePath) {
@@ -115,17 +346,19 @@ public class ChatbotManager {
         return json;
     }
 
-    private void createMinimalStructure() {
-        rootNode = new ChatbotNode("root", "CATEGORISE",
-            "Γεια σας! Πώς μπορώ να σας βοηθήσω;", "",
-            "Δεν κατάλαβα την ερώτησή σας.");
-        nodeMap.put("root", rootNode);
-        currentNode = rootNode;
+    private static String readFile(File file) {
+        try {
+            return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading " + file, e);
+            return null;
+        }
     }
 
     public String getInitialMessage() {
-        if (rootNode != null) {
-            return rootNode.getMessage();
+        ConversationTree current = tree.get();
+        if (current != null) {
+            return current.getRoot().getMessage();
         }
         return "Γεια σας! Πώς μπορώ να σας βοηθήσω;";
     }
@@ -133,13 +366,13 @@ public class ChatbotManager {
     public String getResponseForNodeId(String nodeId) {
         Log.d(TAG, "Getting response for node ID: " + nodeId);
 
-        ChatbotNode node = nodeMap.get(nodeId);
+        ChatbotNode node = findNode(nodeId);
         if (node == null) {
             Log.e(TAG, "Node ID not found: " + nodeId);
             return "Συγγνώμη, δεν βρέθηκε απάντηση.";
         }
 
-        currentNode = node;
+        moveTo(node);
         return node.getMessage();
     }
 
@@ -147,10 +380,11 @@ public class ChatbotManager {
         try {
             ChatbotNode nextNode = chooseNextNode(userInput);
             if (nextNode != null) {
-                currentNode = nextNode;
+                moveTo(nextNode);
                 return nextNode.getMessage();
             } else {
-                return currentNode.getFallback();
+                analytics.recordFallback(current().getId());
+                return current().getFallback();
             }
         } catch (Exception e) {
             Log.e(TAG, "Error getting local response", e);
@@ -159,6 +393,8 @@ public class ChatbotManager {
     }
 
     public ChatbotNode chooseNextNode(String userInput) {
+        ChatbotNode currentNode = current();
+        ChatbotNode rootNode = sessionTree.getRoot();
         if (!currentNode.hasChildren()) {
             return rootNode;
         }
@@ -173,14 +409,77 @@ public class ChatbotManager {
 
         // Simple selection - could be improved with NLP
         int idx = random.nextInt(children.size());
-        ChatbotNode nextNode = children.get(idx);
-        // Assign messageTemplate for nextNode based on previous node's ID
-        try {
-            nextNode.setMessageTemplate(MsgTemplate.createTemplate(currentNode.getId()));
-        } catch (IllegalArgumentException e) {
-            // No template available for this previous node ID; skip
+        return children.get(idx);
+    }
+
+    /**
+     * The template accumulating this conversation's slots for a category, created empty on first use,
+     * or null if the category has no template. Kept here rather than on the tree's nodes, which other
+     * sessions share and which outlive the pool's templates.
+     */
+    public MsgTemplate getSlots(String categoryId) {
+        MsgTemplate slots = slotsByCategory.get(categoryId);
+        if (slots == null && MsgTemplate.hasTemplate(categoryId)) {
+            slots = templatePool.obtain(categoryId);
+            slotsByCategory.put(categoryId, slots);
+        }
+        return slots;
+    }
+
+    /**
+     * Merges the slots one reply extracted into the category's accumulated template. The delta is
+     * recycled, so the caller must not keep it.
+     * @return the accumulated template, or null if the category has no template
+     */
+    public MsgTemplate mergeSlots(String categoryId, MsgTemplate delta, SlotSource source) {
+        MsgTemplate slots = getSlots(categoryId);
+        if (slots == null) {
+            templatePool.recycle(delta);
+            return null;
+        }
+        int changed = slots.mergeFrom(delta, source, ++slotTurn);
+        templatePool.recycle(delta);
+        SlotSet<Day> days = catalogDays;
+        if (days != null && !days.isEmpty()) {
+            // Only offer days that have performances
+            slots.restrictDays(days);
+        }
+        Log.d(TAG, "Merged " + changed + " slot(s) for " + categoryId + ", still missing " + slots.getMissingSlots());
+        return slots;
+    }
+
+    /**
+     * Merges the slots the on-device extractor finds in the message into the category's template,
+     * so the EXTRACT that follows only asks the server for the rest
+     * @return whether this message filled the category's last missing slots, in which case the
+     * server has nothing to add and need not be asked
+     */
+    public boolean extractLocally(String categoryId, String userMessage) {
+        SlotExtractor extractor = slotExtractor;
+        if (extractor == null || !MsgTemplate.hasTemplate(categoryId)) {
+            return false;
+        }
+        MsgTemplate delta = templatePool.obtain(categoryId);
+        if (extractor.extract(userMessage, delta) == 0) {
+            templatePool.recycle(delta);
+            return false;
+        }
+        // Once complete, a message is a correction, which the server reads in full
+        boolean wasComplete = getSlots(categoryId).isComplete();
+        MsgTemplate slots = mergeSlots(categoryId, delta, SlotSource.LOCAL);
+        return !wasComplete && slots.isComplete();
+    }
+
+    /**
+     * The slots an EXTRACT for the category should still ask for. Empty until a first reply has
+     * been merged, and again once everything is filled, meaning the server extracts every slot.
+     */
+    public List<String> getMissingSlots(String categoryId) {
+        MsgTemplate slots = slotsByCategory.get(categoryId);
+        if (slots == null || slots.isComplete()) {
+            return Collections.emptyList();
         }
-        return nextNode;
+        return slots.getMissingSlots();
     }
 
     private void logAvailableChildren(List<ChatbotNode> children) {
@@ -192,7 +491,7 @@ public class ChatbotManager {
     }
 
     public String findNodeResponseById(String nodeId) {
-        ChatbotNode node = nodeMap.get(nodeId);
+        ChatbotNode node = findNode(nodeId);
         if (node != null) {
             return node.getMessage();
         }
@@ -208,15 +507,321 @@ public class ChatbotManager {
     }
 
     public void reset() {
-        currentNode = rootNode;
+        sessionTree = tree.get();
+        currentNode = sessionTree == null ? null : sessionTree.getRoot();
+        predicted = Collections.emptyList();
+        prefetched = Collections.emptyList();
+        for (MsgTemplate slots : slotsByCategory.values()) {
+            templatePool.recycle(slots);
+        }
+        slotsByCategory.clear();
+    }
+
+    /**
+     * Ends the session: recycles the accumulated slots and closes the template pool,
+     * which reports any template that was never recycled. The analytics and transition model are
+     * saved only if loading finished, so a session ended during cold start keeps earlier totals.
+     */
+    public void release() {
+        synchronized (this) {
+            if (treeFileObserver != null) {
+                treeFileObserver.stopWatching();
+                treeFileObserver = null;
+            }
+        }
+        ChatbotNode last = current();
+        if (last != null && sessionTree != null && last != sessionTree.getRoot()) {
+            analytics.recordAbandon(last.getId());
+        }
+        reset();
+        templatePool.close();
+        if (isReady()) {
+            saveTransitions();
+            exportAnalytics();
+        }
+        exportExecutor.shutdown();
+        Log.d(TAG, "Predicted " + predictionHits + " of " + predictions + " moves; "
+                + (prefetches - prefetchesUsed) + " of " + prefetches + " prefetches wasted");
+    }
+
+    /**
+     * Moves the conversation to a node, teaching the transition model the move and prefetching
+     * for the moves it predicts from there
+     */
+    private void moveTo(ChatbotNode next) {
+        ChatbotNode from = current();
+        analytics.recordMove(from == null ? null : from.getId(), next.getId());
+        if (++turnsSinceExport >= EXPORT_TURNS && isReady()) {
+            saveTransitions();
+            exportAnalytics();
+        }
+        if (from != null) {
+            transitions.record(from.getId(), next.getId());
+            if (!predicted.isEmpty()) {
+                predictions++;
+                if (predicted.get(0).equals(next.getId())) {
+                    predictionHits++;
+                }
+            }
+            if (prefetched.contains(next.getId())) {
+                prefetchesUsed++;
+            }
+        }
+        currentNode = next;
+
+        predicted = transitions.predict(next.getId(), prefetchMinProbability, Math.max(1, prefetchMaxPerTurn));
+        prefetched = Collections.emptyList();
+        if (prefetcher == null) {
+            return;
+        }
+        for (int i = 0; i < predicted.size() && prefetched.size() < prefetchMaxPerTurn; i++) {
+            ChatbotNode target = sessionTree.getNode(predicted.get(i));
+            if (target != null && prefetcher.prefetch(target)) {
+                if (prefetched.isEmpty()) {
+                    prefetched = new ArrayList<>(prefetchMaxPerTurn);
+                }
+                prefetched.add(target.getId());
+                prefetches++;
+            }
+        }
+    }
+
+    public void setPrefetcher(Prefetcher prefetcher) {
+        this.prefetcher = prefetcher;
+    }
+
+    /**
+     * Sets the prefetch budget: after each move, at most maxPerTurn of the predicted next nodes are
+     * prefetched for, and only those at least minProbability likely. 0 turns prefetching off.
+     */
+    public void setPrefetchPolicy(double minProbability, int maxPerTurn) {
+        if (minProbability < 0 || minProbability > 1 || maxPerTurn < 0) {
+            throw new IllegalArgumentException("Invalid prefetch policy: " + minProbability + ", " + maxPerTurn);
+        }
+        prefetchMinProbability = minProbability;
+        prefetchMaxPerTurn = maxPerTurn;
+    }
+
+    /**
+     * The share of moves the most likely predicted node was right about, or 0 before any prediction
+     */
+    public double getPredictionAccuracy() {
+        return predictions == 0 ? 0 : (double) predictionHits / predictions;
+    }
+
+    public long getPrefetchCount() {
+        return prefetches;
+    }
+
+    /**
+     * Prefetches made for a node the conversation did not move to next
+     */
+    public long getWastedPrefetchCount() {
+        // The prefetches of the latest move are still pending
+        return prefetches - prefetchesUsed - prefetched.size();
+    }
+
+    private void loadTransitions() {
+        File file = new File(appContext.getFilesDir(), TRANSITIONS_FILE);
+        if (!file.exists()) {
+            return;
+        }
+        String json = readFile(file);
+        if (json == null) {
+            return;
+        }
+        try {
+            transitions.addFromJson(new JSONObject(json));
+        } catch (JSONException e) {
+            Log.e(TAG, "Error parsing transitions, starting from scratch", e);
+        }
+    }
+
+    /**
+     * Keeps what this session taught the transition model for the next one, periodically and when
+     * the session ends, so a killed process loses at most a few turns of it. Encoded here on the
+     * main thread and written on the export thread.
+     */
+    private void saveTransitions() {
+        final byte[] contents;
+        try {
+            contents = transitions.toJson().toString().getBytes(StandardCharsets.UTF_8);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error encoding transitions", e);
+            return;
+        }
+        writeInBackground(new File(appContext.getFilesDir(), TRANSITIONS_FILE), contents);
+    }
+
+    private void loadAnalytics() {
+        File file = new File(appContext.getFilesDir(), ANALYTICS_FILE);
+        if (!file.exists()) {
+            return;
+        }
+        String json = readFile(file);
+        if (json == null) {
+            return;
+        }
+        try {
+            analytics.addFromJson(new JSONObject(json));
+        } catch (JSONException e) {
+            Log.e(TAG, "Error parsing analytics, starting from scratch", e);
+        }
+    }
+
+    /**
+     * Writes the analytics counters, totalled over every session so far, to app storage. The
+     * counters are encoded here on the main thread, which owns them, and the file is replaced
+     * atomically on the export thread.
+     */
+    private void exportAnalytics() {
+        turnsSinceExport = 0;
+        final byte[] contents;
+        try {
+            contents = analytics.toJson().toString().getBytes(StandardCharsets.UTF_8);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error encoding analytics", e);
+            return;
+        }
+        writeInBackground(new File(appContext.getFilesDir(), ANALYTICS_FILE), contents);
+    }
+
+    /**
+     * Replaces the file on the export thread, through a temporary file so a reader never sees
+     * it half written
+     */
+    private void writeInBackground(File file, byte[] contents) {
+        exportExecutor.execute(() -> {
+            File tmp = new File(file.getPath() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                out.write(contents);
+            } catch (IOException e) {
+                Log.e(TAG, "Error writing " + file, e);
+                return;
+            }
+            if (!tmp.renameTo(file)) {
+                Log.e(TAG, "Could not replace " + file);
+            }
+        });
+    }
+
+    /**
+     * How often conversations reached a node, counted across sessions. Main thread only.
+     */
+    public long getVisitCount(String nodeId) {
+        return analytics.getVisits(nodeId);
+    }
+
+    /**
+     * How often a message at a node matched nothing and got the node's fallback. Main thread only.
+     */
+    public long getFallbackCount(String nodeId) {
+        return analytics.getFallbacks(nodeId);
+    }
+
+    /**
+     * How often a conversation ended at a node instead of back at the root. Main thread only.
+     */
+    public long getAbandonCount(String nodeId) {
+        return analytics.getAbandons(nodeId);
+    }
+
+    /**
+     * How often conversations moved from one node to another, counted across sessions. Main thread only.
+     */
+    public long getTransitionCount(String from, String to) {
+        return analytics.getTransitions(from, to);
+    }
+
+    /**
+     * Writes where the conversation is and the slots filled so far, for a {@link SessionSnapshot}.
+     * Main thread only.
+     */
+    void writeState(DataOutput out) throws IOException {
+        ChatbotNode node = current();
+        out.writeUTF(node == null ? "" : node.getId());
+        out.writeInt(slotTurn);
+        out.writeShort(slotsByCategory.size());
+        for (Map.Entry<String, MsgTemplate> entry : slotsByCategory.entrySet()) {
+            out.writeUTF(entry.getKey());
+            entry.getValue().writeSlots(out);
+        }
+    }
+
+    /**
+     * Resumes a conversation from a {@link SessionSnapshot}, replacing this one. The slots must come
+     * from this manager's template pool. A node the tree no longer has restarts at the root, keeping
+     * the slots. Main thread only.
+     */
+    void restoreState(String nodeId, Map<String, MsgTemplate> slots, int turn) {
+        reset();
+        slotsByCategory.putAll(slots);
+        slotTurn = turn;
+        ChatbotNode node = findNode(nodeId);
+        if (node == null) {
+            Log.w(TAG, "Snapshot node " + nodeId + " is not in the tree, resuming at the root");
+            return;
+        }
+        currentNode = node;
+    }
+
+    /**
+     * The node with this ID in the tree in use, or null. Main thread only.
+     */
+    ChatbotNode getNode(String nodeId) {
+        return findNode(nodeId);
+    }
+
+    /**
+     * The season's performances, for questions about days, times and durations; null until the
+     * tree has loaded or if the show catalog could not be read. Safe to call from any thread.
+     */
+    public PerformanceCalendar getCalendar() {
+        return calendar;
+    }
+
+    /**
+     * Lists the next performances matching the category's slots, e.g. the days, earliest time and
+     * longest duration asked about so far, or returns null if the category asks nothing about the
+     * schedule, nothing matches or the calendar is not loaded.
+     */
+    public String describePerformances(String categoryId) {
+        PerformanceCalendar season = calendar;
+        MsgTemplate slots = slotsByCategory.get(categoryId);
+        if (season == null || slots == null) {
+            return null;
+        }
+        List<PerformanceCalendar.Performance> found = slots.findPerformances(season, LocalDateTime.now(),
+                MAX_PERFORMANCES_LISTED);
+        if (found.isEmpty()) {
+            return null;
+        }
+        StringBuilder text = new StringBuilder("Επόμενες παραστάσεις:");
+        for (PerformanceCalendar.Performance performance : found) {
+            text.append("\n").append(performance.getDay().getGreekName())
+                    .append(' ').append(performance.getStart().format(PERFORMANCE_FORMAT))
+                    .append(" - ").append(performance.getShow());
+            if (!performance.getRoom().isEmpty()) {
+                text.append(", ").append(performance.getRoom());
+            }
+            text.append(" (").append(performance.getDurationMinutes()).append("')");
+        }
+        return text.toString();
+    }
+
+    /**
+     * The session's template pool. Safe to use from any thread.
+     */
+    public TemplatePool getTemplatePool() {
+        return templatePool;
     }
 
     public ChatbotNode getCurrentNode() {
-        return currentNode;
+        return current();
     }
 
     public String getParentNodeId(String nodeId) {
-        ChatbotNode node = nodeMap.get(nodeId);
+        ChatbotNode node = findNode(nodeId);
         if (node != null && node.getParent() != null) {
             return node.getParent().getId();
         }
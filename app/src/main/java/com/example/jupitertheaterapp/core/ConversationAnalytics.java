@@ -0,0 +1,203 @@
+package com.example.jupitertheaterapp.core;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Counts where conversations go: visits per node, fallbacks per node, conversations abandoned at
+ * each node and every transition taken. Unlike the {@link TransitionModel}, counts are never aged,
+ * so they add up to the real traffic. Cheap enough to stay on in production. A turn costs one
+ * hash lookup per node and a few increments in primitive arrays. Transitions are kept in an
+ * open-addressing table keyed by the pair of node indexes. Only the main thread records, so no
+ * counter needs to be atomic. Not thread-safe.
+ */
+final class ConversationAnalytics {
+    private static final int VISITS = 0;
+    private static final int FALLBACKS = 1;
+    private static final int ABANDONS = 2;
+    private static final int FIELDS = 3;
+    private static final long EMPTY = -1;
+
+    // Node IDs by index and their counters at [index * FIELDS + field]
+    private final Map<String, Integer> nodeIndex = new HashMap<>();
+    private String[] nodeIds = new String[32];
+    private long[] counters = new long[32 * FIELDS];
+
+    // Transition counts keyed by (from index << 32 | to index); at most half full
+    private long[] transitionKeys = newKeys(64);
+    private long[] transitionCounts = new long[64];
+    private int transitions;
+
+    void recordMove(String from, String to) {
+        int target = indexOf(to);
+        counters[target * FIELDS + VISITS]++;
+        if (from != null) {
+            addTransition((long) indexOf(from) << 32 | target, 1);
+        }
+    }
+
+    /**
+     * The user's message at this node matched nothing and got the node's fallback
+     */
+    void recordFallback(String nodeId) {
+        counters[indexOf(nodeId) * FIELDS + FALLBACKS]++;
+    }
+
+    /**
+     * The conversation ended at this node without getting back to the root
+     */
+    void recordAbandon(String nodeId) {
+        counters[indexOf(nodeId) * FIELDS + ABANDONS]++;
+    }
+
+    long getVisits(String nodeId) {
+        return get(nodeId, VISITS);
+    }
+
+    long getFallbacks(String nodeId) {
+        return get(nodeId, FALLBACKS);
+    }
+
+    long getAbandons(String nodeId) {
+        return get(nodeId, ABANDONS);
+    }
+
+    long getTransitions(String from, String to) {
+        Integer source = nodeIndex.get(from);
+        Integer target = nodeIndex.get(to);
+        if (source == null || target == null) {
+            return 0;
+        }
+        int slot = find((long) source << 32 | target);
+        return transitionKeys[slot] == EMPTY ? 0 : transitionCounts[slot];
+    }
+
+    /**
+     * The counts as {"nodes": {"id": [visits, fallbacks, abandons], ...}, "transitions": {"from": {"to": n}}}
+     */
+    JSONObject toJson() throws JSONException {
+        JSONObject nodes = new JSONObject();
+        for (int i = 0; i < nodeIndex.size(); i++) {
+            nodes.put(nodeIds[i], new JSONArray()
+                    .put(counters[i * FIELDS + VISITS])
+                    .put(counters[i * FIELDS + FALLBACKS])
+                    .put(counters[i * FIELDS + ABANDONS]));
+        }
+        JSONObject moves = new JSONObject();
+        for (int slot = 0; slot < transitionKeys.length; slot++) {
+            long key = transitionKeys[slot];
+            if (key == EMPTY) {
+                continue;
+            }
+            String from = nodeIds[(int) (key >>> 32)];
+            JSONObject targets = moves.optJSONObject(from);
+            if (targets == null) {
+                targets = new JSONObject();
+                moves.put(from, targets);
+            }
+            targets.put(nodeIds[(int) key], transitionCounts[slot]);
+        }
+        return new JSONObject().put("nodes", nodes).put("transitions", moves);
+    }
+
+    /**
+     * Adds counts exported by {@link #toJson()}, e.g. by an earlier process
+     */
+    void addFromJson(JSONObject json) throws JSONException {
+        JSONObject nodes = json.optJSONObject("nodes");
+        if (nodes != null) {
+            Iterator<String> ids = nodes.keys();
+            while (ids.hasNext()) {
+                String id = ids.next();
+                JSONArray counts = nodes.getJSONArray(id);
+                int base = indexOf(id) * FIELDS;
+                for (int field = 0; field < FIELDS && field < counts.length(); field++) {
+                    counters[base + field] += counts.getLong(field);
+                }
+            }
+        }
+        JSONObject moves = json.optJSONObject("transitions");
+        if (moves != null) {
+            Iterator<String> sources = moves.keys();
+            while (sources.hasNext()) {
+                String from = sources.next();
+                JSONObject targets = moves.getJSONObject(from);
+                Iterator<String> names = targets.keys();
+                while (names.hasNext()) {
+                    String to = names.next();
+                    addTransition((long) indexOf(from) << 32 | indexOf(to), targets.getLong(to));
+                }
+            }
+        }
+    }
+
+    private long get(String nodeId, int field) {
+        Integer index = nodeIndex.get(nodeId);
+        return index == null ? 0 : counters[index * FIELDS + field];
+    }
+
+    private int indexOf(String nodeId) {
+        Integer index = nodeIndex.get(nodeId);
+        if (index == null) {
+            index = nodeIndex.size();
+            if (index == nodeIds.length) {
+                nodeIds = Arrays.copyOf(nodeIds, index * 2);
+                counters = Arrays.copyOf(counters, index * 2 * FIELDS);
+            }
+            nodeIds[index] = nodeId;
+            nodeIndex.put(nodeId, index);
+        }
+        return index;
+    }
+
+    private void addTransition(long key, long count) {
+        int slot = find(key);
+        if (transitionKeys[slot] == EMPTY) {
+            transitionKeys[slot] = key;
+            transitions++;
+        }
+        transitionCounts[slot] += count;
+        if (2 * transitions > transitionKeys.length) {
+            grow();
+        }
+    }
+
+    /**
+     * The slot holding the key, or the empty slot where it would go
+     */
+    private int find(long key) {
+        int mask = transitionKeys.length - 1;
+        int hash = (int) (key ^ key >>> 32) * 0x9E3779B9;
+        int slot = (hash ^ hash >>> 16) & mask;
+        while (transitionKeys[slot] != EMPTY && transitionKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        long[] keys = transitionKeys;
+        long[] counts = transitionCounts;
+        transitionKeys = newKeys(keys.length * 2);
+        transitionCounts = new long[keys.length * 2];
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                int slot = find(keys[i]);
+                transitionKeys[slot] = keys[i];
+                transitionCounts[slot] = counts[i];
+            }
+        }
+    }
+
+    private static long[] newKeys(int size) {
+        long[] keys = new long[size];
+        Arrays.fill(keys, EMPTY);
+        return keys;
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.jupitertheaterapp.core;
+
+import com.example.jupitertheaterapp.model.ChatbotNode;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * One parsed and validated version of conversation_tree.json. The structure of a snapshot never
+ * changes once built, so a new version can be parsed in the background and published by swapping
+ * a single reference while sessions keep reading the old one.
+ */
+public final class ConversationTree {
+    private static final String ROOT_ID = "root";
+
+    private final long version;
+    private final ChatbotNode root;
+    private final Map<String, ChatbotNode> nodes;
+    // IDs a categorisation may answer with: the children of every CATEGORISE node
+    private final Set<String> categoryIds;
+
+    private ConversationTree(long version, ChatbotNode root, Map<String, ChatbotNode> nodes) {
+        this.version = version;
+        this.root = root;
+        this.nodes = Collections.unmodifiableMap(nodes);
+        Set<String> ids = new HashSet<>();
+        for (ChatbotNode node : nodes.values()) {
+            if (node.isCategoriseNode()) {
+                for (ChatbotNode child : node.getChildren()) {
+                    ids.add(child.getId());
+                }
+            }
+        }
+        categoryIds = Collections.unmodifiableSet(ids);
+    }
+
+    /**
+     * Parses and validates a tree. Child references by ID, such as the "root" every leaf leads
+     * back to, are resolved to the nodes they name.
+     * @throws JSONException if the JSON is malformed or a node lacks a required field
+     * @throws IllegalArgumentException if the tree is inconsistent, e.g. a reference names no node
+     */
+    public static ConversationTree parse(String json) throws JSONException {
+        JSONObject jsonTree = new JSONObject(json);
+        Map<String, ChatbotNode> nodes = new HashMap<>();
+        ChatbotNode root = convertJsonToNodeStructure(jsonTree.getJSONObject(ROOT_ID), nodes);
+        if (!ROOT_ID.equals(root.getId())) {
+            throw new IllegalArgumentException("Root node has ID '" + root.getId() + "'");
+        }
+        if (!root.isCategoriseNode() || !root.hasChildren()) {
+            throw new IllegalArgumentException("Root node must be a CATEGORISE node with children");
+        }
+        resolveNodeReferences(nodes);
+        return new ConversationTree(jsonTree.optLong("version", 0), root, nodes);
+    }
+
+    /**
+     * A root-only tree, for when no valid tree can be loaded at all
+     */
+    static ConversationTree minimal() {
+        ChatbotNode root = new ChatbotNode(ROOT_ID, "CATEGORISE",
+            "Γεια σας! Πώς μπορώ να σας βοηθήσω;", "",
+            "Δεν κατάλαβα την ερώτησή σας.");
+        Map<String, ChatbotNode> nodes = new HashMap<>();
+        nodes.put(ROOT_ID, root);
+        return new ConversationTree(-1, root, nodes);
+    }
+
+    private static ChatbotNode convertJsonToNodeStructure(JSONObject jsonNode, Map<String, ChatbotNode> nodes)
+            throws JSONException {
+        String id = jsonNode.getString("id");
+        String type = jsonNode.getString("type");
+        String message = jsonNode.getString("message");
+        String content = jsonNode.optString("content", "");
+        String fallback = jsonNode.optString("fallback", "I didn't understand that.");
+
+        ChatbotNode node = new ChatbotNode(id, type, message, content, fallback);
+        if (!node.isCategoriseNode() && !node.isExtractNode()) {
+            throw new IllegalArgumentException("Node '" + id + "' has unknown type '" + type + "'");
+        }
+        if (nodes.put(id, node) != null) {
+            throw new IllegalArgumentException("Duplicate node ID '" + id + "'");
+        }
+
+        if (jsonNode.has("children")) {
+            Object childrenObj = jsonNode.get("children");
+            if (childrenObj instanceof JSONArray) {
+                JSONArray childArray = (JSONArray) childrenObj;
+                for (int i = 0; i < childArray.length(); i++) {
+                    Object childObj = childArray.get(i);
+                    if (childObj instanceof JSONObject) {
+                        ChatbotNode childNode = convertJsonToNodeStructure((JSONObject) childObj, nodes);
+                        childNode.setParent(node);
+                        node.addChild(childNode);
+                    } else if (childObj instanceof String) {
+                        // Handle string references (like "root")
+                        // We'll link these after all nodes are created
+                        node.addPendingChildId((String) childObj);
+                    }
+                }
+            }
+        }
+
+        return node;
+    }
+
+    // Called after all nodes are created to resolve string references
+    private static void resolveNodeReferences(Map<String, ChatbotNode> nodes) {
+        for (ChatbotNode node : nodes.values()) {
+            List<String> pendingIds = node.getPendingChildIds();
+            for (String id : pendingIds) {
+                ChatbotNode referencedNode = nodes.get(id);
+                if (referencedNode == null) {
+                    throw new IllegalArgumentException(
+                            "Node '" + node.getId() + "' refers to unknown node '" + id + "'");
+                }
+                node.addChild(referencedNode);
+            }
+            node.clearPendingChildIds();
+        }
+    }
+
+    /**
+     * The version from the tree's top-level "version" field; 0 if it has none, -1 for {@link #minimal()}.
+     * Only a tree with a higher version replaces the one in use.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public ChatbotNode getRoot() {
+        return root;
+    }
+
+    /**
+     * The node with this ID, or null
+     */
+    public ChatbotNode getNode(String id) {
+        return nodes.get(id);
+    }
+
+    public boolean isCategoryId(String nodeId) {
+        return categoryIds.contains(nodeId);
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.jupitertheaterapp.core;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * Turns the user's sends into requests for one session. Users often type a request in fragments
+ * ("θέλω", "2 εισιτήρια", "για Παρασκευή"); fragments sent within a short window of each other are
+ * joined into one message, so the bot answers the whole intent once instead of several round trips
+ * racing each other. The window follows how fast this user sends fragments and shrinks again for a
+ * user who sends whole messages, so they barely wait.
+ * <p>
+ * At most one request per session is in flight; input typed while it is answered is joined into the
+ * next one. Requests also draw from a token bucket, and input over the rate is held and joined
+ * rather than dropped. Main thread only.
+ */
+final class InputScheduler {
+    private static final long MIN_WINDOW_MS = 250;
+    private static final long MAX_WINDOW_MS = 1500;
+    private static final long INITIAL_WINDOW_MS = 600;
+    private static final long MAX_HOLD_MS = 4000;          // The longest the first fragment waits for more
+    private static final long IN_FLIGHT_TIMEOUT_MS = 15000; // Stop waiting for an answer that never comes
+    private static final int BUCKET_CAPACITY = 4;
+    private static final long TOKEN_REFILL_MS = 3000;
+
+    /**
+     * Receives each request; the scheduler must be told {@link #onAnswered()} once it is answered
+     */
+    interface Sink {
+        void send(String message);
+    }
+
+    private final Handler handler;
+    private final Sink sink;
+    private final Runnable flush = this::flush;
+
+    private final StringBuilder pending = new StringBuilder();
+    private int pendingFragments;
+    private long firstInputAt;
+    private long lastInputAt;
+
+    private double windowMs = INITIAL_WINDOW_MS;
+    private double gapEwmaMs = INITIAL_WINDOW_MS / 2.0;
+
+    private double tokens = BUCKET_CAPACITY;
+    private long refilledAt = SystemClock.uptimeMillis();
+
+    private boolean inFlight;
+    private long sentAt;
+
+    private long inputs;
+    private long requests;
+    private long throttled;
+
+    InputScheduler(Handler handler, Sink sink) {
+        this.handler = handler;
+        this.sink = sink;
+    }
+
+    /**
+     * Queues a message typed by the user; it is sent once the user pauses, joined with any fragments around it
+     */
+    void submit(String message) {
+        long now = SystemClock.uptimeMillis();
+        if (pendingFragments == 0) {
+            firstInputAt = now;
+        } else {
+            // A gap inside a burst tells how fast this user sends fragments
+            long gap = now - lastInputAt;
+            if (gap <= MAX_WINDOW_MS) {
+                gapEwmaMs = 0.7 * gapEwmaMs + 0.3 * gap;
+                windowMs = clamp(2 * gapEwmaMs);
+            }
+            pending.append(' ');
+        }
+        pending.append(message.trim());
+        pendingFragments++;
+        lastInputAt = now;
+        inputs++;
+        schedule(now);
+    }
+
+    /**
+     * Called once the last request has been answered, whether by the server, locally or with an error
+     */
+    void onAnswered() {
+        inFlight = false;
+        if (pendingFragments > 0) {
+            schedule(SystemClock.uptimeMillis());
+        }
+    }
+
+    /**
+     * Drops input not yet sent
+     */
+    void cancel() {
+        handler.removeCallbacks(flush);
+        pending.setLength(0);
+        pendingFragments = 0;
+    }
+
+    long getInputCount() {
+        return inputs;
+    }
+
+    long getRequestCount() {
+        return requests;
+    }
+
+    /**
+     * How many times a request was held back because the session's token bucket was empty
+     */
+    long getThrottledCount() {
+        return throttled;
+    }
+
+    long getWindowMs() {
+        return Math.round(windowMs);
+    }
+
+    private void schedule(long now) {
+        handler.removeCallbacks(flush);
+        // Wait for a pause after the last fragment, but never hold the first one too long
+        long due = Math.min(lastInputAt + Math.round(windowMs), firstInputAt + MAX_HOLD_MS);
+        handler.postDelayed(flush, Math.max(0, due - now));
+    }
+
+    private void flush() {
+        if (pendingFragments == 0) {
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        if (inFlight && now - sentAt < IN_FLIGHT_TIMEOUT_MS) {
+            // onAnswered() sends what has gathered meanwhile; this only runs if no answer comes
+            handler.postDelayed(flush, sentAt + IN_FLIGHT_TIMEOUT_MS - now);
+            return;
+        }
+        refill(now);
+        if (tokens < 1) {
+            throttled++;
+            handler.postDelayed(flush, (long) Math.ceil((1 - tokens) * TOKEN_REFILL_MS));
+            return;
+        }
+        tokens -= 1;
+
+        if (pendingFragments == 1) {
+            // Whole messages: let the window drift back down so they are not kept waiting
+            windowMs = clamp(windowMs * 0.8);
+        }
+        String message = pending.toString();
+        pending.setLength(0);
+        pendingFragments = 0;
+        inFlight = true;
+        sentAt = now;
+        requests++;
+        sink.send(message);
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(BUCKET_CAPACITY, tokens + (double) (now - refilledAt) / TOKEN_REFILL_MS);
+        refilledAt = now;
+    }
+
+    private static double clamp(double ms) {
+        return Math.max(MIN_WINDOW_MS, Math.min(MAX_WINDOW_MS, ms));
+    }
+}
@@ -0,0 +1,359 @@
+package com.example.jupitertheaterapp.core;
+
+import android.util.Log;
+
+import com.example.jupitertheaterapp.model.MsgTemplate;
+import com.example.jupitertheaterapp.model.TemplatePool;
+import com.example.jupitertheaterapp.model.Transcript;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the session in a binary journal in app storage, so a conversation survives process death or
+ * a kiosk reboot and resumes without replaying anything. The journal starts with a header and then
+ * holds one record per change:
+ * <pre>
+ *   header:  int magic, short format version
+ *   record:  byte kind, int payload length, payload, int CRC32 of the payload
+ *   STATE:   long saved at (wall clock), long tree version, then {@link ChatbotManager#writeState}
+ *   TURN:    one turn as written by {@link Transcript#writeTurn}
+ * </pre>
+ * Records are encoded on the main thread and appended in order on a writer thread, so a turn costs
+ * one small write instead of rewriting the session. Once enough has been appended the journal is
+ * compacted into the latest state and the transcript tail. A record cut short by a crash fails its
+ * CRC and ends the journal there.
+ */
+final class SessionSnapshot {
+    private static final String TAG = "SessionSnapshot";
+    private static final int MAGIC = 0x4A545353;  // "JTSS"
+    private static final short FORMAT_VERSION = 1;
+    private static final byte STATE = 1;
+    private static final byte TURN = 2;
+    private static final int HEADER_BYTES = 6;
+    private static final int RECORD_OVERHEAD = 9;  // Kind, length and CRC
+    private static final int MAX_TAIL_TURNS = 200;
+    private static final long COMPACT_AFTER_BYTES = 64 * 1024;
+    private static final long MAX_RESUME_AGE_MS = 30 * 60 * 1000;  // Older conversations were abandoned
+
+    private final File file;
+    private final ChatbotManager chatbotManager;
+    private final Transcript transcript;
+    private boolean started;
+    private long appendedBytes;
+
+    // Writes run in order on one thread that exits when idle
+    private final ThreadPoolExecutor writeExecutor = new ThreadPoolExecutor(
+            1, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+
+    /**
+     * A session read back from the journal. The slots are decoded off the main thread; the turns
+     * refer to tree nodes, so they are only decoded by {@link #applyTo} once the tree is loaded.
+     */
+    static final class Restored {
+        final long savedAt;
+        final String nodeId;
+        final int slotTurn;
+        final Map<String, MsgTemplate> slots;
+        final List<byte[]> turns;
+
+        Restored(long savedAt, String nodeId, int slotTurn, Map<String, MsgTemplate> slots, List<byte[]> turns) {
+            this.savedAt = savedAt;
+            this.nodeId = nodeId;
+            this.slotTurn = slotTurn;
+            this.slots = slots;
+            this.turns = turns;
+        }
+
+        /**
+         * Resumes the conversation and appends the transcript tail. Main thread only.
+         * @return the number of turns restored; turns showing nodes the tree no longer has are skipped
+         */
+        int applyTo(ChatbotManager chatbotManager, Transcript transcript) {
+            chatbotManager.restoreState(nodeId, slots, slotTurn);
+            int restored = 0;
+            for (byte[] turn : turns) {
+                try {
+                    if (transcript.readTurn(new DataInputStream(new ByteArrayInputStream(turn)),
+                            chatbotManager::getNode)) {
+                        restored++;
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Skipping unreadable turn", e);
+                }
+            }
+            return restored;
+        }
+    }
+
+    SessionSnapshot(File file, ChatbotManager chatbotManager, Transcript transcript) {
+        this.file = file;
+        this.chatbotManager = chatbotManager;
+        this.transcript = transcript;
+        writeExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Reads the journal in one read. Safe to call off the main thread.
+     * @return the latest session, or null if there is none, it is unreadable or older than {@link #MAX_RESUME_AGE_MS}
+     */
+    static Restored read(File file, TemplatePool pool) {
+        if (!file.exists()) {
+            return null;
+        }
+        byte[] data = new byte[(int) file.length()];
+        try (FileInputStream in = new FileInputStream(file)) {
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading " + file, e);
+            return null;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            if (data.length < HEADER_BYTES || in.readInt() != MAGIC) {
+                Log.w(TAG, "Not a session snapshot: " + file);
+                return null;
+            }
+            short version = in.readShort();
+            if (version != FORMAT_VERSION) {
+                Log.w(TAG, "Ignoring snapshot format " + version);
+                return null;
+            }
+
+            byte[] state = null;
+            List<byte[]> turns = new ArrayList<>();
+            int offset = HEADER_BYTES;
+            while (data.length - offset >= RECORD_OVERHEAD) {
+                byte kind = data[offset];
+                int length = readInt(data, offset + 1);
+                if (length < 0 || length > data.length - offset - RECORD_OVERHEAD) {
+                    break;
+                }
+                int start = offset + 5;
+                CRC32 crc = new CRC32();
+                crc.update(data, start, length);
+                if ((int) crc.getValue() != readInt(data, start + length)) {
+                    // Torn by a crash mid-write; nothing after it can be trusted
+                    Log.w(TAG, "Snapshot ends in a torn record at " + offset);
+                    break;
+                }
+                byte[] payload = new byte[length];
+                System.arraycopy(data, start, payload, 0, length);
+                if (kind == STATE) {
+                    state = payload;
+                } else if (kind == TURN) {
+                    turns.add(payload);
+                }
+                offset = start + length + 4;
+            }
+            if (state == null) {
+                return null;
+            }
+            if (turns.size() > MAX_TAIL_TURNS) {
+                turns = new ArrayList<>(turns.subList(turns.size() - MAX_TAIL_TURNS, turns.size()));
+            }
+            return readState(state, turns, pool);
+        } catch (IOException e) {
+            Log.e(TAG, "Error parsing " + file, e);
+            return null;
+        }
+    }
+
+    private static Restored readState(byte[] state, List<byte[]> turns, TemplatePool pool) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(state));
+        long savedAt = in.readLong();
+        if (System.currentTimeMillis() - savedAt > MAX_RESUME_AGE_MS) {
+            Log.d(TAG, "Snapshot is too old to resume");
+            return null;
+        }
+        in.readLong();  // Tree version, for diagnostics; nodes are matched by ID
+        String nodeId = in.readUTF();
+        int slotTurn = in.readInt();
+        int count = in.readUnsignedShort();
+        Map<String, MsgTemplate> slots = new LinkedHashMap<>();
+        try {
+            for (int i = 0; i < count; i++) {
+                String categoryId = in.readUTF();
+                if (!MsgTemplate.hasTemplate(categoryId)) {
+                    throw new IOException("No template for " + categoryId);
+                }
+                MsgTemplate template = pool.obtain(categoryId);
+                slots.put(categoryId, template);
+                template.readSlots(in);
+            }
+        } catch (IOException e) {
+            for (MsgTemplate template : slots.values()) {
+                pool.recycle(template);
+            }
+            throw e;
+        }
+        return new Restored(savedAt, nodeId, slotTurn, slots, turns);
+    }
+
+    /**
+     * Replaces the journal with the session as it is now; later changes are appended to it.
+     * Main thread only.
+     */
+    void start() {
+        started = compact();
+    }
+
+    /**
+     * Appends a turn just added to the transcript. Main thread only.
+     */
+    void recordTurn(int position) {
+        if (!started) {
+            return;
+        }
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(64);
+        try {
+            transcript.writeTurn(position, new DataOutputStream(payload));
+        } catch (IOException e) {
+            Log.e(TAG, "Error encoding turn", e);
+            return;
+        }
+        append(TURN, payload.toByteArray());
+    }
+
+    /**
+     * Appends the conversation's current node and slots. Main thread only.
+     */
+    void recordState() {
+        if (!started) {
+            return;
+        }
+        byte[] payload = encodeState();
+        if (payload != null) {
+            append(STATE, payload);
+        }
+    }
+
+    /**
+     * Stops recording and deletes the journal, for a conversation that ended on purpose
+     */
+    void clear() {
+        started = false;
+        writeExecutor.execute(() -> {
+            if (file.exists() && !file.delete()) {
+                Log.w(TAG, "Could not delete " + file);
+            }
+        });
+        writeExecutor.shutdown();
+    }
+
+    private void append(byte kind, byte[] payload) {
+        if (appendedBytes > COMPACT_AFTER_BYTES) {
+            compact();
+            return;
+        }
+        byte[] record = encodeRecord(kind, payload);
+        appendedBytes += record.length;
+        writeExecutor.execute(() -> write(record, true));
+    }
+
+    /**
+     * Rewrites the journal as the header, the current state and the transcript tail
+     * @return false if the session could not be encoded, in which case nothing is written
+     */
+    private boolean compact() {
+        byte[] state = encodeState();
+        if (state == null) {
+            return false;
+        }
+        ByteArrayOutputStream contents = new ByteArrayOutputStream(4096);
+        try {
+            DataOutputStream out = new DataOutputStream(contents);
+            out.writeInt(MAGIC);
+            out.writeShort(FORMAT_VERSION);
+            out.write(encodeRecord(STATE, state));
+            int first = Math.max(0, transcript.size() - MAX_TAIL_TURNS);
+            for (int position = first; position < transcript.size(); position++) {
+                ByteArrayOutputStream turn = new ByteArrayOutputStream(64);
+                transcript.writeTurn(position, new DataOutputStream(turn));
+                out.write(encodeRecord(TURN, turn.toByteArray()));
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error encoding snapshot", e);
+            return false;
+        }
+        byte[] bytes = contents.toByteArray();
+        appendedBytes = 0;
+        writeExecutor.execute(() -> write(bytes, false));
+        return true;
+    }
+
+    private byte[] encodeState() {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(256);
+        try {
+            DataOutputStream out = new DataOutputStream(payload);
+            out.writeLong(System.currentTimeMillis());
+            out.writeLong(chatbotManager.getTreeVersion());
+            chatbotManager.writeState(out);
+        } catch (IOException e) {
+            Log.e(TAG, "Error encoding session state", e);
+            return null;
+        }
+        return payload.toByteArray();
+    }
+
+    private static byte[] encodeRecord(byte kind, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        ByteArrayOutputStream record = new ByteArrayOutputStream(payload.length + RECORD_OVERHEAD);
+        try {
+            DataOutputStream out = new DataOutputStream(record);
+            out.writeByte(kind);
+            out.writeInt(payload.length);
+            out.write(payload);
+            out.writeInt((int) crc.getValue());
+        } catch (IOException e) {
+            throw new AssertionError(e);  // Writing to memory cannot fail
+        }
+        return record.toByteArray();
+    }
+
+    /**
+     * Appends to the journal, or replaces it atomically, so a crash mid-write leaves the previous
+     * version. Synced either way, since a kiosk may lose power rather than be shut down.
+     */
+    private void write(byte[] bytes, boolean append) {
+        File target = append ? file : new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(target, append)) {
+            out.write(bytes);
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing " + target, e);
+            return;
+        }
+        if (!append && !target.renameTo(file)) {
+            Log.e(TAG, "Could not replace " + file);
+        }
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF) << 24 | (data[offset + 1] & 0xFF) << 16
+                | (data[offset + 2] & 0xFF) << 8 | (data[offset + 3] & 0xFF);
+    }
+}
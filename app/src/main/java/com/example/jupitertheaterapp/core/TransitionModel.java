@@ -0,0 +1,127 @@
+package com.example.jupitertheaterapp.core;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts which node conversations move to from each node, learned online from real sessions,
+ * so the likely next node can be predicted. Counts are halved once a node has seen
+ * {@link #MAX_COUNT} transitions, so the model follows changes in traffic instead of being
+ * dominated by old sessions. Not thread-safe; the ChatbotManager uses it on the main thread.
+ */
+final class TransitionModel {
+    static final int MAX_COUNT = 1000;
+    private static final int MIN_SAMPLES = 5;  // Below this a node's counts are mostly noise
+
+    // Transition counts by source node, then by target node
+    private final Map<String, Map<String, int[]>> counts = new HashMap<>();
+
+    void record(String from, String to) {
+        add(from, to, 1);
+    }
+
+    private void add(String from, String to, int n) {
+        Map<String, int[]> targets = counts.get(from);
+        if (targets == null) {
+            targets = new HashMap<>();
+            counts.put(from, targets);
+        }
+        int[] count = targets.get(to);
+        if (count == null) {
+            count = new int[1];
+            targets.put(to, count);
+        }
+        count[0] += n;
+        while (total(targets) >= MAX_COUNT) {
+            age(targets);
+        }
+    }
+
+    /**
+     * The nodes most likely to follow a node, most likely first, each at least minProbability likely.
+     * Empty until the node has been left a few times.
+     */
+    List<String> predict(String from, double minProbability, int max) {
+        List<String> predicted = new ArrayList<>();
+        Map<String, int[]> targets = counts.get(from);
+        int total = targets == null ? 0 : total(targets);
+        if (total < MIN_SAMPLES) {
+            return predicted;
+        }
+        for (Map.Entry<String, int[]> entry : targets.entrySet()) {
+            if (entry.getValue()[0] >= minProbability * total) {
+                predicted.add(entry.getKey());
+            }
+        }
+        predicted.sort((a, b) -> Integer.compare(targets.get(b)[0], targets.get(a)[0]));
+        return predicted.size() > max ? new ArrayList<>(predicted.subList(0, max)) : predicted;
+    }
+
+    /**
+     * How likely the conversation is to move from one node to another, or 0 if unknown
+     */
+    double probability(String from, String to) {
+        Map<String, int[]> targets = counts.get(from);
+        if (targets == null) {
+            return 0;
+        }
+        int[] count = targets.get(to);
+        return count == null ? 0 : (double) count[0] / total(targets);
+    }
+
+    /**
+     * The counts as {"from": {"to": count, ...}, ...}, for keeping the model across sessions
+     */
+    JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        for (Map.Entry<String, Map<String, int[]>> source : counts.entrySet()) {
+            JSONObject targets = new JSONObject();
+            for (Map.Entry<String, int[]> target : source.getValue().entrySet()) {
+                targets.put(target.getKey(), target.getValue()[0]);
+            }
+            json.put(source.getKey(), targets);
+        }
+        return json;
+    }
+
+    /**
+     * Adds counts saved by {@link #toJson()}
+     */
+    void addFromJson(JSONObject json) throws JSONException {
+        Iterator<String> sources = json.keys();
+        while (sources.hasNext()) {
+            String from = sources.next();
+            JSONObject targets = json.getJSONObject(from);
+            Iterator<String> names = targets.keys();
+            while (names.hasNext()) {
+                String to = names.next();
+                add(from, to, targets.getInt(to));
+            }
+        }
+    }
+
+    private static int total(Map<String, int[]> targets) {
+        int total = 0;
+        for (int[] count : targets.values()) {
+            total += count[0];
+        }
+        return total;
+    }
+
+    private static void age(Map<String, int[]> targets) {
+        Iterator<int[]> iterator = targets.values().iterator();
+        while (iterator.hasNext()) {
+            int[] count = iterator.next();
+            count[0] /= 2;
+            if (count[0] == 0) {
+                iterator.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.jupitertheaterapp.model;
+
+/**
+ * Ticket age categories as they appear in "age" slots
+ */
+public enum AgeCategory {
+    CHILD("child < 18"),
+    ADULT("grownup > 18"),
+    SENIOR("granny > 65");
+
+    private static final AgeCategory[] VALUES = values();
+
+    private final String label;
+
+    AgeCategory(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * The category with this label, ignoring case and surrounding spaces, or null
+     */
+    public static AgeCategory fromLabel(String label) {
+        if (label == null) {
+            return null;
+        }
+        String trimmed = label.trim();
+        for (AgeCategory category : VALUES) {
+            if (category.label.equalsIgnoreCase(trimmed)) {
+                return category;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The {@link SlotSet} bit for the labelled category, or 0 if the label is not one
+     */
+    public static int bitsOf(String label) {
+        AgeCategory category = fromLabel(label);
+        return category == null ? 0 : SlotSet.bit(category);
+    }
+}
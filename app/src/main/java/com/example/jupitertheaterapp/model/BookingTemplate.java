@@ -0,0 +1,228 @@
+package com.example.jupitertheaterapp.model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Template for booking requests
+ */
+class BookingTemplate extends BookingTemplateSchema {
+    private final Person person = new Person();
+
+    @Override
+    protected Person person() {
+        return person;
+    }
+
+    @Override
+    protected boolean isFilled(int field) {
+        switch (field) {
+            case SHOW_NAME:
+                return !showName.isEmpty();
+            case ROOM:
+                return !room.isEmpty();
+            case DAY:
+                return day != null;
+            case TIME:
+                return !time.isEmpty();
+            case PERSON:
+                return person.isComplete();
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    protected boolean hasValue(int field) {
+        // The person fills up over several turns, e.g. the name first and the seat later
+        return field == PERSON ? !person.isEmpty() : isFilled(field);
+    }
+
+    @Override
+    protected void copyField(int field, MsgTemplate from) {
+        BookingTemplate other = (BookingTemplate) from;
+        switch (field) {
+            case SHOW_NAME:
+                showName = other.showName;
+                break;
+            case ROOM:
+                room = other.room;
+                break;
+            case DAY:
+                day = other.day;
+                possibleDay.setBits(other.possibleDay.getBits());
+                break;
+            case TIME:
+                time = other.time;
+                break;
+            case PERSON:
+                person.mergeFrom(other.person);
+                break;
+        }
+    }
+
+    @Override
+    protected void clearFields() {
+        showName = "";
+        room = "";
+        day = null;
+        time = "";
+        person.clear();
+        possibleDay.clear();
+    }
+
+    @Override
+    protected void writeFields(DataOutput out) throws IOException {
+        out.writeUTF(showName);
+        out.writeUTF(room);
+        writeEnum(out, day);
+        out.writeUTF(time);
+        out.writeUTF(person.name);
+        writeEnum(out, person.age);
+        out.writeUTF(person.seat);
+        out.writeInt(person.possibleAge.getBits());
+        out.writeInt(possibleDay.getBits());
+    }
+
+    @Override
+    protected void readFields(DataInput in) throws IOException {
+        showName = in.readUTF();
+        room = in.readUTF();
+        day = readEnum(in, Day.values());
+        time = in.readUTF();
+        person.name = in.readUTF();
+        person.age = readEnum(in, AgeCategory.values());
+        person.seat = in.readUTF();
+        person.possibleAge.setBits(in.readInt());
+        possibleDay.setBits(in.readInt());
+    }
+
+    @Override
+    protected int extractFrom(SlotExtractor extractor, String text, String normalized) {
+        int filled = 0;
+        String foundShow = extractor.findShow(normalized);
+        if (foundShow != null) {
+            showName = foundShow;
+            filled++;
+        }
+        String foundRoom = extractor.findRoom(normalized);
+        if (foundRoom != null) {
+            room = foundRoom;
+            filled++;
+        }
+        Day foundDay = extractor.findDay(normalized);
+        if (foundDay != null) {
+            day = foundDay;
+            possibleDay.setBits(allBits(Day.class));
+            filled++;
+        }
+        String foundTime = extractor.findTime(normalized);
+        if (foundTime != null) {
+            time = foundTime;
+            filled++;
+        }
+        // The name is left to the server; it is not a token the extractor can recognise
+        List<AgeCategory> ages = new ArrayList<>(1);
+        if (extractor.findAges(normalized, ages) > 0) {
+            person.setAge(ages.get(0));
+            person.getPossibleAgeCategories().setBits(allBits(AgeCategory.class));
+        }
+        String seat = extractor.findSeat(text, normalized);
+        if (seat != null) {
+            person.setSeat(seat);
+        }
+        if (!person.isEmpty()) {
+            filled++;
+        }
+        return filled;
+    }
+
+    // Person inner class for booking
+    public static class Person extends PersonSchema {
+        // Getters and setters
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public AgeCategory getAge() {
+            return age;
+        }
+
+        public void setAge(AgeCategory age) {
+            this.age = age;
+        }
+
+        public String getSeat() {
+            return seat;
+        }
+
+        public void setSeat(String seat) {
+            this.seat = seat;
+        }
+
+        public SlotSet<AgeCategory> getPossibleAgeCategories() {
+            return possibleAge;
+        }
+
+        boolean isEmpty() {
+            return name.isEmpty() && age == null && seat.isEmpty();
+        }
+
+        boolean isComplete() {
+            return !name.isEmpty() && age != null && !seat.isEmpty();
+        }
+
+        /**
+         * Takes the details the other person has, keeping the ones it lacks
+         */
+        void mergeFrom(Person other) {
+            if (!other.name.isEmpty()) {
+                name = other.name;
+            }
+            if (other.age != null) {
+                age = other.age;
+                possibleAge.setBits(other.possibleAge.getBits());
+            }
+            if (!other.seat.isEmpty()) {
+                seat = other.seat;
+            }
+        }
+    }
+    
+    // Getters and setters
+    public String getShowName() {
+        return showName;
+    }
+
+    public String getRoom() {
+        return room;
+    }
+
+    public Day getDay() {
+        return day;
+    }
+
+    public String getTime() {
+        return time;
+    }
+
+    public Person getPerson() {
+        return person;
+    }
+
+    @Override
+    public void restrictDays(SlotSet<Day> catalogDays) {
+        possibleDay.setBits(availableDays(possibleDay, catalogDays).getBits());
+    }
+
+    public SlotSet<Day> getPossibleDays() {
+        return possibleDay;
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.jupitertheaterapp.model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Template for cancellation requests
+ */
+class CancellationTemplate extends CancellationTemplateSchema {
+    @Override
+    protected boolean isFilled(int field) {
+        switch (field) {
+            case RESERVATION_NUMBER:
+                return !reservationNumber.isEmpty();
+            case PASSCODE:
+                return !passcode.isEmpty();
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    protected void copyField(int field, MsgTemplate from) {
+        CancellationTemplate other = (CancellationTemplate) from;
+        switch (field) {
+            case RESERVATION_NUMBER:
+                reservationNumber = other.reservationNumber;
+                break;
+            case PASSCODE:
+                passcode = other.passcode;
+                break;
+        }
+    }
+
+    @Override
+    protected void clearFields() {
+        reservationNumber = "";
+        passcode = "";
+    }
+
+    @Override
+    protected void writeFields(DataOutput out) throws IOException {
+        out.writeUTF(reservationNumber);
+        out.writeUTF(passcode);
+    }
+
+    @Override
+    protected void readFields(DataInput in) throws IOException {
+        reservationNumber = in.readUTF();
+        passcode = in.readUTF();
+    }
+
+    @Override
+    protected int extractFrom(SlotExtractor extractor, String text, String normalized) {
+        int filled = 0;
+        String foundNumber = extractor.findReservationNumber(text, normalized);
+        if (foundNumber != null) {
+            reservationNumber = foundNumber;
+            filled++;
+        }
+        String foundPasscode = extractor.findPasscode(text, normalized);
+        if (foundPasscode != null) {
+            passcode = foundPasscode;
+            filled++;
+        }
+        return filled;
+    }
+
+    // Getters and setters
+    public String getReservationNumber() {
+        return reservationNumber;
+    }
+
+    public String getPasscode() {
+        return passcode;
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.jupitertheaterapp.model;
+
+/**
+ * Days of the week as they appear in "day" slots. The server uses the English names;
+ * the Greek ones are accepted too since users type them.
+ */
+public enum Day {
+    MONDAY("Monday", "Δευτέρα"),
+    TUESDAY("Tuesday", "Τρίτη"),
+    WEDNESDAY("Wednesday", "Τετάρτη"),
+    THURSDAY("Thursday", "Πέμπτη"),
+    FRIDAY("Friday", "Παρασκευή"),
+    SATURDAY("Saturday", "Σάββατο"),
+    SUNDAY("Sunday", "Κυριακή");
+
+    private static final Day[] VALUES = values();
+
+    private final String label;
+    private final String greekName;
+
+    Day(String label, String greekName) {
+        this.label = label;
+        this.greekName = greekName;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public String getGreekName() {
+        return greekName;
+    }
+
+    /**
+     * The day with this English or Greek name, ignoring case and surrounding spaces, or null
+     */
+    public static Day fromLabel(String label) {
+        if (label == null) {
+            return null;
+        }
+        String trimmed = label.trim();
+        for (Day day : VALUES) {
+            if (day.label.equalsIgnoreCase(trimmed) || day.greekName.equalsIgnoreCase(trimmed)) {
+                return day;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The {@link SlotSet} bit for the named day, or 0 if the label is not a day
+     */
+    public static int bitsOf(String label) {
+        Day day = fromLabel(label);
+        return day == null ? 0 : SlotSet.bit(day);
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.jupitertheaterapp.model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Template for discount requests
+ */
+class DiscountTemplate extends DiscountTemplateSchema {
+    @Override
+    protected boolean isFilled(int field) {
+        switch (field) {
+            case SHOW_NAME:
+                return !showName.isEmpty();
+            case NO_OF_PEOPLE:
+                return noOfPeople > 0;
+            case AGE:
+                return !age.isEmpty();
+            case DATE:
+                return !date.isEmpty();
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    protected void copyField(int field, MsgTemplate from) {
+        DiscountTemplate other = (DiscountTemplate) from;
+        switch (field) {
+            case SHOW_NAME:
+                setAll(showName, other.showName);
+                break;
+            case NO_OF_PEOPLE:
+                noOfPeople = other.noOfPeople;
+                break;
+            case AGE:
+                age.setBits(other.age.getBits());
+                possibleAge.setBits(other.possibleAge.getBits());
+                break;
+            case DATE:
+                setAll(date, other.date);
+                break;
+        }
+    }
+
+    @Override
+    protected void clearFields() {
+        showName.clear();
+        noOfPeople = 0;
+        age.clear();
+        date.clear();
+        possibleAge.clear();
+    }
+
+    @Override
+    protected void writeFields(DataOutput out) throws IOException {
+        writeStrings(out, showName);
+        out.writeInt(noOfPeople);
+        out.writeInt(age.getBits());
+        writeStrings(out, date);
+        out.writeInt(possibleAge.getBits());
+    }
+
+    @Override
+    protected void readFields(DataInput in) throws IOException {
+        readStrings(in, showName);
+        noOfPeople = in.readInt();
+        age.setBits(in.readInt());
+        readStrings(in, date);
+        possibleAge.setBits(in.readInt());
+    }
+
+    @Override
+    protected int extractFrom(SlotExtractor extractor, String text, String normalized) {
+        int filled = 0;
+        if (extractor.findShows(normalized, showName) > 0) {
+            filled++;
+        }
+        int people = extractor.findGroupSize(normalized);
+        if (people > 0) {
+            noOfPeople = people;
+            filled++;
+        }
+        List<AgeCategory> ages = new ArrayList<>(AgeCategory.values().length);
+        if (extractor.findAges(normalized, ages) > 0) {
+            for (AgeCategory category : ages) {
+                age.add(category);
+            }
+            possibleAge.setBits(allBits(AgeCategory.class));
+            filled++;
+        }
+        List<Day> days = new ArrayList<>(1);
+        if (extractor.findDays(normalized, days) > 0) {
+            for (Day day : days) {
+                date.add(day.getLabel());
+            }
+            filled++;
+        }
+        return filled;
+    }
+
+    // Getters and setters
+    public List<String> getShowName() {
+        return showName;
+    }
+
+    public int getNumberOfPeople() {
+        return noOfPeople;
+    }
+
+    public SlotSet<AgeCategory> getAge() {
+        return age;
+    }
+
+    public List<String> getDate() {
+        return date;
+    }
+
+    public SlotSet<AgeCategory> getPossibleAgeCategories() {
+        return possibleAge;
+    }
+}
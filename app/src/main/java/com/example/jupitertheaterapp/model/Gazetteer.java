@@ -0,0 +1,128 @@
+package com.example.jupitertheaterapp.model;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A fixed list of phrases compiled into a character trie, so every phrase in a message is found in
+ * one left-to-right pass instead of one search per phrase. Phrases and messages are compared after
+ * {@link SlotExtractor#normalize(String)}; a match must start and end at a word boundary, and where
+ * phrases overlap the longest one starting first wins.
+ */
+final class Gazetteer<V> {
+    private static final class Node<V> {
+        char[] keys = new char[0];
+        Node<V>[] next = newNodes(0);
+        V value;  // Non-null where a phrase ends
+
+        Node<V> child(char c) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) {
+                    return next[i];
+                }
+            }
+            return null;
+        }
+
+        Node<V> addChild(char c) {
+            Node<V> child = child(c);
+            if (child == null) {
+                child = new Node<>();
+                keys = Arrays.copyOf(keys, keys.length + 1);
+                next = Arrays.copyOf(next, next.length + 1);
+                keys[keys.length - 1] = c;
+                next[next.length - 1] = child;
+            }
+            return child;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <V> Node<V>[] newNodes(int size) {
+            return (Node<V>[]) new Node<?>[size];
+        }
+    }
+
+    private final Node<V> root = new Node<>();
+
+    /**
+     * Adds a phrase; a phrase added twice keeps its first value
+     */
+    void add(String phrase, V value) {
+        String normalized = SlotExtractor.normalize(phrase.trim());
+        if (normalized.isEmpty()) {
+            return;
+        }
+        Node<V> node = root;
+        for (int i = 0; i < normalized.length(); i++) {
+            node = node.addChild(normalized.charAt(i));
+        }
+        if (node.value == null) {
+            node.value = value;
+        }
+    }
+
+    /**
+     * The value of the first phrase in the normalized text, or null
+     */
+    V findFirst(String normalized) {
+        for (int start = 0; start < normalized.length(); start++) {
+            if (isBoundary(normalized, start - 1)) {
+                int end = longestMatch(normalized, start);
+                if (end > 0) {
+                    return valueAt(normalized, start, end);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds the values of every phrase in the normalized text to the list, once each, in order of appearance
+     * @return the number of values added
+     */
+    int findAll(String normalized, List<V> values) {
+        int added = 0;
+        int start = 0;
+        while (start < normalized.length()) {
+            int end = isBoundary(normalized, start - 1) ? longestMatch(normalized, start) : -1;
+            if (end > 0) {
+                V value = valueAt(normalized, start, end);
+                if (!values.contains(value)) {
+                    values.add(value);
+                    added++;
+                }
+                start = end;
+            } else {
+                start++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * The end of the longest phrase starting at start and ending at a word boundary, or -1
+     */
+    private int longestMatch(String text, int start) {
+        Node<V> node = root;
+        int end = -1;
+        for (int i = start; i < text.length() && node != null; i++) {
+            node = node.child(text.charAt(i));
+            if (node != null && node.value != null && isBoundary(text, i + 1)) {
+                end = i + 1;
+            }
+        }
+        return end;
+    }
+
+    private V valueAt(String text, int start, int end) {
+        Node<V> node = root;
+        for (int i = start; i < end; i++) {
+            node = node.child(text.charAt(i));
+        }
+        return node.value;
+    }
+
+    private static boolean isBoundary(String text, int index) {
+        return index < 0 || index >= text.length() || !Character.isLetterOrDigit(text.charAt(index));
+    }
+}
@@ -1,42 +1,57 @@
 package com.example.jupitertheaterapp.model;
 
+import com.example.jupitertheaterapp.util.ReplyDecoder;
+
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
 
 public abstract class MsgTemplate {
-    // Factory pattern implementation
-    private static final Map<String, Supplier<MsgTemplate>> templateMap = new HashMap<>();
-    
-    static {
-        // Register all template types with their corresponding IDs
-        templateMap.put("ΠΛΗΡΟΦΟΡΙΕΣ", ShowInfoTemplate::new);
-        templateMap.put("ΚΡΑΤΗΣΗ", BookingTemplate::new);
-        templateMap.put("ΑΚΥΡΩΣΗ", CancellationTemplate::new);
-        templateMap.put("ΠΡΟΣΦΟΡΕΣ & ΕΚΠΤΩΣΕΙΣ", DiscountTemplate::new);
-        templateMap.put("ΑΞΙΟΛΟΓΗΣΕΙΣ & ΣΧΟΛΙΑ", ReviewTemplate::new);
-        // Add more mappings as needed
-    }
+    // Names inside every {"value": ..., "pvalues": [...]} field object
+    protected static final byte[][] SLOT_FIELDS = ReplyDecoder.names("value", "pvalues");
+    protected static final int VALUE = 0;
+    protected static final int PVALUES = 1;
+
+    // Where each slot's value came from once templates are merged over several turns, indexed like slotNames()
+    private float[] confidence;
+    private SlotSource[] sources;
+    private int[] turns;
+
+    // Set by the TemplatePool that handed the template out; the template's TemplateRegistry index
+    int poolIndex = -1;
+    boolean pooled;
+    TemplatePool.LeakTracker leakTracker;
     
     /**
-     * Creates an appropriate MsgTemplate instance based on the provided node ID
+     * Creates an appropriate MsgTemplate instance based on the provided node ID.
+     * The templates and their IDs are generated from backend/json_templates, see TemplateRegistry.
      * @param id The node ID used to determine which template to create
      * @return A new instance of the appropriate MsgTemplate subclass
      * @throws IllegalArgumentException if no template is registered for the given ID
      */
     public static MsgTemplate createTemplate(String id) {
-        Supplier<MsgTemplate> supplier = templateMap.get(id);
-        if (supplier != null) {
-            return supplier.get();
+        int index = TemplateRegistry.indexOf(id);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown template type: " + id);
         }
-        // Return a default template or throw an exception
-        throw new IllegalArgumentException("Unknown template type: " + id);
+        return TemplateRegistry.create(index);
+    }
+
+    /**
+     * Whether {@link #createTemplate(String)} knows the given node ID
+     */
+    public static boolean hasTemplate(String id) {
+        return TemplateRegistry.indexOf(id) >= 0;
     }
     
     /**
@@ -55,512 +70,610 @@ public abstract class MsgTemplate {
     }
     
     /**
-     * Populates the template fields from a JSONObject
-     * @param jsonObject JSONObject to extract values from
-     * @return true if population was successful, false otherwise
+     * Fills the template fields in a single pass straight from a decoder positioned at the details
+     * object, so a reply can be decoded on the I/O thread without building a JSONObject first.
+     * Field names are matched against the template's {@link #fieldNames()} table without allocating;
+     * unknown fields and values of an unexpected type are skipped without being materialized.
+     * @return false if the value is not an object; it is skipped in that case
+     * @throws JSONException if the input is not valid JSON
      */
-    protected abstract boolean populateFromJsonObject(JSONObject jsonObject) throws JSONException;
-    
+    public boolean valuesFromDecoder(ReplyDecoder reader) throws JSONException {
+        if (reader.peek() != ReplyDecoder.Token.BEGIN_OBJECT) {
+            reader.skipValue();
+            return false;
+        }
+        byte[][] fields = fieldNames();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            int field = reader.selectName(fields);
+            if (field < 0) {
+                reader.skipValue();
+            } else {
+                readField(field, reader);
+            }
+        }
+        reader.endObject();
+        return true;
+    }
+
     /**
-     * Helper method to extract string value from a field object
+     * Merges the slots a later turn filled into this template, which keeps what earlier turns found.
+     * Slots the delta leaves empty are kept. A filled slot is only overwritten by a value at least as
+     * confident as the one it holds, so a correction from the same source replaces an earlier answer.
+     * @param turn the conversation turn the delta was extracted in, recorded as the slots' provenance
+     * @return the number of slots that changed
+     * @throws IllegalArgumentException if the delta is a template for another category
      */
-    protected String extractStringValue(JSONObject fieldObject) throws JSONException {
-        if (fieldObject.has("value")) {
-            return fieldObject.getString("value");
+    public int mergeFrom(MsgTemplate delta, SlotSource source, int turn) {
+        if (delta.getClass() != getClass()) {
+            throw new IllegalArgumentException("Cannot merge " + delta.getClass().getSimpleName()
+                    + " into " + getClass().getSimpleName());
         }
-        return "";
+        ensureSlotMetadata();
+        float incoming = source.getConfidence();
+        int changed = 0;
+        for (int field = 0; field < confidence.length; field++) {
+            if (!delta.hasValue(field) || (isFilled(field) && incoming < confidence[field])) {
+                continue;
+            }
+            copyField(field, delta);
+            confidence[field] = incoming;
+            sources[field] = source;
+            turns[field] = turn;
+            changed++;
+        }
+        return changed;
     }
-    
+
     /**
-     * Helper method to extract integer value from a field object
+     * Empties every slot and forgets where merged values came from, keeping the lists and sets
+     * themselves so a pooled template can be filled again without allocating
      */
-    protected int extractIntValue(JSONObject fieldObject) throws JSONException {
-        if (fieldObject.has("value")) {
-            return fieldObject.getInt("value");
+    public void reset() {
+        if (confidence != null) {
+            Arrays.fill(confidence, 0);
+            Arrays.fill(sources, null);
+            Arrays.fill(turns, 0);
         }
-        return 0;
+        clearFields();
     }
-    
+
     /**
-     * Helper method to extract string list from a field object with array value
+     * Narrows the days the template offers to those the catalog has performances on. Templates
+     * without a day slot ignore it.
+     * @param catalogDays the days with at least one performance
      */
-    protected List<String> extractStringListValue(JSONObject fieldObject) throws JSONException {
-        List<String> values = new ArrayList<>();
-        if (fieldObject.has("value")) {
-            JSONArray valueArray = fieldObject.getJSONArray("value");
-            for (int i = 0; i < valueArray.length(); i++) {
-                values.add(valueArray.getString(i));
-            }
-        }
-        return values;
+    public void restrictDays(SlotSet<Day> catalogDays) {
     }
 
     /**
-     * Helper method to extract possible values as strings
+     * The offered days that have performances, or every day that has one if none of the offered
+     * days does, e.g. when the server offered none or only days the catalog has nothing on
      */
-    protected List<String> extractPossibleStringValues(JSONObject fieldObject) throws JSONException {
-        List<String> pValues = new ArrayList<>();
-        if (fieldObject.has("pvalues")) {
-            JSONArray pvaluesArray = fieldObject.getJSONArray("pvalues");
-            for (int i = 0; i < pvaluesArray.length(); i++) {
-                pValues.add(pvaluesArray.getString(i));
-            }
+    protected static SlotSet<Day> availableDays(SlotSet<Day> offered, SlotSet<Day> catalogDays) {
+        if (!offered.intersects(catalogDays)) {
+            return new SlotSet<>(Day.class, catalogDays.getBits());
         }
-        return pValues;
+        return catalogDays.containsAll(offered) ? offered : offered.intersect(catalogDays);
     }
-      /**
-     * Helper method to extract possible values as integers
+
+    /**
+     * The upcoming performances matching what the user asked about the schedule, in order of start.
+     * Empty for templates without schedule slots or when none of them is filled.
+     * @param now the earliest start wanted
+     * @param limit the most performances wanted
      */
-    protected List<Integer> extractPossibleIntValues(JSONObject fieldObject) throws JSONException {
-        List<Integer> pValues = new ArrayList<>();
-        if (fieldObject.has("pvalues")) {
-            JSONArray pvaluesArray = fieldObject.getJSONArray("pvalues");
-            for (int i = 0; i < pvaluesArray.length(); i++) {
-                pValues.add(pvaluesArray.getInt(i));
+    public List<PerformanceCalendar.Performance> findPerformances(PerformanceCalendar calendar, LocalDateTime now,
+                                                                  int limit) {
+        return Collections.emptyList();
+    }
+
+    /**
+     * The names of the slots still to be filled, in template order; these are what the next
+     * EXTRACT asks the server for
+     */
+    public List<String> getMissingSlots() {
+        String[] names = slotNames();
+        List<String> missing = new ArrayList<>();
+        for (int field = 0; field < names.length; field++) {
+            if (!isFilled(field)) {
+                missing.add(names[field]);
             }
         }
-        return pValues;
+        return missing;
     }
-}
 
-/**
- * Template for show information requests
- */
-class ShowInfoTemplate extends MsgTemplate {
-    private List<String> name;
-    private List<String> day;
-    private List<String> topic;
-    private List<String> time;
-    private List<String> cast;
-    private List<String> room;
-    private List<String> duration;
-    private List<String> stars;
-    
-    // Possible values lists
-    private List<String> possibleDays;
-    private List<Integer> possibleStarRatings;
-    
-    public ShowInfoTemplate() {
-        name = new ArrayList<>();
-        day = new ArrayList<>();
-        topic = new ArrayList<>();
-        time = new ArrayList<>();
-        cast = new ArrayList<>();
-        room = new ArrayList<>();
-        duration = new ArrayList<>();
-        stars = new ArrayList<>();
-        
-        possibleDays = new ArrayList<>();
-        possibleStarRatings = new ArrayList<>();
-    }
-    
-    @Override
-    protected boolean populateFromJsonObject(JSONObject jsonObject) throws JSONException {
-        try {
-            if (jsonObject.has("name")) {
-                name = extractStringListValue(jsonObject.getJSONObject("name"));
-            }
-            
-            if (jsonObject.has("day")) {
-                JSONObject dayObject = jsonObject.getJSONObject("day");
-                day = extractStringListValue(dayObject);
-                possibleDays = extractPossibleStringValues(dayObject);
-            }
-            
-            if (jsonObject.has("topic")) {
-                topic = extractStringListValue(jsonObject.getJSONObject("topic"));
-            }
-            
-            if (jsonObject.has("time")) {
-                time = extractStringListValue(jsonObject.getJSONObject("time"));
-            }
-            
-            if (jsonObject.has("cast")) {
-                cast = extractStringListValue(jsonObject.getJSONObject("cast"));
-            }
-            
-            if (jsonObject.has("room")) {
-                room = extractStringListValue(jsonObject.getJSONObject("room"));
-            }
-            
-            if (jsonObject.has("duration")) {
-                duration = extractStringListValue(jsonObject.getJSONObject("duration"));
-            }
-            
-            if (jsonObject.has("stars")) {
-                JSONObject starsObject = jsonObject.getJSONObject("stars");
-                stars = extractStringListValue(starsObject);
-                possibleStarRatings = extractPossibleIntValues(starsObject);
+    public boolean isComplete() {
+        for (int field = 0; field < slotNames().length; field++) {
+            if (!isFilled(field)) {
+                return false;
             }
-            
-            return true;
-        } catch (JSONException e) {
-            e.printStackTrace();
-            return false;
         }
+        return true;
     }
 
-    // Getters and setters
-    public List<String> getName() {
-        return name;
+    /**
+     * The confidence of the merged value of a slot, or 0 if no merge has filled it
+     */
+    public float getConfidence(String slot) {
+        int field = indexOfSlot(slot);
+        return confidence == null ? 0 : confidence[field];
     }
 
-    public List<String> getDay() {
-        return day;
+    /**
+     * Where the merged value of a slot came from, or null if no merge has filled it
+     */
+    public SlotSource getSource(String slot) {
+        int field = indexOfSlot(slot);
+        return sources == null ? null : sources[field];
     }
 
-    public List<String> getTopic() {
-        return topic;
+    /**
+     * The turn the merged value of a slot was extracted in, or 0 if no merge has filled it
+     */
+    public int getTurn(String slot) {
+        int field = indexOfSlot(slot);
+        return turns == null ? 0 : turns[field];
     }
 
-    public List<String> getTime() {
-        return time;
+    /**
+     * Writes the slots and where each came from, for a session snapshot; {@link #readSlots(DataInput)}
+     * reads them back
+     */
+    public void writeSlots(DataOutput out) throws IOException {
+        int count = slotNames().length;
+        out.writeByte(count);
+        for (int field = 0; field < count; field++) {
+            SlotSource source = sources == null ? null : sources[field];
+            out.writeByte(source == null ? -1 : source.ordinal());
+            out.writeFloat(confidence == null ? 0 : confidence[field]);
+            out.writeInt(turns == null ? 0 : turns[field]);
+        }
+        writeFields(out);
     }
 
-    public List<String> getCast() {
-        return cast;
+    /**
+     * Replaces the slots with ones written by {@link #writeSlots(DataOutput)}
+     * @throws IOException if the data is cut short or was written for another version of the template
+     */
+    public void readSlots(DataInput in) throws IOException {
+        int count = in.readUnsignedByte();
+        if (count != slotNames().length) {
+            throw new IOException(getClass().getSimpleName() + " has " + slotNames().length
+                    + " slots, snapshot has " + count);
+        }
+        reset();
+        ensureSlotMetadata();
+        SlotSource[] values = SlotSource.values();
+        for (int field = 0; field < count; field++) {
+            int source = in.readByte();
+            if (source >= values.length) {
+                throw new IOException("Unknown slot source " + source);
+            }
+            sources[field] = source < 0 ? null : values[source];
+            confidence[field] = in.readFloat();
+            turns[field] = in.readInt();
+        }
+        readFields(in);
     }
 
-    public List<String> getRoom() {
-        return room;
+    private int indexOfSlot(String slot) {
+        String[] names = slotNames();
+        for (int field = 0; field < names.length; field++) {
+            if (names[field].equals(slot)) {
+                return field;
+            }
+        }
+        throw new IllegalArgumentException("Unknown slot for " + getClass().getSimpleName() + ": " + slot);
     }
 
-    public List<String> getDuration() {
-        return duration;
+    private void ensureSlotMetadata() {
+        if (confidence == null) {
+            int count = slotNames().length;
+            confidence = new float[count];
+            sources = new SlotSource[count];
+            turns = new int[count];
+        }
     }
 
-    public List<String> getStars() {
-        return stars;
-    }
+    /**
+     * The top-level field names as they appear in the server's details object
+     */
+    protected abstract String[] slotNames();
 
-    public List<String> getPossibleDays() {
-        return possibleDays;
-    }
+    /**
+     * The top-level field names this template reads, encoded with {@link ReplyDecoder#names(String...)}
+     * in the same order as {@link #slotNames()}
+     */
+    protected abstract byte[][] fieldNames();
 
-    public List<Integer> getPossibleStarRatings() {
-        return possibleStarRatings;
-    }
-}
+    /**
+     * Whether a top-level field holds everything the flow needs from it
+     * @param field index of the field's name in {@link #slotNames()}
+     */
+    protected abstract boolean isFilled(int field);
 
-/**
- * Template for booking requests
- */
-class BookingTemplate extends MsgTemplate {
-    private String showName;
-    private String room;
-    private String day;
-    private String time;
-    private Person person;
-    
-    // Possible values
-    private List<String> possibleDays;
-    
-    public BookingTemplate() {
-        showName = "";
-        room = "";
-        day = "";
-        time = "";
-        person = new Person();
-        possibleDays = new ArrayList<>();
-    }
-    
-    @Override
-    protected boolean populateFromJsonObject(JSONObject jsonObject) throws JSONException {
-        try {
-            if (jsonObject.has("show_name")) {
-                showName = extractStringValue(jsonObject.getJSONObject("show_name"));
-            }
-            
-            if (jsonObject.has("room")) {
-                room = extractStringValue(jsonObject.getJSONObject("room"));
-            }
-            
-            if (jsonObject.has("day")) {
-                JSONObject dayObject = jsonObject.getJSONObject("day");
-                day = extractStringValue(dayObject);
-                possibleDays = extractPossibleStringValues(dayObject);
-            }
-            
-            if (jsonObject.has("time")) {
-                time = extractStringValue(jsonObject.getJSONObject("time"));
-            }
-            
-            if (jsonObject.has("person")) {
-                JSONObject personObject = jsonObject.getJSONObject("person");
-                person = new Person();
-                
-                if (personObject.has("name")) {
-                    person.setName(extractStringValue(personObject.getJSONObject("name")));
-                }
-                
-                if (personObject.has("age")) {
-                    JSONObject ageObject = personObject.getJSONObject("age");
-                    person.setAge(extractStringValue(ageObject));
-                    person.setPossibleAgeCategories(extractPossibleStringValues(ageObject));
-                }
-                
-                if (personObject.has("seat")) {
-                    person.setSeat(extractStringValue(personObject.getJSONObject("seat")));
-                }
-            }
-            
-            return true;
-        } catch (JSONException e) {
-            e.printStackTrace();
-            return false;
-        }
+    /**
+     * Whether a top-level field holds anything worth merging; for nested fields this may be true
+     * before {@link #isFilled(int)} is
+     */
+    protected boolean hasValue(int field) {
+        return isFilled(field);
     }
 
-    // Person inner class for booking
-    public static class Person {
-        private String name;
-        private String age;
-        private String seat;
-        private List<String> possibleAgeCategories;
-        
-        public Person() {
-            name = "";
-            age = "";
-            seat = "";
-            possibleAgeCategories = new ArrayList<>();
-        }
-
-        // Getters and setters
-        public String getName() {
-            return name;
-        }
+    /**
+     * Takes the value of one top-level field from a template of the same class
+     */
+    protected abstract void copyField(int field, MsgTemplate from);
 
-        public void setName(String name) {
-            this.name = name;
-        }
+    /**
+     * Empties every field in place for {@link #reset()}
+     */
+    protected abstract void clearFields();
 
-        public String getAge() {
-            return age;
-        }
+    /**
+     * Writes every field, possible values included, for {@link #writeSlots(DataOutput)}
+     */
+    protected abstract void writeFields(DataOutput out) throws IOException;
 
-        public void setAge(String age) {
-            this.age = age;
-        }
+    /**
+     * Reads the fields {@link #writeFields(DataOutput)} wrote, in the same order, into a cleared template
+     */
+    protected abstract void readFields(DataInput in) throws IOException;
 
-        public String getSeat() {
-            return seat;
-        }
+    /**
+     * Fills the slots the {@link SlotExtractor} can find in a message on the device. Templates whose
+     * slots all need the LLM keep this default, which finds nothing.
+     * @param text the message
+     * @param normalized the message after {@link SlotExtractor#normalize(String)}, for the finders
+     * @return the number of top-level slots filled
+     */
+    protected int extractFrom(SlotExtractor extractor, String text, String normalized) {
+        return 0;
+    }
 
-        public void setSeat(String seat) {
-            this.seat = seat;
-        }
+    /**
+     * The bits of every constant of an enum, for a closed vocabulary filled on the device
+     */
+    protected static <E extends Enum<E>> int allBits(Class<E> type) {
+        return (1 << type.getEnumConstants().length) - 1;
+    }
 
-        public List<String> getPossibleAgeCategories() {
-            return possibleAgeCategories;
-        }
+    /**
+     * Replaces the list's contents with those of another list, for {@link #copyField(int, MsgTemplate)}
+     */
+    protected static void setAll(List<String> values, List<String> from) {
+        values.clear();
+        values.addAll(from);
+    }
 
-        public void setPossibleAgeCategories(List<String> possibleAgeCategories) {
-            this.possibleAgeCategories = possibleAgeCategories;
+    protected static void writeStrings(DataOutput out, List<String> values) throws IOException {
+        out.writeShort(values.size());
+        for (String value : values) {
+            out.writeUTF(value);
         }
     }
-    
-    // Getters and setters
-    public String getShowName() {
-        return showName;
-    }
 
-    public String getRoom() {
-        return room;
+    protected static void readStrings(DataInput in, List<String> values) throws IOException {
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            values.add(in.readUTF());
+        }
     }
 
-    public String getDay() {
-        return day;
+    /**
+     * Writes an optional constant of a closed vocabulary as its ordinal, -1 for null
+     */
+    protected static void writeEnum(DataOutput out, Enum<?> value) throws IOException {
+        out.writeByte(value == null ? -1 : value.ordinal());
     }
 
-    public String getTime() {
-        return time;
+    protected static <E extends Enum<E>> E readEnum(DataInput in, E[] values) throws IOException {
+        int ordinal = in.readByte();
+        if (ordinal >= values.length) {
+            throw new IOException("No constant with ordinal " + ordinal);
+        }
+        return ordinal < 0 ? null : values[ordinal];
     }
 
-    public Person getPerson() {
-        return person;
-    }
+    /**
+     * Reads the value of one top-level field. Generated with the template's schema, like
+     * {@link #populateFromJsonObject(JSONObject)}, so both parsers fill the same slots.
+     * @param field index of the field's name in {@link #fieldNames()}
+     */
+    protected abstract void readField(int field, ReplyDecoder reader) throws JSONException;
 
-    public List<String> getPossibleDays() {
-        return possibleDays;
+    /**
+     * Populates the template fields from a JSONObject
+     * @param jsonObject JSONObject to extract values from
+     * @return true if population was successful, false otherwise
+     */
+    protected abstract boolean populateFromJsonObject(JSONObject jsonObject) throws JSONException;
+    
+    /**
+     * Helper method to extract string value from a field object
+     */
+    protected static String extractStringValue(JSONObject fieldObject) throws JSONException {
+        if (fieldObject.has("value")) {
+            return fieldObject.getString("value");
+        }
+        return "";
     }
-}
-
-/**
- * Template for cancellation requests
- */
-class CancellationTemplate extends MsgTemplate {
-    private String reservationNumber;
-    private String passcode;
     
-    public CancellationTemplate() {
-        reservationNumber = "";
-        passcode = "";
+    /**
+     * Helper method to extract integer value from a field object
+     */
+    protected static int extractIntValue(JSONObject fieldObject) throws JSONException {
+        if (fieldObject.has("value")) {
+            return fieldObject.getInt("value");
+        }
+        return 0;
     }
     
-    @Override
-    protected boolean populateFromJsonObject(JSONObject jsonObject) throws JSONException {
-        try {
-            if (jsonObject.has("reservation_number")) {
-                reservationNumber = extractStringValue(jsonObject.getJSONObject("reservation_number"));
+    /**
+     * Helper method to extract string list from a field object with array value.
+     * A single value becomes a one-element list, as in {@link #readStringListField}.
+     */
+    protected static List<String> extractStringListValue(JSONObject fieldObject) throws JSONException {
+        List<String> values = new ArrayList<>();
+        Object value = fieldObject.opt("value");
+        if (value instanceof JSONArray) {
+            JSONArray valueArray = (JSONArray) value;
+            for (int i = 0; i < valueArray.length(); i++) {
+                values.add(valueArray.getString(i));
             }
-            
-            if (jsonObject.has("passcode")) {
-                passcode = extractStringValue(jsonObject.getJSONObject("passcode"));
+        } else if (value instanceof String || value instanceof Number) {
+            values.add(String.valueOf(value));
+        }
+        return values;
+    }
+
+    /**
+     * Helper method to extract possible values as strings
+     */
+    protected static List<String> extractPossibleStringValues(JSONObject fieldObject) throws JSONException {
+        List<String> pValues = new ArrayList<>();
+        if (fieldObject.has("pvalues")) {
+            JSONArray pvaluesArray = fieldObject.getJSONArray("pvalues");
+            for (int i = 0; i < pvaluesArray.length(); i++) {
+                pValues.add(pvaluesArray.getString(i));
             }
-            
-            return true;
-        } catch (JSONException e) {
-            e.printStackTrace();
-            return false;
         }
+        return pValues;
     }
-    
-    // Getters and setters
-    public String getReservationNumber() {
-        return reservationNumber;
+      /**
+     * Helper method to extract possible values as integers
+     */
+    protected static List<Integer> extractPossibleIntValues(JSONObject fieldObject) throws JSONException {
+        List<Integer> pValues = new ArrayList<>();
+        if (fieldObject.has("pvalues")) {
+            JSONArray pvaluesArray = fieldObject.getJSONArray("pvalues");
+            for (int i = 0; i < pvaluesArray.length(); i++) {
+                pValues.add(pvaluesArray.getInt(i));
+            }
+        }
+        return pValues;
     }
 
-    public String getPasscode() {
-        return passcode;
+    /**
+     * Helper method to turn a closed-vocabulary entry of a field object, a single label or an array
+     * of them, into {@link SlotSet} bits. Labels outside the vocabulary are dropped.
+     */
+    protected static int extractBits(JSONObject fieldObject, String key, ToIntFunction<String> bitsOf)
+            throws JSONException {
+        Object entry = fieldObject.opt(key);
+        if (entry instanceof JSONArray) {
+            JSONArray labels = (JSONArray) entry;
+            int bits = 0;
+            for (int i = 0; i < labels.length(); i++) {
+                bits |= bitsOf.applyAsInt(String.valueOf(labels.get(i)));
+            }
+            return bits;
+        }
+        return entry == null || entry == JSONObject.NULL ? 0 : bitsOf.applyAsInt(String.valueOf(entry));
     }
-}
 
-/**
- * Template for discount requests
- */
-class DiscountTemplate extends MsgTemplate {
-    private List<String> showName;
-    private int numberOfPeople;
-    private List<String> age;
-    private List<String> date;
-    
-    // Possible values
-    private List<String> possibleAgeCategories;
-    
-    public DiscountTemplate() {
-        showName = new ArrayList<>();
-        numberOfPeople = 0;
-        age = new ArrayList<>();
-        date = new ArrayList<>();
-        possibleAgeCategories = new ArrayList<>();
+    /**
+     * The constant with the lowest of the bits, for a slot that holds one value of a closed
+     * vocabulary, or null if no bit is set
+     */
+    protected static <E extends Enum<E>> E choiceOf(Class<E> type, int bits) {
+        return bits == 0 ? null : type.getEnumConstants()[Integer.numberOfTrailingZeros(bits)];
     }
-    
-    @Override
-    protected boolean populateFromJsonObject(JSONObject jsonObject) throws JSONException {
-        try {
-            if (jsonObject.has("show_name")) {
-                showName = extractStringListValue(jsonObject.getJSONObject("show_name"));
-            }
-            
-            if (jsonObject.has("no_of_people")) {
-                numberOfPeople = extractIntValue(jsonObject.getJSONObject("no_of_people"));
-            }
-            
-            if (jsonObject.has("age")) {
-                JSONObject ageObject = jsonObject.getJSONObject("age");
-                age = extractStringListValue(ageObject);
-                possibleAgeCategories = extractPossibleStringValues(ageObject);
-            }
-            
-            if (jsonObject.has("date")) {
-                date = extractStringListValue(jsonObject.getJSONObject("date"));
+
+    /**
+     * Streaming counterpart of {@link #extractStringValue}: reads the value of a
+     * {"value": ..., "pvalues": [...]} field object
+     */
+    protected static String readStringField(ReplyDecoder reader) throws JSONException {
+        String value = "";
+        if (!beginFieldObject(reader)) {
+            return value;
+        }
+        while (reader.hasNext()) {
+            int slot = reader.selectName(SLOT_FIELDS);
+            if (slot == VALUE) {
+                value = readScalar(reader);
+            } else {
+                reader.skipValue();
             }
-            
-            return true;
-        } catch (JSONException e) {
-            e.printStackTrace();
-            return false;
         }
-    }
-    
-    // Getters and setters
-    public List<String> getShowName() {
-        return showName;
+        reader.endObject();
+        return value;
     }
 
-    public int getNumberOfPeople() {
-        return numberOfPeople;
+    /**
+     * Streaming counterpart of {@link #extractStringListValue}: replaces the list's contents with the
+     * field's values, so a reused template keeps its lists. A single value becomes a one-element list.
+     */
+    protected static void readStringListField(ReplyDecoder reader, List<String> values) throws JSONException {
+        values.clear();
+        if (!beginFieldObject(reader)) {
+            return;
+        }
+        while (reader.hasNext()) {
+            int slot = reader.selectName(SLOT_FIELDS);
+            if (slot == VALUE) {
+                readStrings(reader, values);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
     }
 
-    public List<String> getAge() {
-        return age;
+    /**
+     * Streaming counterpart of {@link #extractIntValue}
+     */
+    protected static int readIntField(ReplyDecoder reader) throws JSONException {
+        int value = 0;
+        if (!beginFieldObject(reader)) {
+            return value;
+        }
+        while (reader.hasNext()) {
+            int slot = reader.selectName(SLOT_FIELDS);
+            if (slot == VALUE) {
+                Integer parsed = readInt(reader);
+                value = parsed != null ? parsed : 0;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return value;
     }
 
-    public List<String> getDate() {
-        return date;
+    /**
+     * Reads a field object whose value and possible values come from a closed vocabulary into bit sets.
+     * Either set may be null if the template does not keep it; labels outside the vocabulary are dropped.
+     */
+    protected static void readSlotSet(ReplyDecoder reader, ToIntFunction<String> bitsOf,
+                                      SlotSet<?> values, SlotSet<?> possibleValues) throws JSONException {
+        if (!beginFieldObject(reader)) {
+            return;
+        }
+        while (reader.hasNext()) {
+            int slot = reader.selectName(SLOT_FIELDS);
+            if (slot == VALUE && values != null) {
+                values.addBits(readBits(reader, bitsOf));
+            } else if (slot == PVALUES && possibleValues != null) {
+                possibleValues.addBits(readBits(reader, bitsOf));
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
     }
 
-    public List<String> getPossibleAgeCategories() {
-        return possibleAgeCategories;
+    /**
+     * Reads a field object that holds one value of a closed vocabulary, e.g. a booking's day, and
+     * its possible values. The first of several values wins; labels outside the vocabulary are dropped.
+     * @return the value, or null if the field has none
+     */
+    protected static <E extends Enum<E>> E readChoiceField(ReplyDecoder reader, Class<E> type,
+                                                           ToIntFunction<String> bitsOf,
+                                                           SlotSet<E> possibleValues) throws JSONException {
+        int bits = 0;
+        if (!beginFieldObject(reader)) {
+            return null;
+        }
+        while (reader.hasNext()) {
+            int slot = reader.selectName(SLOT_FIELDS);
+            if (slot == VALUE) {
+                bits = readBits(reader, bitsOf);
+            } else if (slot == PVALUES) {
+                possibleValues.addBits(readBits(reader, bitsOf));
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return choiceOf(type, bits);
     }
-}
 
-/**
- * Template for review requests
- */
-class ReviewTemplate extends MsgTemplate {
-    private String reservationNumber;
-    private String passcode;
-    private int stars;
-    private String review;
-    
-    // Possible values
-    private List<Integer> possibleStarRatings;
-    
-    public ReviewTemplate() {
-        reservationNumber = "";
-        passcode = "";
-        stars = 0;
-        review = "";
-        possibleStarRatings = new ArrayList<>();
-    }
-    
-    @Override
-    protected boolean populateFromJsonObject(JSONObject jsonObject) throws JSONException {
-        try {
-            if (jsonObject.has("reservation_number")) {
-                reservationNumber = extractStringValue(jsonObject.getJSONObject("reservation_number"));
-            }
-            
-            if (jsonObject.has("passcode")) {
-                passcode = extractStringValue(jsonObject.getJSONObject("passcode"));
-            }
-            
-            if (jsonObject.has("stars")) {
-                JSONObject starsObject = jsonObject.getJSONObject("stars");
-                stars = extractIntValue(starsObject);
-                possibleStarRatings = extractPossibleIntValues(starsObject);
-            }
-            
-            if (jsonObject.has("review")) {
-                review = extractStringValue(jsonObject.getJSONObject("review"));
-            }
-            
+    /**
+     * Enters a field object, or skips the value and returns false if it is not one
+     */
+    protected static boolean beginFieldObject(ReplyDecoder reader) throws JSONException {
+        if (reader.peek() == ReplyDecoder.Token.BEGIN_OBJECT) {
+            reader.beginObject();
             return true;
-        } catch (JSONException e) {
-            e.printStackTrace();
-            return false;
         }
-    }
-    
-    // Getters and setters
-    public String getReservationNumber() {
-        return reservationNumber;
+        reader.skipValue();
+        return false;
     }
 
-    public String getPasscode() {
-        return passcode;
+    /**
+     * Reads a string, number or boolean as text; null, arrays and objects read as ""
+     */
+    private static String readScalar(ReplyDecoder reader) throws JSONException {
+        switch (reader.peek()) {
+            case STRING:
+            case NUMBER:
+            case BOOLEAN:
+                return reader.nextString();
+            default:
+                reader.skipValue();
+                return "";
+        }
     }
 
-    public int getStars() {
-        return stars;
+    /**
+     * Adds an array's scalar elements, or a single scalar, to the list
+     */
+    private static void readStrings(ReplyDecoder reader, List<String> into) throws JSONException {
+        ReplyDecoder.Token token = reader.peek();
+        if (token == ReplyDecoder.Token.STRING || token == ReplyDecoder.Token.NUMBER) {
+            into.add(reader.nextString());
+            return;
+        }
+        if (token != ReplyDecoder.Token.BEGIN_ARRAY) {
+            reader.skipValue();
+            return;
+        }
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String value = readScalar(reader);
+            if (!value.isEmpty()) {
+                into.add(value);
+            }
+        }
+        reader.endArray();
     }
 
-    public String getReview() {
-        return review;
+    /**
+     * ORs together the bits of a single label or an array of labels
+     */
+    private static int readBits(ReplyDecoder reader, ToIntFunction<String> bitsOf) throws JSONException {
+        ReplyDecoder.Token token = reader.peek();
+        if (token != ReplyDecoder.Token.BEGIN_ARRAY) {
+            return bitsOf.applyAsInt(readScalar(reader));
+        }
+        int bits = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            bits |= bitsOf.applyAsInt(readScalar(reader));
+        }
+        reader.endArray();
+        return bits;
     }
 
-    public List<Integer> getPossibleStarRatings() {
-        return possibleStarRatings;
+    /**
+     * Reads a number, or a string holding one; returns null for anything else
+     */
+    private static Integer readInt(ReplyDecoder reader) throws JSONException {
+        ReplyDecoder.Token token = reader.peek();
+        if (token == ReplyDecoder.Token.NUMBER) {
+            return reader.nextInt();
+        }
+        if (token == ReplyDecoder.Token.STRING) {
+            try {
+                return Integer.parseInt(reader.nextString().trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        reader.skipValue();
+        return null;
     }
 }
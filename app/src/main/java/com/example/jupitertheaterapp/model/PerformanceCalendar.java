@@ -0,0 +1,373 @@
+package com.example.jupitertheaterapp.model;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The season's performances: every show in the catalog expanded into one performance per week on its
+ * day and time, ending {@code duration} minutes later. Answers the questions users actually ask, such
+ * as "after 19:00 on the weekend" or "something under two hours", and finds shows booked into the
+ * same room at overlapping times.
+ * <p>
+ * Performances are kept as minutes since the season's first Monday in arrays sorted by start, so a
+ * range of starts is two binary searches. The same arrays form an implicit interval tree: each
+ * subrange's middle element holds the latest end in that subrange, so "what is playing between A and
+ * B" skips every subtree that ends before A. Those two queries stay logarithmic in the number of
+ * performances, plus the ones returned. Questions by day of the week take two binary searches per day
+ * looked at, so their cost grows with the weeks scanned before enough performances are found; callers
+ * pass a limit to keep that short. Immutable once built; safe to use from any thread.
+ */
+public final class PerformanceCalendar {
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    private static final int MINUTES_PER_WEEK = 7 * MINUTES_PER_DAY;
+
+    private final LocalDateTime seasonStart;
+    private final int weeks;
+
+    // The shows, each once
+    private final String[] shows;
+    private final String[] rooms;
+
+    // Per performance, sorted by start: minutes since seasonStart, and the index of its show
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] showOf;
+    // The latest end among the performances in the subrange whose middle element this is
+    private final int[] maxEnds;
+
+    private final List<Performance[]> roomConflicts;
+
+    /**
+     * One performance of a show
+     */
+    public static final class Performance {
+        private final String show;
+        private final String room;
+        private final LocalDateTime start;
+        private final int durationMinutes;
+
+        Performance(String show, String room, LocalDateTime start, int durationMinutes) {
+            this.show = show;
+            this.room = room;
+            this.start = start;
+            this.durationMinutes = durationMinutes;
+        }
+
+        public String getShow() {
+            return show;
+        }
+
+        public String getRoom() {
+            return room;
+        }
+
+        public LocalDateTime getStart() {
+            return start;
+        }
+
+        public LocalDateTime getEnd() {
+            return start.plusMinutes(durationMinutes);
+        }
+
+        public int getDurationMinutes() {
+            return durationMinutes;
+        }
+
+        public Day getDay() {
+            return Day.values()[start.getDayOfWeek().getValue() - 1];
+        }
+
+        @Override
+        public String toString() {
+            return show + " @ " + room + " " + start + " (" + durationMinutes + "')";
+        }
+    }
+
+    private PerformanceCalendar(LocalDateTime seasonStart, int weeks, String[] shows, String[] rooms,
+                                int[] starts, int[] ends, int[] showOf) {
+        this.seasonStart = seasonStart;
+        this.weeks = weeks;
+        this.shows = shows;
+        this.rooms = rooms;
+        this.starts = starts;
+        this.ends = ends;
+        this.showOf = showOf;
+        this.maxEnds = new int[starts.length];
+        buildMaxEnds(0, starts.length);
+        this.roomConflicts = findRoomConflicts();
+    }
+
+    /**
+     * Expands the catalog into weekly performances. Shows without a day, a time or a duration are
+     * left out, since they cannot be placed.
+     * @param catalog the shows, as in backend/shows/shows.json
+     * @param seasonStart any day of the season's first week; the season starts on its Monday
+     * @param weeks how many weeks the season runs
+     */
+    public static PerformanceCalendar fromCatalog(JSONArray catalog, LocalDate seasonStart, int weeks)
+            throws JSONException {
+        List<String> names = new ArrayList<>();
+        List<String> roomList = new ArrayList<>();
+        List<int[]> weekly = new ArrayList<>();  // Minute of the week, duration, show
+        for (int i = 0; i < catalog.length(); i++) {
+            JSONObject show = catalog.getJSONObject(i);
+            Day day = Day.fromLabel(show.optString("day", null));
+            int duration = show.optInt("duration", 0);
+            LocalTime time;
+            try {
+                time = LocalTime.parse(show.optString("time"));
+            } catch (DateTimeParseException e) {
+                continue;
+            }
+            if (day == null || duration <= 0) {
+                continue;
+            }
+            weekly.add(new int[]{day.ordinal() * MINUTES_PER_DAY + time.getHour() * 60 + time.getMinute(),
+                    duration, names.size()});
+            names.add(show.optString("name"));
+            roomList.add(show.optString("room"));
+        }
+        weekly.sort((a, b) -> Integer.compare(a[0], b[0]));
+
+        // Week by week in order of the minute of the week, so the result is already sorted by start
+        int count = weekly.size() * Math.max(0, weeks);
+        int[] starts = new int[count];
+        int[] ends = new int[count];
+        int[] showOf = new int[count];
+        int n = 0;
+        for (int week = 0; week < weeks; week++) {
+            for (int[] show : weekly) {
+                starts[n] = week * MINUTES_PER_WEEK + show[0];
+                ends[n] = starts[n] + show[1];
+                showOf[n] = show[2];
+                n++;
+            }
+        }
+        LocalDateTime start = seasonStart.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)).atStartOfDay();
+        return new PerformanceCalendar(start, Math.max(0, weeks), names.toArray(new String[0]),
+                roomList.toArray(new String[0]), starts, ends, showOf);
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
+    public LocalDateTime getSeasonStart() {
+        return seasonStart;
+    }
+
+    public LocalDateTime getSeasonEnd() {
+        return seasonStart.plusWeeks(weeks);
+    }
+
+    /**
+     * Performances starting in [from, to), in order of start
+     * @param maxDurationMinutes the longest performance wanted, or 0 for any
+     */
+    public List<Performance> startingBetween(LocalDateTime from, LocalDateTime to, int maxDurationMinutes) {
+        List<Performance> found = new ArrayList<>();
+        int last = lowerBound(minutesOf(to));
+        for (int i = lowerBound(minutesOf(from)); i < last; i++) {
+            addIfShortEnough(i, maxDurationMinutes, found);
+        }
+        return found;
+    }
+
+    /**
+     * The first performances on the given days starting between two times of day, from a moment on, in
+     * order of start. "After 19:00 on the weekend" is the Saturday and Sunday bits, 19:00 and
+     * {@link LocalTime#MAX}. A window that ends before it starts, such as 22:00 to 01:00, runs past
+     * midnight into the next day. Stops scanning the season once {@code limit} are found.
+     * @param dayBits {@link SlotSet} bits of the days wanted, e.g. from a "day" slot, or 0 for any day
+     * @param earliest the earliest start time, inclusive
+     * @param latest the latest start time, inclusive
+     * @param maxDurationMinutes the longest performance wanted, or 0 for any
+     * @param showNames the shows wanted, ignoring case, or empty for any
+     * @param notBefore the earliest start wanted, usually now
+     * @param limit the most performances wanted, or 0 for all
+     */
+    public List<Performance> onDays(int dayBits, LocalTime earliest, LocalTime latest, int maxDurationMinutes,
+                                    Collection<String> showNames, LocalDateTime notBefore, int limit) {
+        if (dayBits == 0) {
+            dayBits = (1 << Day.values().length) - 1;
+        }
+        int floor = minutesOf(notBefore);
+        int windowStart = earliest.getHour() * 60 + earliest.getMinute();
+        int windowEnd = latest.getHour() * 60 + latest.getMinute();
+        if (windowEnd < windowStart) {
+            windowEnd += MINUTES_PER_DAY;
+        }
+        boolean[] wanted = showsNamed(showNames);
+        if (limit <= 0) {
+            limit = Integer.MAX_VALUE;
+        }
+        // A window is shorter than a day, so each day's ends before the next day's opens and the
+        // performances come out already in order of start
+        List<Performance> found = new ArrayList<>();
+        for (int week = Math.max(0, floor / MINUTES_PER_WEEK); week < weeks; week++) {
+            for (int day = 0; day < 7; day++) {
+                if ((dayBits & 1 << day) == 0) {
+                    continue;
+                }
+                int dayStart = week * MINUTES_PER_WEEK + day * MINUTES_PER_DAY;
+                if (dayStart + windowEnd < floor) {
+                    continue;
+                }
+                int last = lowerBound(dayStart + windowEnd + 1);
+                for (int i = lowerBound(Math.max(floor, dayStart + windowStart)); i < last; i++) {
+                    if (wanted == null || wanted[showOf[i]]) {
+                        addIfShortEnough(i, maxDurationMinutes, found);
+                        if (found.size() >= limit) {
+                            return found;
+                        }
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Which shows the names pick out, ignoring case and surrounding spaces, or null for every show
+     */
+    private boolean[] showsNamed(Collection<String> names) {
+        if (names.isEmpty()) {
+            return null;
+        }
+        boolean[] wanted = new boolean[shows.length];
+        for (int show = 0; show < shows.length; show++) {
+            for (String name : names) {
+                if (shows[show].equalsIgnoreCase(name.trim())) {
+                    wanted[show] = true;
+                    break;
+                }
+            }
+        }
+        return wanted;
+    }
+
+    /**
+     * Performances under way at any time in [from, to), in order of start
+     */
+    public List<Performance> playingBetween(LocalDateTime from, LocalDateTime to) {
+        List<Performance> found = new ArrayList<>();
+        collectOverlapping(0, starts.length, minutesOf(from), minutesOf(to), found);
+        return found;
+    }
+
+    /**
+     * Pairs of performances booked into the same room at overlapping times, each earlier one first.
+     * Empty for a consistent catalog.
+     */
+    public List<Performance[]> getRoomConflicts() {
+        return roomConflicts;
+    }
+
+    private void addIfShortEnough(int i, int maxDurationMinutes, List<Performance> into) {
+        if (maxDurationMinutes <= 0 || ends[i] - starts[i] <= maxDurationMinutes) {
+            into.add(performance(i));
+        }
+    }
+
+    private Performance performance(int i) {
+        int show = showOf[i];
+        return new Performance(shows[show], rooms[show], seasonStart.plusMinutes(starts[i]), ends[i] - starts[i]);
+    }
+
+    /**
+     * Minutes since the season start, clamped to the range an int holds
+     */
+    private int minutesOf(LocalDateTime time) {
+        long minutes = ChronoUnit.MINUTES.between(seasonStart, time);
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, minutes));
+    }
+
+    /**
+     * The index of the first performance starting at or after the minute
+     */
+    private int lowerBound(int minute) {
+        int lo = 0;
+        int hi = starts.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] < minute) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int buildMaxEnds(int lo, int hi) {
+        if (lo >= hi) {
+            return Integer.MIN_VALUE;
+        }
+        int mid = (lo + hi) >>> 1;
+        int maxEnd = Math.max(ends[mid], Math.max(buildMaxEnds(lo, mid), buildMaxEnds(mid + 1, hi)));
+        maxEnds[mid] = maxEnd;
+        return maxEnd;
+    }
+
+    private void collectOverlapping(int lo, int hi, int from, int to, List<Performance> into) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        if (maxEnds[mid] <= from) {
+            return;  // Everything in this subrange is over before the window opens
+        }
+        collectOverlapping(lo, mid, from, to, into);
+        if (starts[mid] >= to) {
+            return;  // This one and everything after it starts after the window closes
+        }
+        if (ends[mid] > from) {
+            into.add(performance(mid));
+        }
+        collectOverlapping(mid + 1, hi, from, to, into);
+    }
+
+    /**
+     * One pass in order of start, keeping the performance that ends last in each room: a performance
+     * overlaps an earlier one in its room exactly when it starts before that one ends
+     */
+    private List<Performance[]> findRoomConflicts() {
+        Map<String, Integer> latestByRoom = new HashMap<>();
+        List<Performance[]> conflicts = new ArrayList<>();
+        for (int i = 0; i < starts.length; i++) {
+            String room = rooms[showOf[i]];
+            if (room.isEmpty()) {
+                continue;
+            }
+            Integer latest = latestByRoom.get(room);
+            if (latest != null && ends[latest] > starts[i]) {
+                conflicts.add(new Performance[]{performance(latest), performance(i)});
+            }
+            if (latest == null || ends[i] > ends[latest]) {
+                latestByRoom.put(room, i);
+            }
+        }
+        return conflicts.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(conflicts);
+    }
+
+    @Override
+    public String toString() {
+        return "PerformanceCalendar{" + size() + " performances of " + shows.length + " shows over "
+                + weeks + " weeks from " + seasonStart.toLocalDate() + "}";
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.jupitertheaterapp.model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Template for review requests
+ */
+class ReviewTemplate extends ReviewTemplateSchema {
+    @Override
+    protected boolean isFilled(int field) {
+        switch (field) {
+            case RESERVATION_NUMBER:
+                return !reservationNumber.isEmpty();
+            case PASSCODE:
+                return !passcode.isEmpty();
+            case STARS:
+                return stars != null;
+            case REVIEW:
+                return !review.isEmpty();
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    protected void copyField(int field, MsgTemplate from) {
+        ReviewTemplate other = (ReviewTemplate) from;
+        switch (field) {
+            case RESERVATION_NUMBER:
+                reservationNumber = other.reservationNumber;
+                break;
+            case PASSCODE:
+                passcode = other.passcode;
+                break;
+            case STARS:
+                stars = other.stars;
+                possibleStars.setBits(other.possibleStars.getBits());
+                break;
+            case REVIEW:
+                review = other.review;
+                break;
+        }
+    }
+
+    @Override
+    protected void clearFields() {
+        reservationNumber = "";
+        passcode = "";
+        stars = null;
+        review = "";
+        possibleStars.clear();
+    }
+
+    @Override
+    protected void writeFields(DataOutput out) throws IOException {
+        out.writeUTF(reservationNumber);
+        out.writeUTF(passcode);
+        out.writeInt(getStars());
+        out.writeUTF(review);
+        out.writeInt(possibleStars.getBits());
+    }
+
+    @Override
+    protected void readFields(DataInput in) throws IOException {
+        reservationNumber = in.readUTF();
+        passcode = in.readUTF();
+        stars = StarRating.fromValue(in.readInt());
+        review = in.readUTF();
+        possibleStars.setBits(in.readInt());
+    }
+
+    @Override
+    protected int extractFrom(SlotExtractor extractor, String text, String normalized) {
+        // The review itself is free text, so it is left to the server
+        int filled = 0;
+        String foundNumber = extractor.findReservationNumber(text, normalized);
+        if (foundNumber != null) {
+            reservationNumber = foundNumber;
+            filled++;
+        }
+        String foundPasscode = extractor.findPasscode(text, normalized);
+        if (foundPasscode != null) {
+            passcode = foundPasscode;
+            filled++;
+        }
+        int foundStars = extractor.findStars(normalized);
+        if (foundStars > 0) {
+            stars = StarRating.fromValue(foundStars);
+            possibleStars.setBits(allBits(StarRating.class));
+            filled++;
+        }
+        return filled;
+    }
+
+    // Getters and setters
+    public String getReservationNumber() {
+        return reservationNumber;
+    }
+
+    public String getPasscode() {
+        return passcode;
+    }
+
+    /**
+     * The number of stars given, or 0 if none yet
+     */
+    public int getStars() {
+        return stars == null ? 0 : stars.getValue();
+    }
+
+    public String getReview() {
+        return review;
+    }
+
+    public SlotSet<StarRating> getPossibleStarRatings() {
+        return possibleStars;
+    }
+
+    public int[] getPossibleStarValues() {
+        return StarRating.valuesOf(possibleStars);
+    }
+}
@@ -0,0 +1,305 @@
+package com.example.jupitertheaterapp.model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.text.Normalizer;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Template for show information requests
+ */
+class ShowInfoTemplate extends ShowInfoTemplateSchema {
+    // Numbers, with a decimal point or comma, and words, in a lower-cased duration without accents
+    private static final Pattern DURATION_TOKEN = Pattern.compile("\\d+(?:[.,]\\d+)?|\\p{L}+");
+
+    @Override
+    protected boolean isFilled(int field) {
+        switch (field) {
+            case NAME:
+                return !name.isEmpty();
+            case DAY:
+                return !day.isEmpty();
+            case TOPIC:
+                return !topic.isEmpty();
+            case TIME:
+                return !time.isEmpty();
+            case CAST:
+                return !cast.isEmpty();
+            case ROOM:
+                return !room.isEmpty();
+            case DURATION:
+                return !duration.isEmpty();
+            case STARS:
+                return !stars.isEmpty();
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    protected void copyField(int field, MsgTemplate from) {
+        ShowInfoTemplate other = (ShowInfoTemplate) from;
+        switch (field) {
+            case NAME:
+                setAll(name, other.name);
+                break;
+            case DAY:
+                day.setBits(other.day.getBits());
+                possibleDay.setBits(other.possibleDay.getBits());
+                break;
+            case TOPIC:
+                setAll(topic, other.topic);
+                break;
+            case TIME:
+                setAll(time, other.time);
+                break;
+            case CAST:
+                setAll(cast, other.cast);
+                break;
+            case ROOM:
+                setAll(room, other.room);
+                break;
+            case DURATION:
+                setAll(duration, other.duration);
+                break;
+            case STARS:
+                stars.setBits(other.stars.getBits());
+                possibleStars.setBits(other.possibleStars.getBits());
+                break;
+        }
+    }
+
+    @Override
+    protected void clearFields() {
+        name.clear();
+        day.clear();
+        topic.clear();
+        time.clear();
+        cast.clear();
+        room.clear();
+        duration.clear();
+        stars.clear();
+        possibleDay.clear();
+        possibleStars.clear();
+    }
+
+    @Override
+    protected void writeFields(DataOutput out) throws IOException {
+        writeStrings(out, name);
+        out.writeInt(day.getBits());
+        writeStrings(out, topic);
+        writeStrings(out, time);
+        writeStrings(out, cast);
+        writeStrings(out, room);
+        writeStrings(out, duration);
+        out.writeInt(stars.getBits());
+        out.writeInt(possibleDay.getBits());
+        out.writeInt(possibleStars.getBits());
+    }
+
+    @Override
+    protected void readFields(DataInput in) throws IOException {
+        readStrings(in, name);
+        day.setBits(in.readInt());
+        readStrings(in, topic);
+        readStrings(in, time);
+        readStrings(in, cast);
+        readStrings(in, room);
+        readStrings(in, duration);
+        stars.setBits(in.readInt());
+        possibleDay.setBits(in.readInt());
+        possibleStars.setBits(in.readInt());
+    }
+
+    // Getters and setters
+    public List<String> getName() {
+        return name;
+    }
+
+    public SlotSet<Day> getDay() {
+        return day;
+    }
+
+    public List<String> getTopic() {
+        return topic;
+    }
+
+    public List<String> getTime() {
+        return time;
+    }
+
+    public List<String> getCast() {
+        return cast;
+    }
+
+    public List<String> getRoom() {
+        return room;
+    }
+
+    public List<String> getDuration() {
+        return duration;
+    }
+
+    /**
+     * Bounds such as ">3" stand for every rating they admit
+     */
+    public SlotSet<StarRating> getStars() {
+        return stars;
+    }
+
+    @Override
+    public void restrictDays(SlotSet<Day> catalogDays) {
+        possibleDay.setBits(availableDays(possibleDay, catalogDays).getBits());
+    }
+
+    /**
+     * Performances on the days asked for, starting no earlier than the earliest time asked for and
+     * lasting no longer than the longest duration asked for, narrowed to the named shows if any
+     */
+    @Override
+    public List<PerformanceCalendar.Performance> findPerformances(PerformanceCalendar calendar, LocalDateTime now,
+                                                                  int limit) {
+        if (day.isEmpty() && time.isEmpty() && duration.isEmpty()) {
+            return Collections.emptyList();
+        }
+        LocalTime earliest = null;
+        for (String value : time) {
+            try {
+                LocalTime parsed = LocalTime.parse(value.trim());
+                if (earliest == null || parsed.isBefore(earliest)) {
+                    earliest = parsed;
+                }
+            } catch (DateTimeParseException e) {
+                // Not a time of day, e.g. "απόγευμα"; left to the server
+            }
+        }
+        int maxDuration = 0;
+        for (String value : duration) {
+            maxDuration = Math.max(maxDuration, durationMinutes(value));
+        }
+        return calendar.onDays(day.getBits(), earliest != null ? earliest : LocalTime.MIN, LocalTime.MAX,
+                maxDuration, name, now, limit);
+    }
+
+    /**
+     * A duration such as "120 λεπτά", "2 ώρες", "μιάμιση ώρα", "2 ώρες και μισή" or "1h30" in minutes,
+     * or 0 if it holds no amount. A bare number under 10 is taken as hours and any other as minutes, as
+     * in the catalog; a bare number after hours is the minutes past them.
+     */
+    static int durationMinutes(String value) {
+        String text = Normalizer.normalize(value.toLowerCase(Locale.ROOT), Normalizer.Form.NFD)
+                .replaceAll("\\p{M}", "");
+        Matcher token = DURATION_TOKEN.matcher(text);
+        double total = 0;
+        double pending = -1;  // An amount still waiting for its unit
+        int lastUnit = 0;
+        while (token.find()) {
+            String word = token.group();
+            int unit = unitMinutes(word);
+            if (unit > 0) {
+                if (pending >= 0) {
+                    total += pending * unit;
+                    pending = -1;
+                }
+                lastUnit = unit;
+                continue;
+            }
+            double amount = amountOf(word);
+            if (amount < 0) {
+                continue;
+            }
+            if (pending >= 0) {
+                total += pending * bareUnit(pending, lastUnit);
+            }
+            pending = amount;
+        }
+        if (pending >= 0) {
+            total += pending * bareUnit(pending, lastUnit);
+        }
+        return (int) Math.round(total);
+    }
+
+    /**
+     * Minutes per unit for an amount given without one: "μισή" after hours is half an hour, any other
+     * amount after hours is minutes, and on its own a number under 10 is hours
+     */
+    private static int bareUnit(double amount, int lastUnit) {
+        if (lastUnit == 60) {
+            return amount < 1 ? 60 : 1;
+        }
+        if (lastUnit == 1) {
+            return 1;
+        }
+        return amount < 10 ? 60 : 1;
+    }
+
+    /**
+     * Minutes per unit the word names, or 0 if it is not a unit. Accents are already stripped.
+     */
+    private static int unitMinutes(String word) {
+        if (word.startsWith("ωρ") || word.equals("h") || word.startsWith("hour") || word.equals("hr")
+                || word.equals("hrs")) {
+            return 60;
+        }
+        if (word.startsWith("λεπ") || word.startsWith("min") || word.equals("m")) {
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * The amount a number or number word stands for, or -1 if it is neither. Accents are already
+     * stripped.
+     */
+    private static double amountOf(String word) {
+        if (Character.isDigit(word.charAt(0))) {
+            try {
+                return Double.parseDouble(word.replace(',', '.'));
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        switch (word) {
+            case "μιση":
+            case "μισο":
+                return 0.5;
+            case "μια":
+            case "μιας":
+            case "ενα":
+            case "ενος":
+                return 1;
+            case "μιαμιση":
+            case "εναμιση":
+                return 1.5;
+            case "δυο":
+                return 2;
+            case "δυομιση":
+                return 2.5;
+            case "τρεις":
+            case "τρια":
+                return 3;
+            default:
+                return -1;
+        }
+    }
+
+    public SlotSet<Day> getPossibleDays() {
+        return possibleDay;
+    }
+
+    public SlotSet<StarRating> getPossibleStarRatings() {
+        return possibleStars;
+    }
+
+    public int[] getPossibleStarValues() {
+        return StarRating.valuesOf(possibleStars);
+    }
+}
@@ -0,0 +1,275 @@
+package com.example.jupitertheaterapp.model;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Fills the slots that are plain structured tokens, such as days, times, seat codes, reservation
+ * numbers, star counts and group sizes, on the device, so an EXTRACT only asks the server for what
+ * needs the LLM. Show names and rooms are looked up in gazetteers built from the show catalog, days
+ * and age categories in ones built from the templates' closed vocabularies; the other slots are
+ * matched with patterns compiled once per process.
+ * <p>
+ * Everything is matched on {@link #normalize(String) normalized} text, which has the same length as
+ * the message, so codes are still cut from the message with their original spelling.
+ * Immutable once built; safe to use from any thread.
+ */
+public final class SlotExtractor {
+    private static final String TIME = "(?<![\\d:])([01]?\\d|2[0-3]):([0-5]\\d)(?![\\d:])";
+    private static final String NUMBER = "(\\d{1,2}|ενα|ενασ|μια|δυο|τρια|τρεισ|τεσσερα|τεσσερισ|πεντε"
+            + "|εξι|επτα|εφτα|οκτω|οχτω|εννεα|εννια|δεκα|one|two|three|four|five|six|seven|eight|nine|ten)";
+
+    private static final Pattern TIME_PATTERN = Pattern.compile(TIME);
+    // Seats are a row letter and a number, e.g. B12 or Γ 14; rooms are the other way round, e.g. 12A
+    private static final Pattern SEAT_PATTERN = Pattern.compile(
+            "(?<![\\p{L}\\p{N}])(?:(?:θεση|seat)\\s*[:#]?\\s*)?([a-zα-ω])\\s?(\\d{1,2})(?![\\p{L}\\p{N}])");
+    private static final Pattern RESERVATION_PATTERN = Pattern.compile(
+            "(?<![\\p{L}\\p{N}])(res\\d{3,})(?![\\p{L}\\p{N}])"
+                    + "|(?<![\\p{L}\\p{N}])(?:(?:κωδικο[συ]?|αριθμο[συ]?)\\s+κρατησησ|κρατηση"
+                    + "|reservation(?:\\s+number)?|booking(?:\\s+number)?)"
+                    + "\\s*(?:is|ειναι)?\\s*(?:no\\.?|#|:)?\\s*([a-z]*\\d[a-z0-9-]{3,})");
+    // Only a code introduced as one; "κωδικός κράτησης" is the reservation number
+    private static final Pattern PASSCODE_PATTERN = Pattern.compile(
+            "(?<![\\p{L}\\p{N}])(?:passcode|pass\\s+code|password|pin|κωδικο[συ]?(?!\\s+κρατησ))"
+                    + "\\s*(?:is|ειναι)?\\s*[:=]?\\s*([a-z0-9]{4,})(?![\\p{L}\\p{N}])");
+    private static final Pattern STARS_PATTERN = Pattern.compile(
+            "(?<![\\p{L}\\p{N}])" + NUMBER + "\\s*(?:αστερια|αστερακια|αστερι|stars?|/\\s*5)(?![\\p{L}\\p{N}])");
+    private static final Pattern GROUP_SIZE_PATTERN = Pattern.compile(
+            "(?<![\\p{L}\\p{N}])" + NUMBER + "\\s*(?:ατομα|ατομο|ατομων|εισιτηρια|εισιτηριο|θεσεισ"
+                    + "|people|persons|person|tickets|ticket|seats)(?![\\p{L}\\p{N}])");
+
+    // Numbers written out, as they appear in normalized text
+    private static final String[][] NUMBER_WORDS = {
+            {"ενα", "ενασ", "μια", "one"},
+            {"δυο", "two"},
+            {"τρια", "τρεισ", "three"},
+            {"τεσσερα", "τεσσερισ", "four"},
+            {"πεντε", "five"},
+            {"εξι", "six"},
+            {"επτα", "εφτα", "seven"},
+            {"οκτω", "οχτω", "eight"},
+            {"εννεα", "εννια", "nine"},
+            {"δεκα", "ten"},
+    };
+
+    // Ways users name the age categories besides their template labels
+    private static final String[][] AGE_WORDS = {
+            {"child", "children", "kid", "kids", "παιδι", "παιδια", "παιδικο", "παιδικα", "ανηλικοσ", "ανηλικο",
+                    "ανηλικοι", "ανηλικα", "μαθητησ", "μαθητεσ", "φοιτητησ", "φοιτητεσ"},
+            {"adult", "adults", "grownup", "grownups", "ενηλικασ", "ενηλικα", "ενηλικοι", "ενηλικεσ", "ενηλικο",
+                    "ενηλικων", "κανονικο", "κανονικα"},
+            {"senior", "seniors", "pensioner", "pensioners", "συνταξιουχοσ", "συνταξιουχοι", "συνταξιουχο",
+                    "συνταξιουχων", "ηλικιωμενοσ", "ηλικιωμενοι", "ηλικιωμενο", "ηλικιωμενων"},
+    };
+
+    // Greek days as users write them with an article, besides the nominative in Day
+    private static final String[][] DAY_FORMS = {
+            {"δευτερασ"},
+            {"τριτησ"},
+            {"τεταρτησ"},
+            {"πεμπτησ"},
+            {"παρασκευησ"},
+            {"σαββατου"},
+            {"κυριακησ"},
+    };
+
+    private final Gazetteer<String> shows = new Gazetteer<>();
+    private final Gazetteer<String> rooms = new Gazetteer<>();
+    // The room each show plays in, looked up by show name
+    private final Gazetteer<String> roomsByShow = new Gazetteer<>();
+    private final Gazetteer<Day> days = new Gazetteer<>();
+    private final Gazetteer<AgeCategory> ages = new Gazetteer<>();
+
+    /**
+     * An extractor without a show catalog: show names and rooms are left to the server
+     */
+    public SlotExtractor() {
+        for (Day day : Day.values()) {
+            days.add(day.getLabel(), day);
+            days.add(day.getGreekName(), day);
+            for (String form : DAY_FORMS[day.ordinal()]) {
+                days.add(form, day);
+            }
+        }
+        for (AgeCategory age : AgeCategory.values()) {
+            ages.add(age.getLabel(), age);
+            for (String word : AGE_WORDS[age.ordinal()]) {
+                ages.add(word, age);
+            }
+        }
+    }
+
+    /**
+     * An extractor that also knows the catalog's show names and rooms
+     * @param catalog the shows, as in backend/shows/shows.json
+     */
+    public static SlotExtractor fromCatalog(JSONArray catalog) throws JSONException {
+        SlotExtractor extractor = new SlotExtractor();
+        for (int i = 0; i < catalog.length(); i++) {
+            JSONObject show = catalog.getJSONObject(i);
+            String name = show.optString("name");
+            String room = show.optString("room");
+            if (!name.isEmpty()) {
+                extractor.shows.add(name, name);
+                if (!room.isEmpty()) {
+                    extractor.roomsByShow.add(name, room);
+                }
+            }
+            if (!room.isEmpty()) {
+                extractor.rooms.add(room, room);
+            }
+        }
+        return extractor;
+    }
+
+    /**
+     * Fills what the message plainly contains into an empty template
+     * @return the number of top-level slots filled; 0 for templates without local extraction
+     */
+    public int extract(String message, MsgTemplate into) {
+        return into.extractFrom(this, message, normalize(message));
+    }
+
+    /**
+     * Lower case without Greek accents and with final sigma as σ, so that "Σάββατο", "σαββατο" and
+     * "ΣΑΒΒΑΤΟ" compare equal. The result has the same length as the text.
+     */
+    static String normalize(String text) {
+        char[] chars = new char[text.length()];
+        for (int i = 0; i < chars.length; i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            switch (c) {
+                case 'ά': c = 'α'; break;
+                case 'έ': c = 'ε'; break;
+                case 'ή': c = 'η'; break;
+                case 'ί': case 'ϊ': case 'ΐ': c = 'ι'; break;
+                case 'ό': c = 'ο'; break;
+                case 'ύ': case 'ϋ': case 'ΰ': c = 'υ'; break;
+                case 'ώ': c = 'ω'; break;
+                case 'ς': c = 'σ'; break;
+                default: break;
+            }
+            chars[i] = c;
+        }
+        return new String(chars);
+    }
+
+    // Finders used by the templates' extractFrom; "text" is the message and "normalized" its normalized form
+
+    String findShow(String normalized) {
+        return shows.findFirst(normalized);
+    }
+
+    int findShows(String normalized, List<String> into) {
+        return shows.findAll(normalized, into);
+    }
+
+    /**
+     * The room named in the message, or else the room of the show named in it
+     */
+    String findRoom(String normalized) {
+        String room = rooms.findFirst(normalized);
+        return room != null ? room : roomsByShow.findFirst(normalized);
+    }
+
+    Day findDay(String normalized) {
+        return days.findFirst(normalized);
+    }
+
+    int findDays(String normalized, List<Day> into) {
+        return days.findAll(normalized, into);
+    }
+
+    int findAges(String normalized, List<AgeCategory> into) {
+        return ages.findAll(normalized, into);
+    }
+
+    /**
+     * The first time of day, as HH:MM, or null
+     */
+    String findTime(String normalized) {
+        Matcher matcher = TIME_PATTERN.matcher(normalized);
+        if (!matcher.find()) {
+            return null;
+        }
+        String hour = matcher.group(1);
+        return (hour.length() == 1 ? "0" + hour : hour) + ":" + matcher.group(2);
+    }
+
+    /**
+     * The first seat code, upper case without spaces, or null
+     */
+    String findSeat(String text, String normalized) {
+        Matcher matcher = SEAT_PATTERN.matcher(normalized);
+        while (matcher.find()) {
+            // A bare letter and number is only taken as a seat when written in capitals, e.g. not "a 2"
+            boolean named = matcher.start() != matcher.start(1);
+            char row = text.charAt(matcher.start(1));
+            if (named || Character.isUpperCase(row)) {
+                return Character.toUpperCase(row) + matcher.group(2);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The reservation number as written in the message, or null
+     */
+    String findReservationNumber(String text, String normalized) {
+        Matcher matcher = RESERVATION_PATTERN.matcher(normalized);
+        if (!matcher.find()) {
+            return null;
+        }
+        int group = matcher.group(1) != null ? 1 : 2;
+        return text.substring(matcher.start(group), matcher.end(group)).toUpperCase();
+    }
+
+    /**
+     * The passcode as written in the message, or null; only taken when introduced as one
+     */
+    String findPasscode(String text, String normalized) {
+        Matcher matcher = PASSCODE_PATTERN.matcher(normalized);
+        return matcher.find() ? text.substring(matcher.start(1), matcher.end(1)) : null;
+    }
+
+    /**
+     * The star count given, 1 to 5, or 0
+     */
+    int findStars(String normalized) {
+        Matcher matcher = STARS_PATTERN.matcher(normalized);
+        while (matcher.find()) {
+            int stars = parseNumber(matcher.group(1));
+            if (stars >= 1 && stars <= 5) {
+                return stars;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * How many people or tickets the message asks for, or 0
+     */
+    int findGroupSize(String normalized) {
+        Matcher matcher = GROUP_SIZE_PATTERN.matcher(normalized);
+        return matcher.find() ? parseNumber(matcher.group(1)) : 0;
+    }
+
+    private static int parseNumber(String number) {
+        if (Character.isDigit(number.charAt(0))) {
+            return Integer.parseInt(number);
+        }
+        for (int i = 0; i < NUMBER_WORDS.length; i++) {
+            for (String word : NUMBER_WORDS[i]) {
+                if (word.equals(number)) {
+                    return i + 1;
+                }
+            }
+        }
+        return 0;
+    }
+}
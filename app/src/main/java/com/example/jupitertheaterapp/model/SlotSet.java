@@ -0,0 +1,127 @@
+package com.example.jupitertheaterapp.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A set of values from a closed vocabulary, such as {@link Day} or {@link AgeCategory}, stored as the
+ * bits of an int indexed by ordinal. A slot costs one small object instead of a list of strings, and
+ * comparing or intersecting slots, e.g. with the days the catalog has shows on, is a single bit operation.
+ * The enum may have at most 32 constants.
+ */
+public final class SlotSet<E extends Enum<E>> {
+    private final Class<E> type;
+    private int bits;
+
+    public SlotSet(Class<E> type) {
+        this(type, 0);
+    }
+
+    public SlotSet(Class<E> type, int bits) {
+        this.type = type;
+        this.bits = bits;
+    }
+
+    public static int bit(Enum<?> value) {
+        return 1 << value.ordinal();
+    }
+
+    public void add(E value) {
+        bits |= bit(value);
+    }
+
+    /**
+     * Adds the values whose bits are set, e.g. from {@link Day#bitsOf(String)}
+     */
+    public void addBits(int more) {
+        bits |= more;
+    }
+
+    /**
+     * Replaces the set's values with those whose bits are set
+     */
+    public void setBits(int bits) {
+        this.bits = bits;
+    }
+
+    public void clear() {
+        bits = 0;
+    }
+
+    public boolean contains(E value) {
+        return (bits & bit(value)) != 0;
+    }
+
+    public boolean isEmpty() {
+        return bits == 0;
+    }
+
+    public int size() {
+        return Integer.bitCount(bits);
+    }
+
+    public int getBits() {
+        return bits;
+    }
+
+    /**
+     * The values in both sets, e.g. the days a user may pick that also have performances
+     */
+    public SlotSet<E> intersect(SlotSet<E> other) {
+        return new SlotSet<>(type, bits & other.bits);
+    }
+
+    public boolean intersects(SlotSet<E> other) {
+        return (bits & other.bits) != 0;
+    }
+
+    public boolean containsAll(SlotSet<E> other) {
+        return (other.bits & ~bits) == 0;
+    }
+
+    /**
+     * The value with the lowest ordinal, or null if the set is empty
+     */
+    public E first() {
+        return bits == 0 ? null : type.getEnumConstants()[Integer.numberOfTrailingZeros(bits)];
+    }
+
+    /**
+     * The values in ordinal order
+     */
+    public List<E> toList() {
+        if (bits == 0) {
+            return Collections.emptyList();
+        }
+        List<E> values = new ArrayList<>(size());
+        for (E value : type.getEnumConstants()) {
+            if (contains(value)) {
+                values.add(value);
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SlotSet)) {
+            return false;
+        }
+        SlotSet<?> other = (SlotSet<?>) o;
+        return type == other.type && bits == other.bits;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * type.hashCode() + bits;
+    }
+
+    @Override
+    public String toString() {
+        return toList().toString();
+    }
+}
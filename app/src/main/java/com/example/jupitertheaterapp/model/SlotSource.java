@@ -0,0 +1,23 @@
+package com.example.jupitertheaterapp.model;
+
+/**
+ * Where a slot value accumulated in a {@link MsgTemplate} came from. Each source carries the
+ * confidence its values get: a later turn only overwrites a slot with a value at least as confident.
+ */
+public enum SlotSource {
+    // The LLM extraction is usually right but not certain, so an explicit confirmation could still override it
+    SERVER(0.9f),
+    // Pattern and gazetteer matches on the device are exact but blind to context, e.g. a time may be when
+    // the user is free rather than the show's, so the server's reading wins wherever both fill a slot
+    LOCAL(0.8f);
+
+    private final float confidence;
+
+    SlotSource(float confidence) {
+        this.confidence = confidence;
+    }
+
+    public float getConfidence() {
+        return confidence;
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.jupitertheaterapp.model;
+
+/**
+ * Whole-star ratings from 1 to 5, as used in "stars" slots
+ */
+public enum StarRating {
+    ONE(1), TWO(2), THREE(3), FOUR(4), FIVE(5);
+
+    private static final StarRating[] VALUES = values();
+
+    private final int value;
+
+    StarRating(int value) {
+        this.value = value;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    /**
+     * The rating with this number of stars, or null if it is out of range
+     */
+    public static StarRating fromValue(int value) {
+        return value >= 1 && value <= VALUES.length ? VALUES[value - 1] : null;
+    }
+
+    /**
+     * The {@link SlotSet} bits for a rating label: a number such as "4" or 4.6 (rounded),
+     * or a bound such as ">3", ">=4" or "<4" which stands for every rating it admits.
+     * Returns 0 for anything else.
+     */
+    public static int bitsOf(String label) {
+        if (label == null) {
+            return 0;
+        }
+        String trimmed = label.trim();
+        try {
+            if (trimmed.startsWith(">=")) {
+                return atLeast((int) Math.ceil(Double.parseDouble(trimmed.substring(2))));
+            }
+            if (trimmed.startsWith("<=")) {
+                return atMost((int) Math.floor(Double.parseDouble(trimmed.substring(2))));
+            }
+            if (trimmed.startsWith(">")) {
+                return atLeast((int) Math.floor(Double.parseDouble(trimmed.substring(1))) + 1);
+            }
+            if (trimmed.startsWith("<")) {
+                return atMost((int) Math.ceil(Double.parseDouble(trimmed.substring(1))) - 1);
+            }
+            StarRating rating = fromValue((int) Math.round(Double.parseDouble(trimmed)));
+            return rating == null ? 0 : SlotSet.bit(rating);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * The star counts in a set of ratings, lowest first
+     */
+    public static int[] valuesOf(SlotSet<StarRating> ratings) {
+        int[] values = new int[ratings.size()];
+        int i = 0;
+        for (StarRating rating : VALUES) {
+            if (ratings.contains(rating)) {
+                values[i++] = rating.value;
+            }
+        }
+        return values;
+    }
+
+    private static int atLeast(int min) {
+        int bits = 0;
+        for (StarRating rating : VALUES) {
+            if (rating.value >= min) {
+                bits |= SlotSet.bit(rating);
+            }
+        }
+        return bits;
+    }
+
+    private static int atMost(int max) {
+        int bits = 0;
+        for (StarRating rating : VALUES) {
+            if (rating.value <= max) {
+                bits |= SlotSet.bit(rating);
+            }
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.jupitertheaterapp.model;
+
+import android.util.Log;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Recycles the templates of one chat session. Every EXTRACT reply is decoded into a template that
+ * only lives until it has been merged into the session's slots, so instead of allocating a template
+ * and all of its lists per turn, replies are decoded into one obtained here and recycled once merged.
+ * Thread-safe: replies are decoded on I/O threads and merged on the main thread.
+ * <p>
+ * With leak tracking on, meant for debug builds, a template that is garbage collected without having
+ * been recycled is logged together with the stack trace of where it was obtained.
+ */
+public final class TemplatePool {
+    private static final String TAG = "TemplatePool";
+    private static final int MAX_IDLE_PER_CATEGORY = 4;
+
+    // Idle templates by TemplateRegistry index
+    private final ArrayDeque<?>[] idle = new ArrayDeque<?>[TemplateRegistry.SIZE];
+    private final boolean trackLeaks;
+    private final ReferenceQueue<MsgTemplate> collected = new ReferenceQueue<>();
+    private final Set<LeakTracker> inUse = new HashSet<>();
+
+    private long created;
+    private long reused;
+    private long leaks;
+
+    /**
+     * Remembers where a template was obtained until it is recycled.
+     * Queued by the garbage collector if the template is dropped first.
+     */
+    static final class LeakTracker extends WeakReference<MsgTemplate> {
+        final Throwable obtainedAt;
+
+        LeakTracker(MsgTemplate template, ReferenceQueue<MsgTemplate> queue, String categoryId) {
+            super(template, queue);
+            obtainedAt = new Throwable("MsgTemplate for " + categoryId + " obtained here");
+        }
+    }
+
+    public TemplatePool(boolean trackLeaks) {
+        this.trackLeaks = trackLeaks;
+    }
+
+    /**
+     * An empty template for the category, reused if one has been recycled
+     * @throws IllegalArgumentException if no template is registered for the category
+     */
+    public synchronized MsgTemplate obtain(String categoryId) {
+        reportLeaks();
+        int index = TemplateRegistry.indexOf(categoryId);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown template type: " + categoryId);
+        }
+        ArrayDeque<MsgTemplate> free = idleAt(index);
+        MsgTemplate template = free != null ? free.pollFirst() : null;
+        if (template == null) {
+            template = TemplateRegistry.create(index);
+            template.poolIndex = index;
+            created++;
+        } else {
+            template.pooled = false;
+            reused++;
+        }
+        if (trackLeaks) {
+            LeakTracker tracker = new LeakTracker(template, collected, categoryId);
+            inUse.add(tracker);
+            template.leakTracker = tracker;
+        }
+        return template;
+    }
+
+    /**
+     * Resets the template and keeps it for the next {@link #obtain(String)}. The caller must not use
+     * it afterwards. Null and templates that did not come from a pool are ignored.
+     * @throws IllegalStateException if the template has already been recycled
+     */
+    public synchronized void recycle(MsgTemplate template) {
+        if (template == null || template.poolIndex < 0) {
+            return;
+        }
+        if (template.pooled) {
+            throw new IllegalStateException("MsgTemplate for " + TemplateRegistry.idAt(template.poolIndex)
+                    + " recycled twice");
+        }
+        untrack(template);
+        template.reset();
+        template.pooled = true;
+        ArrayDeque<MsgTemplate> free = idleAt(template.poolIndex);
+        if (free == null) {
+            free = new ArrayDeque<>();
+            idle[template.poolIndex] = free;
+        }
+        if (free.size() < MAX_IDLE_PER_CATEGORY) {
+            free.addFirst(template);
+        }
+    }
+
+    /**
+     * Stops tracking a template handed to code outside the session, which keeps it instead of recycling it
+     */
+    public synchronized void forget(MsgTemplate template) {
+        if (template != null) {
+            untrack(template);
+        }
+    }
+
+    /**
+     * Drops the idle templates and reports any still in use, which the session should have recycled
+     */
+    public synchronized void close() {
+        reportLeaks();
+        if (trackLeaks && !inUse.isEmpty()) {
+            Log.w(TAG, inUse.size() + " template(s) still in use when the session closed");
+        }
+        Arrays.fill(idle, null);
+        Log.d(TAG, "Closing: " + created + " created, " + reused + " reused, " + leaks + " leaked");
+    }
+
+    public synchronized long getCreatedCount() {
+        return created;
+    }
+
+    public synchronized long getReusedCount() {
+        return reused;
+    }
+
+    /**
+     * How many templates were garbage collected without being recycled; only counted with leak tracking on
+     */
+    public synchronized long getLeakCount() {
+        reportLeaks();
+        return leaks;
+    }
+
+    @SuppressWarnings("unchecked")
+    private ArrayDeque<MsgTemplate> idleAt(int index) {
+        return (ArrayDeque<MsgTemplate>) idle[index];
+    }
+
+    private void untrack(MsgTemplate template) {
+        LeakTracker tracker = template.leakTracker;
+        if (tracker != null) {
+            // A cleared reference is never queued, so a recycled template is not reported
+            tracker.clear();
+            inUse.remove(tracker);
+            template.leakTracker = null;
+        }
+    }
+
+    private void reportLeaks() {
+        LeakTracker tracker;
+        while ((tracker = (LeakTracker) collected.poll()) != null) {
+            if (inUse.remove(tracker)) {
+                leaks++;
+                Log.w(TAG, "MsgTemplate was garbage collected without being recycled", tracker.obtainedAt);
+            }
+        }
+    }
+}
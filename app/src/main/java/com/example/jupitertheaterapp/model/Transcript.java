@@ -0,0 +1,281 @@
+package com.example.jupitertheaterapp.model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * The turns of one chat session, packed into a few arrays instead of one object per turn. A bot turn
+ * that shows a node's message or fallback only stores a reference to the node, since every session
+ * repeats the same few prompts. Every other turn's text is stored once as UTF-8 in a shared pool,
+ * so repeated answers like "ναι" cost nothing after the first time.
+ * <p>
+ * Text is only rendered when a row is read, i.e. for the rows on screen. Nodes are kept by reference,
+ * so turns shown before a tree reload still read as they did. Main thread only.
+ */
+public final class Transcript {
+    private static final int INITIAL_CAPACITY = 32;
+
+    // How a turn's ref is read, in its low two bits
+    private static final int REF_TEXT = 0;
+    private static final int REF_NODE_MESSAGE = 1;
+    private static final int REF_NODE_FALLBACK = 2;
+    private static final int REF_BITS = 2;
+    private static final int REF_KIND_MASK = (1 << REF_BITS) - 1;
+
+    // Per turn: the ChatMessage type, and the index of its text or node shifted left by REF_BITS plus the kind
+    private byte[] types = new byte[INITIAL_CAPACITY];
+    private int[] refs = new int[INITIAL_CAPACITY];
+    private int size;
+
+    // The nodes bot turns refer to, each once
+    private ChatbotNode[] nodes = new ChatbotNode[8];
+    private final Map<ChatbotNode, Integer> nodeIndex = new IdentityHashMap<>();
+
+    // Distinct texts as UTF-8, back to back in one pool
+    private byte[] pool = new byte[1024];
+    private int poolSize;
+    private int[] textStarts = new int[INITIAL_CAPACITY];
+    private int[] textHashes = new int[INITIAL_CAPACITY];
+    private int textCount;
+    // Open-addressing table of text index + 1 by hash, 0 where empty; at most half full
+    private int[] textTable = new int[2 * INITIAL_CAPACITY];
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes every turn, keeping the arrays for reuse
+     */
+    public void clear() {
+        size = 0;
+        Arrays.fill(nodes, 0, nodeIndex.size(), null);
+        nodeIndex.clear();
+        poolSize = 0;
+        textCount = 0;
+        Arrays.fill(textTable, 0);
+    }
+
+    public void addUser(String text) {
+        add(ChatMessage.TYPE_USER, internText(text.getBytes(StandardCharsets.UTF_8)) << REF_BITS | REF_TEXT);
+    }
+
+    /**
+     * Adds a bot or server turn. If the text is the node's message or fallback only the node is kept.
+     * @param node the node the conversation is at after this turn, or null
+     */
+    public void addBot(int type, String text, ChatbotNode node) {
+        if (node != null && text.equals(node.getMessage())) {
+            add(type, indexOf(node) << REF_BITS | REF_NODE_MESSAGE);
+        } else if (node != null && text.equals(node.getFallback())) {
+            add(type, indexOf(node) << REF_BITS | REF_NODE_FALLBACK);
+        } else {
+            add(type, internText(text.getBytes(StandardCharsets.UTF_8)) << REF_BITS | REF_TEXT);
+        }
+    }
+
+    /**
+     * One of the ChatMessage TYPE_ constants
+     */
+    public int getType(int position) {
+        checkPosition(position);
+        return types[position];
+    }
+
+    /**
+     * Renders the turn's text; nothing is cached, so only call it for rows being shown
+     */
+    public String getText(int position) {
+        checkPosition(position);
+        int ref = refs[position];
+        int index = ref >>> REF_BITS;
+        switch (ref & REF_KIND_MASK) {
+            case REF_NODE_MESSAGE:
+                return nodes[index].getMessage();
+            case REF_NODE_FALLBACK:
+                return nodes[index].getFallback();
+            default:
+                return new String(pool, textStarts[index], textEnd(index) - textStarts[index],
+                        StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * The ID of the node a bot turn showed, or null for turns stored as text
+     */
+    public String getNodeId(int position) {
+        checkPosition(position);
+        int ref = refs[position];
+        return (ref & REF_KIND_MASK) == REF_TEXT ? null : nodes[ref >>> REF_BITS].getId();
+    }
+
+    /**
+     * Writes one turn for a session snapshot: its type, then the ID of the node it showed or its
+     * UTF-8 text, copied straight from the pool
+     */
+    public void writeTurn(int position, DataOutput out) throws IOException {
+        checkPosition(position);
+        int ref = refs[position];
+        int kind = ref & REF_KIND_MASK;
+        int index = ref >>> REF_BITS;
+        out.writeByte(types[position]);
+        out.writeByte(kind);
+        if (kind == REF_TEXT) {
+            int start = textStarts[index];
+            int length = textEnd(index) - start;
+            out.writeInt(length);
+            out.write(pool, start, length);
+        } else {
+            out.writeUTF(nodes[index].getId());
+        }
+    }
+
+    /**
+     * Appends a turn written by {@link #writeTurn(int, DataOutput)}
+     * @param findNode looks a node up by ID in the tree now in use
+     * @return false if the turn showed a node that tree no longer has, in which case it is skipped
+     * @throws IOException if the data is cut short or malformed
+     */
+    public boolean readTurn(DataInput in, Function<String, ChatbotNode> findNode) throws IOException {
+        int type = in.readByte();
+        int kind = in.readByte();
+        if (kind == REF_TEXT) {
+            int length = in.readInt();
+            if (length < 0) {
+                throw new IOException("Negative text length " + length);
+            }
+            byte[] utf8 = new byte[length];
+            in.readFully(utf8);
+            add(type, internText(utf8) << REF_BITS | REF_TEXT);
+            return true;
+        }
+        if (kind != REF_NODE_MESSAGE && kind != REF_NODE_FALLBACK) {
+            throw new IOException("Unknown turn kind " + kind);
+        }
+        ChatbotNode node = findNode.apply(in.readUTF());
+        if (node == null) {
+            return false;
+        }
+        add(type, indexOf(node) << REF_BITS | kind);
+        return true;
+    }
+
+    /**
+     * Roughly how many bytes the transcript's arrays take, for comparing against one object per turn
+     */
+    public long getFootprintBytes() {
+        return types.length + 4L * refs.length + 4L * nodes.length + pool.length
+                + 4L * (textStarts.length + textHashes.length + textTable.length);
+    }
+
+    private void add(int type, int ref) {
+        if (size == types.length) {
+            types = Arrays.copyOf(types, size * 2);
+            refs = Arrays.copyOf(refs, size * 2);
+        }
+        types[size] = (byte) type;
+        refs[size] = ref;
+        size++;
+    }
+
+    private int indexOf(ChatbotNode node) {
+        Integer index = nodeIndex.get(node);
+        if (index == null) {
+            index = nodeIndex.size();
+            if (index == nodes.length) {
+                nodes = Arrays.copyOf(nodes, index * 2);
+            }
+            nodes[index] = node;
+            nodeIndex.put(node, index);
+        }
+        return index;
+    }
+
+    /**
+     * The index of the text in the pool, adding it if it is not there yet
+     */
+    private int internText(byte[] utf8) {
+        int hash = hash(utf8);
+        int mask = textTable.length - 1;
+        int slot = mix(hash) & mask;
+        while (textTable[slot] != 0) {
+            int index = textTable[slot] - 1;
+            if (textHashes[index] == hash && equalsPooled(index, utf8)) {
+                return index;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (poolSize + utf8.length > pool.length) {
+            pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolSize + utf8.length));
+        }
+        System.arraycopy(utf8, 0, pool, poolSize, utf8.length);
+        if (textCount == textStarts.length) {
+            textStarts = Arrays.copyOf(textStarts, textCount * 2);
+            textHashes = Arrays.copyOf(textHashes, textCount * 2);
+        }
+        int index = textCount++;
+        textStarts[index] = poolSize;
+        textHashes[index] = hash;
+        poolSize += utf8.length;
+        textTable[slot] = index + 1;
+        if (2 * textCount > textTable.length) {
+            rehash();
+        }
+        return index;
+    }
+
+    private boolean equalsPooled(int index, byte[] utf8) {
+        int start = textStarts[index];
+        if (textEnd(index) - start != utf8.length) {
+            return false;
+        }
+        for (int i = 0; i < utf8.length; i++) {
+            if (pool[start + i] != utf8[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int textEnd(int index) {
+        return index + 1 < textCount ? textStarts[index + 1] : poolSize;
+    }
+
+    private void rehash() {
+        textTable = new int[textTable.length * 2];
+        int mask = textTable.length - 1;
+        for (int index = 0; index < textCount; index++) {
+            int slot = mix(textHashes[index]) & mask;
+            while (textTable[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            textTable[slot] = index + 1;
+        }
+    }
+
+    private static int hash(byte[] utf8) {
+        int hash = 0;
+        for (byte b : utf8) {
+            hash = 31 * hash + b;
+        }
+        return hash;
+    }
+
+    private static int mix(int hash) {
+        // Hashes of short texts cluster in the low bits
+        return hash ^ (hash >>> 16);
+    }
+
+    private void checkPosition(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Turn " + position + " of " + size);
+        }
+    }
+}
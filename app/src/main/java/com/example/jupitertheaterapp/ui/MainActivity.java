@@ -15,21 +15,16 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.jupitertheaterapp.R;
-import com.example.jupitertheaterapp.core.ChatbotManager;
-import com.example.jupitertheaterapp.model.ChatMessage;
+import com.example.jupitertheaterapp.core.ChatSession;
 import com.example.jupitertheaterapp.ui.adapter.ChatAdapter;
-import com.example.jupitertheaterapp.util.Client;
 
-import java.util.ArrayList;
-
-public class MainActivity extends AppCompatActivity {
-    private ChatbotManager chatbotManager;
+public class MainActivity extends AppCompatActivity implements ChatSession.Listener {
+    private ChatSession chatSession;
     private RecyclerView messagesRecyclerView;
     private EditText userInputEditText;
     private Button sendButton;
     private ChatAdapter chatAdapter;
     private LinearLayout inputLayout;
-    private Client client;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -43,57 +38,28 @@ public class MainActivity extends AppCompatActivity {
         sendButton = findViewById(R.id.sendButton);
         inputLayout = findViewById(R.id.inputLayout);
 
-        // Set up RecyclerView
+        // The tree, the connection and the transcript outlive this Activity;
+        // on recreation we simply reattach to them
+        chatSession = ChatSession.obtain(this);
+
+        // Set up RecyclerView backed by the session transcript
         messagesRecyclerView.setLayoutManager(new LinearLayoutManager(this));
-        chatAdapter = new ChatAdapter(new ArrayList<>());
+        chatAdapter = new ChatAdapter(chatSession.getTranscript());
         messagesRecyclerView.setAdapter(chatAdapter);
-
-        chatbotManager = new ChatbotManager(this); // Pass context to constructor
-
-        // Initialize client with chatbotManager
-        client = new Client(chatbotManager);
-
-        // Display initial message
-        addMessage(chatbotManager.getInitialMessage(), ChatMessage.TYPE_BOT);
+        if (chatAdapter.getItemCount() > 0) {
+            messagesRecyclerView.scrollToPosition(chatAdapter.getItemCount() - 1);
+        }
+        chatSession.attach(this);
 
         // Set up send button click listener
         sendButton.setOnClickListener(v -> {
             String userMessage = userInputEditText.getText().toString().trim();
             if (!userMessage.isEmpty()) {
-                // Display user message
-                addMessage(userMessage, ChatMessage.TYPE_USER);
-
                 // Clear input field
                 userInputEditText.setText("");
 
-                if (chatbotManager.shouldUseServer()) {
-                    // Get response from server
-                    client.sendMessage(userMessage, new Client.ServerResponseCallback() {
-                        @Override
-                        public void onServerResponse(String nodeId) {
-                            // Get the full response for the node ID
-                            try {
-                                String response = chatbotManager.getResponseForNodeId(nodeId);
-                                addMessage(response, ChatMessage.TYPE_SERVER);
-                            } catch (Exception e) {
-                                String fallbackResponse = chatbotManager.getLocalResponse(userMessage);
-                                addMessage(fallbackResponse, ChatMessage.TYPE_BOT);
-                            }
-                        }
-
-                        @Override
-                        public void onError(String errorMessage) {
-                            Toast.makeText(MainActivity.this, errorMessage, Toast.LENGTH_SHORT).show();
-                            // Fallback to local response
-                            String fallbackResponse = chatbotManager.getLocalResponse(userMessage);
-                            addMessage(fallbackResponse, ChatMessage.TYPE_BOT);
-                        }
-                    });
-                } else {
-                    // Get local response
-                    String response = chatbotManager.getLocalResponse(userMessage);
-                    addMessage(response, ChatMessage.TYPE_BOT);
-                }
+                // The session displays the message and answers it once startup has completed
+                chatSession.submitUserMessage(userMessage);
             }
         });
 
@@ -114,17 +80,35 @@ public class MainActivity extends AppCompatActivity {
         });
 
         // For testing, enable server responses (remove this line to use local responses)
-        // chatbotManager.setUseServerForResponses(true);
+        // chatSession.getChatbotManager().setUseServerForResponses(true);
     }
 
-    private void addMessage(String message, int type) {
-        chatAdapter.addMessage(new ChatMessage(message, type));
-        messagesRecyclerView.smoothScrollToPosition(chatAdapter.getItemCount() - 1);
+    @Override
+    public void onMessageAdded(int position) {
+        chatAdapter.notifyItemInserted(position);
+        messagesRecyclerView.smoothScrollToPosition(position);
+    }
+
+    @Override
+    public void onTranscriptChanged() {
+        chatAdapter.notifyDataSetChanged();
+        if (chatAdapter.getItemCount() > 0) {
+            messagesRecyclerView.scrollToPosition(chatAdapter.getItemCount() - 1);
+        }
+    }
+
+    @Override
+    public void onError(String errorMessage) {
+        Toast.makeText(this, errorMessage, Toast.LENGTH_SHORT).show();
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        // Client class doesn't have shutdown method, so removed the call
+        chatSession.detach(this);
+        // Keep the session across rotation; only a real exit closes the connection
+        if (isFinishing() && !isChangingConfigurations()) {
+            ChatSession.release();
+        }
     }
-}
\ No newline at end of file
+}
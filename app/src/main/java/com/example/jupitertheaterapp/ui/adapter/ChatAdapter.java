@@ -12,22 +12,20 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.jupitertheaterapp.R;
 import com.example.jupitertheaterapp.model.ChatMessage;
-
-import java.util.List;
+import com.example.jupitertheaterapp.model.Transcript;
 
 public class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.MessageViewHolder> {
 
-    private List<ChatMessage> messages;
+    private Transcript transcript;
 
-    public ChatAdapter(List<ChatMessage> messages) {
-        this.messages = messages;
+    public ChatAdapter(Transcript transcript) {
+        this.transcript = transcript;
     }
 
     @Override
     public int getItemViewType(int position) {
-        ChatMessage message = messages.get(position);
         // Both bot and server messages use the same layout (left bubble)
-        return message.getType() == ChatMessage.TYPE_USER ? ChatMessage.TYPE_USER : ChatMessage.TYPE_BOT;
+        return transcript.getType(position) == ChatMessage.TYPE_USER ? ChatMessage.TYPE_USER : ChatMessage.TYPE_BOT;
     }
 
     @NonNull
@@ -46,25 +44,20 @@ public class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.MessageViewHol
 
     @Override
     public void onBindViewHolder(@NonNull MessageViewHolder holder, int position) {
-        ChatMessage message = messages.get(position);
-        holder.messageTextView.setText(message.getMessage());
+        // Text is rendered here, so only for the rows on screen
+        holder.messageTextView.setText(transcript.getText(position));
 
         // Apply animation
         Animation animation = AnimationUtils.loadAnimation(
                 holder.itemView.getContext(),
-                message.getType() == ChatMessage.TYPE_USER ?
+                transcript.getType(position) == ChatMessage.TYPE_USER ?
                         R.anim.slide_in_right : R.anim.slide_in_left);
         holder.itemView.startAnimation(animation);
     }
 
     @Override
     public int getItemCount() {
-        return messages.size();
-    }
-
-    public void addMessage(ChatMessage message) {
-        messages.add(message);
-        notifyItemInserted(messages.size() - 1);
+        return transcript.size();
     }
 
     static class MessageViewHolder extends RecyclerView.ViewHolder {
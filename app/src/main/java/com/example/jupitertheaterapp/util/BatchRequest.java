@@ -0,0 +1,36 @@
+package com.example.jupitertheaterapp.util;
+
+/**
+ * One CATEGORISE or EXTRACT request to be sent inside a BATCH envelope with {@link Client#sendBatch}
+ */
+public class BatchRequest {
+    private final String type;
+    private final String category;
+    private final String message;
+
+    private BatchRequest(String type, String category, String message) {
+        this.type = type;
+        this.category = category;
+        this.message = message;
+    }
+
+    public static BatchRequest categorise(String message) {
+        return new BatchRequest("CATEGORISE", "", message);
+    }
+
+    public static BatchRequest extract(String category, String message) {
+        return new BatchRequest("EXTRACT", category, message);
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.jupitertheaterapp.util;
+
+import com.example.jupitertheaterapp.model.MsgTemplate;
+
+/**
+ * The server's answer to one request of a batch: a category with optional extracted details, or an error
+ */
+public class BatchResult {
+    private final String category;
+    private final MsgTemplate template;
+    private final String error;
+
+    BatchResult(String category, MsgTemplate template, String error) {
+        this.category = category;
+        this.template = template;
+        this.error = error;
+    }
+
+    static BatchResult fromReply(ServerReply reply) {
+        String error = reply.malformed != null ? reply.malformed : reply.error;
+        if (error == null && reply.category == null) {
+            error = "Server response missing 'category' field";
+        }
+        return new BatchResult(reply.category, reply.template, error);
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    /**
+     * The extracted slots for EXTRACT requests, already decoded into the category's template, or null
+     */
+    public MsgTemplate getTemplate() {
+        return template;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
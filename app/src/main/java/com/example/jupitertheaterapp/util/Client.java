@@ -8,45 +8,175 @@ package com.example.jupitertheaterapp.util;
      import com.example.jupitertheaterapp.model.ChatbotNode;
 
      import org.json.JSONException;
-     import org.json.JSONObject;
 
-     import java.io.BufferedReader;
+     import java.io.File;
      import java.io.IOException;
-     import java.io.InputStreamReader;
-     import java.io.OutputStreamWriter;
-     import java.io.PrintWriter;
-     import java.net.Socket;
-     import java.nio.charset.StandardCharsets;
+     import java.util.ArrayList;
+     import java.util.Collections;
+     import java.util.HashSet;
+     import java.util.List;
+     import java.util.Map;
+     import java.util.Random;
+     import java.util.Set;
+     import java.util.UUID;
+     import java.util.concurrent.CompletableFuture;
+     import java.util.concurrent.CompletionException;
+     import java.util.concurrent.ConcurrentHashMap;
+     import java.util.concurrent.ExecutorService;
+     import java.util.concurrent.Executors;
+     import java.util.concurrent.RejectedExecutionException;
+     import java.util.concurrent.ScheduledThreadPoolExecutor;
+     import java.util.concurrent.TimeUnit;
      import java.util.concurrent.atomic.AtomicBoolean;
+     import java.util.concurrent.atomic.AtomicLong;
 
      public class Client {
          private static final String TAG = "Client";
-         private String serverHost = "192.168.1.18";  // Default from server logs
-         private int serverPort = 65432;  // Default port
+         private static final String DEFAULT_ENDPOINT = "192.168.1.18:65432";  // Default from server logs
+         private static final int WARM_CONNECTIONS = 2;  // Endpoints kept connected at any time
+         private static final int MAX_ATTEMPTS = 3;  // Endpoints tried per request before giving up
+         private static final double HEDGE_PERCENTILE = 95;
+         private static final int HEDGE_MIN_SAMPLES = 20;  // Below this the p95 is mostly noise
+         private static final long HEDGE_MIN_DELAY_MS = 50;
+         private static final String BATCH_TYPE = "BATCH";
+         private static final long DEFAULT_DEAD_LINK_TIMEOUT_MS = 9000;
+         private static final long RECONNECT_INTERVAL_MS = 3000;
+         private static final int MIN_PING_TIMEOUT_MS = 250;
+         private static final int TREE_TIMEOUT_RTOS = 4;  // A tree reply may take this many RTOs before the link counts as dead
+         private static final int MIN_REQUEST_TIMEOUT_MS = 5000;  // LLM calls vary a lot even when healthy
+         private static final long PREFETCH_QUIET_MS = 1000;  // Quieter links are checked before a predicted turn
+         private static final String EXIT_MESSAGE = "exit";  // The server rejects empty messages
+         private static final long EXIT_TIMEOUT_MS = 2000;  // How long a closing session waits for the exit's reply
          private ChatbotManager chatbotManager;
          private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
-         // Socket connection components
-         private Socket socket;
-         private PrintWriter out;
-         private BufferedReader in;
+         // Backend endpoints, each with its own warm connection
+         private volatile List<Endpoint> endpoints =
+                 Collections.singletonList(Endpoint.parse(DEFAULT_ENDPOINT));
          private Thread connectionThread;
          private final AtomicBoolean isRunning = new AtomicBoolean(false);
-         private final AtomicBoolean isConnected = new AtomicBoolean(false);
+         // Completes with the outcome of the first connection attempt
+         private final CompletableFuture<Boolean> firstAttempt = new CompletableFuture<>();
 
+         // Heartbeats: a quiet connection is pinged so a dead link is found before a user request needs it
+         private volatile long deadLinkTimeoutMs = DEFAULT_DEAD_LINK_TIMEOUT_MS;
+         private final AtomicLong pingSequence = new AtomicLong();
+         // A tree version the server offered that failed validation; not fetched again
+         private final AtomicLong rejectedTreeVersion = new AtomicLong(-1);
+
+         // Tracing: every request carries "<client prefix>-<sequence>" as its trace ID
+         private final String tracePrefix = Long.toHexString(new Random().nextLong() & 0xFFFFFFFFL);
+         private final AtomicLong traceSequence = new AtomicLong();
+         private final TraceRecorder traceRecorder = new TraceRecorder();
+         // Request and reply frames for backend/Replayer.java; null unless recording
+         private volatile TrafficRecorder trafficRecorder;
+
+         // Request legs run on pooled threads; hedges are scheduled at the observed p95 per type
+         private final ExecutorService requestExecutor = Executors.newCachedThreadPool();
+         private final ScheduledThreadPoolExecutor hedgeScheduler = new ScheduledThreadPoolExecutor(1);
+         private final Map<String, LatencyTracker> latencyByType = new ConcurrentHashMap<>();
+         private final AtomicLong hedgesSent = new AtomicLong();
+         private final AtomicLong hedgeWins = new AtomicLong();
+         // EXTRACTs answered entirely by the on-device slot extractor
+         private final AtomicLong localAnswers = new AtomicLong();
+
+         // Requests made while offline; flushed in one write once an endpoint is connected again
+         private final OutboundQueue outboundQueue = new OutboundQueue();
+         private final AtomicBoolean flushing = new AtomicBoolean(false);
+
+         // Requests wait in priority lanes for a free connection, so extractions cannot block categorizations
+         private final RequestScheduler requestScheduler = new RequestScheduler(this::connectedEndpointCount);
+
+         /**
+          * Creates the client without touching the network.
+          * Call {@link #connectAsync()} to start the persistent connection.
+          */
          public Client(ChatbotManager chatbotManager) {
              this.chatbotManager = chatbotManager;
-             // Start the persistent connection
-             connect();
+             // Let the scheduler thread die when idle so a released client leaves nothing behind
+             hedgeScheduler.setKeepAliveTime(10, TimeUnit.SECONDS);
+             hedgeScheduler.allowCoreThreadTimeOut(true);
+         }
+
+         /**
+          * Replaces the endpoint list, typically with the contents of server_config.txt.
+          * Must be called before {@link #connectAsync()}; an empty list keeps the default endpoint.
+          */
+         public void setEndpoints(List<Endpoint> newEndpoints) {
+             if (newEndpoints.isEmpty()) {
+                 Log.w(TAG, "No endpoints configured, using " + DEFAULT_ENDPOINT);
+                 return;
+             }
+             endpoints = Collections.unmodifiableList(new ArrayList<>(newEndpoints));
+         }
+
+         public List<Endpoint> getEndpoints() {
+             return endpoints;
+         }
+
+         /**
+          * Sets how long a connection may be dead before the client notices and replaces it.
+          * A third of it is spent waiting for the link to go quiet, a third for the next heartbeat
+          * pass and at most a third for the pong.
+          */
+         public void setDeadLinkTimeoutMs(long timeoutMs) {
+             if (timeoutMs < 3L * MIN_PING_TIMEOUT_MS) {
+                 throw new IllegalArgumentException("Dead link timeout too small: " + timeoutMs + " ms");
+             }
+             deadLinkTimeoutMs = timeoutMs;
+             wakeConnectionThread();
+         }
+
+         public long getDeadLinkTimeoutMs() {
+             return deadLinkTimeoutMs;
+         }
+
+         /**
+          * Receives the results of {@link #sendBatch} on the main thread
+          */
+         public interface BatchCallback {
+             /**
+              * @param results one per request, in request order; individual requests may have failed
+              */
+             void onBatchResponse(List<BatchResult> results);
+             void onError(String errorMessage);
          }
 
          public interface ServerResponseCallback {
-             void onServerResponse(String nodeId);
+             void onServerResponse(ServerResponse response);
              void onError(String errorMessage);
+
+             /**
+              * The server is unreachable and the request was queued; the answer follows on reconnect
+              */
+             default void onQueued() {
+             }
          }
 
          /**
-          * Establishes a persistent connection to the server
+          * Starts persisting the offline queue to the given file.
+          * Call once before connecting, off the main thread.
+          * @return requests a previous process queued but never got answers to, oldest first
+          */
+         public List<OutboundQueue.Leftover> openOutboundQueue(File spillFile) {
+             return outboundQueue.open(spillFile);
+         }
+
+         public int getQueuedRequestCount() {
+             return outboundQueue.size();
+         }
+
+         /**
+          * Starts the persistent connection in the background
+          * @return a future that completes with whether the first connection attempt succeeded
+          */
+         public CompletableFuture<Boolean> connectAsync() {
+             connect();
+             return firstAttempt;
+         }
+
+         /**
+          * Establishes persistent connections to the configured endpoints
           */
          public synchronized void connect() {
              if (isRunning.get()) {
@@ -57,28 +187,17 @@ package com.example.jupitertheaterapp.util;
              isRunning.set(true);
              connectionThread = new Thread(() -> {
                  while (isRunning.get()) {
+                     maintainConnections();
+                     firstAttempt.complete(isConnected());
+                     // New connections make room for requests waiting in their lanes
+                     requestScheduler.dispatch();
+                     sendHeartbeats();
+                     if (isConnected() && !outboundQueue.isEmpty()) {
+                         requestExecutor.execute(this::flushOutboundQueue);
+                     }
                      try {
-                         if (!isConnected.get()) {
-                             Log.d(TAG, "Attempting to connect to " + serverHost + ":" + serverPort);
-                             socket = new Socket(serverHost, serverPort);
-                             out = new PrintWriter(new OutputStreamWriter(
-                                     socket.getOutputStream(), StandardCharsets.UTF_8), true);
-                             in = new BufferedReader(new InputStreamReader(
-                                     socket.getInputStream(), StandardCharsets.UTF_8));
-                             isConnected.set(true);
-                             Log.d(TAG, "Connected to server successfully");
-                         }
-                         // Sleep to avoid tight loop
-                         Thread.sleep(5000);
-                     } catch (IOException e) {
-                         Log.e(TAG, "Connection error", e);
-                         closeConnection();
-                         // Wait before trying to reconnect
-                         try {
-                             Thread.sleep(3000);
-                         } catch (InterruptedException ie) {
-                             Log.d(TAG, "Connection sleep interrupted", ie);
-                         }
+                         // Wake up once per heartbeat interval while connected
+                         Thread.sleep(isConnected() ? heartbeatIntervalMs() : RECONNECT_INTERVAL_MS);
                      } catch (InterruptedException e) {
                          Log.d(TAG, "Connection thread interrupted", e);
                      }
@@ -88,53 +207,307 @@ package com.example.jupitertheaterapp.util;
          }
 
          /**
-          * Sends a message to the server based on the current node's type
+          * Keeps up to WARM_CONNECTIONS endpoints connected, preferring the healthiest and fastest.
+          * Endpoints that failed recently are skipped until their backoff expires.
           */
-         public void sendMessage(String userMessage, ServerResponseCallback callback) {
+         private void maintainConnections() {
+             List<Endpoint> ranked = rankEndpoints();
+             int warm = 0;
+             for (Endpoint endpoint : ranked) {
+                 if (endpoint.isConnected()) {
+                     warm++;
+                 }
+             }
+
+             long now = System.currentTimeMillis();
+             for (Endpoint endpoint : ranked) {
+                 if (warm >= WARM_CONNECTIONS || !isRunning.get()) {
+                     break;
+                 }
+                 if (!endpoint.isDueForRetry(now) || !endpoint.tryLock()) {
+                     continue;
+                 }
+                 try {
+                     endpoint.open();
+                     warm++;
+                 } catch (IOException e) {
+                     Log.e(TAG, "Connection error for " + endpoint, e);
+                     endpoint.markFailed();
+                 } finally {
+                     endpoint.unlock();
+                 }
+             }
+         }
+
+         private long heartbeatIntervalMs() {
+             return deadLinkTimeoutMs / 3;
+         }
+
+         /**
+          * Pings every connected endpoint that has been quiet for a heartbeat interval.
+          * The pings run in parallel so one slow link does not delay detection on another.
+          */
+         private void sendHeartbeats() {
+             long now = System.currentTimeMillis();
+             long interval = heartbeatIntervalMs();
+             for (Endpoint endpoint : endpoints) {
+                 if (endpoint.isConnected() && !endpoint.isBusy() && endpoint.isQuietFor(interval, now)) {
+                     requestExecutor.execute(() -> heartbeat(endpoint, interval));
+                 }
+             }
+         }
+
+         /**
+          * Sends one PING and waits for the matching PONG. No reply within the ping timeout means
+          * the link is dead or half-open, so the connection is dropped and replaced right away.
+          */
+         private void heartbeat(Endpoint endpoint, long quietMs) {
+             if (!endpoint.tryLock()) {
+                 // A request is in flight and will find out for itself
+                 return;
+             }
              try {
-                 // Get current node from ChatbotManager and convert to JSONObject
-                 ChatbotNode node = chatbotManager.getCurrentNode();
-                 JSONObject currentNode = nodeToJson(node);
-
-                 if (currentNode != null && currentNode.has("type")) {
-                     String type = currentNode.getString("type");
-
-                     if ("CATEGORISE".equals(type)) {
-                         // If at root, we want to categorize the message
-                         categorizeMessage(userMessage, callback);
-                     } else if ("EXTRACT".equals(type)) {
-                         // For EXTRACT nodes, we need the parent node's ID as category
-                         String parentId = getParentNodeId(currentNode);
-                         extractFromMessage(parentId, userMessage, callback);
-                     } else {
-                         // Default to categorize
-                         categorizeMessage(userMessage, callback);
-                     }
-                 } else {
-                     // Default to categorize if node doesn't have type
-                     categorizeMessage(userMessage, callback);
+                 if (!endpoint.isConnected() || !endpoint.isQuietFor(quietMs, System.currentTimeMillis())) {
+                     return;
+                 }
+                 long seq = pingSequence.incrementAndGet();
+                 long start = System.nanoTime();
+                 endpoint.send(encoder -> encoder.ping(seq));
+                 ServerReply reply = ServerReply.decode(endpoint.receive(pingTimeoutMs(endpoint)));
+                 if (!"PONG".equals(reply.type) || reply.seq != seq) {
+                     throw new IOException("Unexpected heartbeat reply: " + reply.type + " " + reply.seq);
+                 }
+                 endpoint.recordHeartbeatRtt(toMillis(System.nanoTime() - start));
+                 if (reply.treeVersion > chatbotManager.getTreeVersion()
+                         && reply.treeVersion != rejectedTreeVersion.get()) {
+                     fetchTree(endpoint, reply.treeVersion);
                  }
-             } catch (JSONException e) {
-                 Log.e(TAG, "Error reading node type", e);
-                 mainHandler.post(() -> callback.onError("Error processing message: " + e.getMessage()));
+             } catch (IOException e) {
+                 Log.w(TAG, "Heartbeat to " + endpoint + " failed, dropping the connection", e);
+                 endpoint.markFailed();
+                 wakeConnectionThread();
+             } finally {
+                 endpoint.unlock();
              }
          }
 
          /**
-          * Converts a ChatbotNode to a JSONObject
+          * Readies the connection the predicted node's request will go out on, for
+          * {@link ChatbotManager.Prefetcher}. The reply itself depends on what the user types, so
+          * what can be fetched ahead is a verified link: the endpoint the request would pick is
+          * pinged if it has been quiet long enough to have died unnoticed, so a dead link is replaced
+          * while the user is typing instead of costing the request a timeout. Offline, reconnecting
+          * starts right away.
+          * @return whether a ping or a reconnect was started
           */
-         private JSONObject nodeToJson(ChatbotNode node) {
-             JSONObject json = new JSONObject();
+         public boolean prefetch(ChatbotNode predicted) {
+             if (!predicted.isExtractNode() && !predicted.isCategoriseNode()) {
+                 return false;
+             }
+             if (!isConnected()) {
+                 connect();
+                 wakeConnectionThread();
+                 return true;
+             }
+             Endpoint endpoint = pickEndpoint(Collections.emptySet());
+             if (endpoint == null || endpoint.isBusy()
+                     || !endpoint.isQuietFor(PREFETCH_QUIET_MS, System.currentTimeMillis())) {
+                 return false;
+             }
              try {
-                 json.put("id", node.getId());
-                 json.put("type", node.getType());
-                 json.put("message", node.getMessage());
-                 json.put("content", node.getContent());
-                 json.put("fallback", node.getFallback());
-             } catch (JSONException e) {
-                 Log.e(TAG, "Error converting node to JSON", e);
+                 requestExecutor.execute(() -> heartbeat(endpoint, PREFETCH_QUIET_MS));
+             } catch (RejectedExecutionException e) {
+                 return false;
              }
-             return json;
+             return true;
+         }
+
+         /**
+          * Fetches the conversation tree a PONG offered over the same connection and hands it to the
+          * ChatbotManager, which validates it and publishes it if it is still newer. Called on a
+          * heartbeat thread with the endpoint locked: requests prefer another endpoint meanwhile, and
+          * one that has to use this endpoint waits at most the tree timeout. A tree not in by then
+          * drops the connection like a missed pong, and is offered again on the next heartbeat.
+          */
+         private void fetchTree(Endpoint endpoint, long version) throws IOException {
+             endpoint.send(RequestEncoder::treeRequest);
+             ServerReply reply = ServerReply.decode(endpoint.receive(treeTimeoutMs(endpoint)));
+             if (reply.malformed != null || !"TREE".equals(reply.type) || reply.tree == null) {
+                 Log.w(TAG, "No conversation tree from " + endpoint + ": "
+                         + (reply.error != null ? reply.error : reply.malformed));
+                 rejectedTreeVersion.set(version);
+                 return;
+             }
+             if (!chatbotManager.installTree(reply.tree, endpoint.toString())) {
+                 rejectedTreeVersion.set(version);
+             }
+         }
+
+         /**
+          * How long to wait for a PONG: the endpoint's RTO once known, capped at a third of the dead link timeout
+          */
+         private int pingTimeoutMs(Endpoint endpoint) {
+             long budget = deadLinkTimeoutMs / 3;
+             long rto = endpoint.getRtoMs();
+             return (int) (rto < 0 ? budget : Math.max(MIN_PING_TIMEOUT_MS, Math.min(rto, budget)));
+         }
+
+         /**
+          * How long to wait for a TREE reply: a few RTOs, since the tree is kilobytes rather than a
+          * pong, capped like a ping at a third of the dead link timeout
+          */
+         private int treeTimeoutMs(Endpoint endpoint) {
+             long budget = deadLinkTimeoutMs / 3;
+             long rto = endpoint.getRtoMs();
+             return (int) (rto < 0 ? budget : Math.max(MIN_PING_TIMEOUT_MS, Math.min(TREE_TIMEOUT_RTOS * rto, budget)));
+         }
+
+         /**
+          * How long to wait for a reply: twice the slowest recent reply of this type plus the
+          * endpoint's network RTO, so a stuck request fails over long before the 30 s socket default
+          */
+         private int requestTimeoutMs(String requestType, Endpoint endpoint) {
+             LatencyTracker tracker = latencyFor(requestType);
+             long rto = endpoint.getRtoMs();
+             if (tracker.getSampleCount() < HEDGE_MIN_SAMPLES || rto < 0) {
+                 return Endpoint.READ_TIMEOUT_MS;
+             }
+             double timeout = 2 * tracker.percentile(99) + rto;
+             return (int) Math.max(MIN_REQUEST_TIMEOUT_MS, Math.min(timeout, Endpoint.READ_TIMEOUT_MS));
+         }
+
+         /**
+          * Endpoints ordered by recent failures, then by EWMA round-trip time
+          */
+         private List<Endpoint> rankEndpoints() {
+             List<Endpoint> ranked = new ArrayList<>(endpoints);
+             Collections.sort(ranked, (a, b) -> {
+                 int byFailures = Integer.compare(a.getConsecutiveFailures(), b.getConsecutiveFailures());
+                 return byFailures != 0 ? byFailures : Double.compare(a.getEwmaRttMs(), b.getEwmaRttMs());
+             });
+             return ranked;
+         }
+
+         /**
+          * Picks the connected endpoint with the lowest EWMA round-trip time, preferring idle ones
+          * @return the chosen endpoint, or null if none is connected outside the excluded set
+          */
+         private Endpoint pickEndpoint(Set<Endpoint> exclude) {
+             Endpoint best = null;
+             for (Endpoint endpoint : endpoints) {
+                 if (!endpoint.isConnected() || exclude.contains(endpoint)) {
+                     continue;
+                 }
+                 if (best == null
+                         || (best.isBusy() && !endpoint.isBusy())
+                         || (best.isBusy() == endpoint.isBusy() && endpoint.getEwmaRttMs() < best.getEwmaRttMs())) {
+                     best = endpoint;
+                 }
+             }
+             return best;
+         }
+
+         public boolean isConnected() {
+             for (Endpoint endpoint : endpoints) {
+                 if (endpoint.isConnected()) {
+                     return true;
+                 }
+             }
+             return false;
+         }
+
+         private int connectedEndpointCount() {
+             int count = 0;
+             for (Endpoint endpoint : endpoints) {
+                 if (endpoint.isConnected()) {
+                     count++;
+                 }
+             }
+             return count;
+         }
+
+         /**
+          * Makes the connection thread run a maintenance pass now instead of after its sleep
+          */
+         private void wakeConnectionThread() {
+             Thread thread = connectionThread;
+             if (thread != null) {
+                 thread.interrupt();
+             }
+         }
+
+         /**
+          * Sends a message to the server based on the current node's type. EXTRACTs whose missing slots
+          * the device can fill itself are answered without a request.
+          */
+         public void sendMessage(String userMessage, ServerResponseCallback callback) {
+             ChatbotNode node = chatbotManager.getCurrentNode();
+             if (node != null && "EXTRACT".equals(node.getType())) {
+                 String category = getCategoryId(node);
+                 // Plain tokens are filled on the device; if they were all that was missing, the server
+                 // is not asked at all, unless queued messages must be answered first
+                 if (chatbotManager.extractLocally(category, userMessage)
+                         && outboundQueue.isEmpty() && !flushing.get()) {
+                     localAnswers.incrementAndGet();
+                     ServerResponse response = new ServerResponse(category, null);
+                     mainHandler.post(() -> callback.onServerResponse(response));
+                     return;
+                 }
+             }
+             sendRequest(newRequestForCurrentNode(userMessage), callback);
+         }
+
+         /**
+          * Sends a request a previous process queued again. If the conversation is still at the node it
+          * was asked at, it goes out under its original idempotency key, so a server that answered it
+          * before the process died answers from its cache; otherwise the message is asked anew for the
+          * current node, as {@link #reconcile} does for stale replies. The leftover stays in the spill
+          * file until the resent request is answered, fails or is queued again.
+          */
+         public void resend(OutboundQueue.Leftover leftover, ServerResponseCallback callback) {
+             ServerRequest request = newRequestForCurrentNode(leftover.message);
+             if (leftover.getRoute().equals(request.getRoute())) {
+                 request = new ServerRequest(leftover.type, leftover.category, leftover.message, request.traceId,
+                         request.clientTs, leftover.idempotencyKey, leftover.missingSlots);
+             } else {
+                 Log.d(TAG, "Spilled request for " + leftover.getRoute() + " is stale, resending as "
+                         + request.getRoute());
+             }
+             sendRequest(request, new ServerResponseCallback() {
+                 @Override
+                 public void onServerResponse(ServerResponse response) {
+                     outboundQueue.settle(leftover);
+                     callback.onServerResponse(response);
+                 }
+
+                 @Override
+                 public void onError(String errorMessage) {
+                     outboundQueue.settle(leftover);
+                     callback.onError(errorMessage);
+                 }
+
+                 @Override
+                 public void onQueued() {
+                     outboundQueue.settle(leftover);
+                     callback.onQueued();
+                 }
+             });
+         }
+
+         /**
+          * Builds the request for the current node: EXTRACT with the category for EXTRACT nodes,
+          * CATEGORISE otherwise
+          */
+         private ServerRequest newRequestForCurrentNode(String userMessage) {
+             ChatbotNode node = chatbotManager.getCurrentNode();
+             if (node != null && "EXTRACT".equals(node.getType())) {
+                 // For EXTRACT nodes, we need the parent node's ID as category
+                 String category = getCategoryId(node);
+                 // Only ask for what earlier turns have not filled; the reply is merged into those
+                 return newRequest("EXTRACT", category, userMessage, chatbotManager.getMissingSlots(category));
+             }
+             // If at root, or the node has no usable type, we want to categorize the message
+             return newRequest("CATEGORISE", "", userMessage);
          }
 
          /**
@@ -142,146 +515,678 @@ package com.example.jupitertheaterapp.util;
           * If the parent is root, we use the current node's ID.
           * Otherwise, we use the parent's ID.
           */
-         private String getParentNodeId(JSONObject node) {
-             try {
-                 String currentId = node.getString("id");
-
-                 // Get the parent node ID from ChatbotManager
-                 String parentId = chatbotManager.getParentNodeId(currentId);
+         private String getCategoryId(ChatbotNode node) {
+             String currentId = node.getId();
 
-                 // If parent is "root" or empty, use the current node's ID
-                 if ("root".equals(parentId) || parentId.isEmpty()) {
-                     return currentId;
-                 }
+             // Get the parent node ID from ChatbotManager
+             String parentId = chatbotManager.getParentNodeId(currentId);
 
-                 // Otherwise use the parent's ID
-                 return parentId;
-             } catch (JSONException e) {
-                 Log.e(TAG, "Error getting parent node ID", e);
-                 return "";
+             // If parent is "root" or empty, use the current node's ID
+             if ("root".equals(parentId) || parentId.isEmpty()) {
+                 return currentId;
              }
+
+             // Otherwise use the parent's ID
+             return parentId;
+         }
+
+         /**
+          * Stamps a new request with a trace ID, the client send time and an idempotency key.
+          * The key is shared by every leg and resend of the request so the server can deduplicate them.
+          */
+         private ServerRequest newRequest(String type, String category, String userMessage) {
+             return newRequest(type, category, userMessage, Collections.emptyList());
+         }
+
+         private ServerRequest newRequest(String type, String category, String userMessage,
+                                          List<String> missingSlots) {
+             return new ServerRequest(type, category, userMessage,
+                     tracePrefix + "-" + traceSequence.incrementAndGet(), System.currentTimeMillis(),
+                     UUID.randomUUID().toString(), missingSlots);
          }
 
          /**
           * Sends a CATEGORISE message to the server
           */
          public void categorizeMessage(String userMessage, ServerResponseCallback callback) {
-             JSONObject jsonRequest = new JSONObject();
-             try {
-                 jsonRequest.put("type", "CATEGORISE");
-                 jsonRequest.put("category", "");
-                 jsonRequest.put("message", userMessage);
-                 sendJsonRequest(jsonRequest, callback);
-             } catch (JSONException e) {
-                 Log.e(TAG, "Error creating JSON request", e);
-                 mainHandler.post(() -> callback.onError("Error formatting request: " + e.getMessage()));
-             }
+             sendRequest(newRequest("CATEGORISE", "", userMessage), callback);
          }
 
          /**
           * Sends an EXTRACT message to the server
           */
          public void extractFromMessage(String category, String userMessage, ServerResponseCallback callback) {
-             JSONObject jsonRequest = new JSONObject();
-             try {
-                 jsonRequest.put("type", "EXTRACT");
-                 jsonRequest.put("category", category);
-                 jsonRequest.put("message", userMessage);
-                 sendJsonRequest(jsonRequest, callback);
-             } catch (JSONException e) {
-                 Log.e(TAG, "Error creating JSON request", e);
-                 mainHandler.post(() -> callback.onError("Error formatting request: " + e.getMessage()));
+             sendRequest(newRequest("EXTRACT", category, userMessage), callback);
+         }
+
+         /**
+          * Sends the request to the server once its lane's turn comes
+          */
+         private void sendRequest(ServerRequest request, ServerResponseCallback callback) {
+             final long queuedAt = System.nanoTime();
+             final TurnTrace trace = newTrace(request);
+
+             if (!isConnected() || flushing.get() || !outboundQueue.isEmpty()) {
+                 // Offline, or earlier offline requests are still waiting: queue behind them to keep order
+                 enqueue(request, trace, queuedAt, callback);
+                 return;
              }
+
+             RequestScheduler.Lane lane = RequestScheduler.laneOf(request.type, request.category);
+             requestScheduler.submit(lane, () -> startRequest(request, lane, trace, queuedAt, callback));
+         }
+
+         /**
+          * Puts a request scheduled by {@link #sendRequest} on the wire; the time spent waiting in
+          * its lane shows as the trace's client queue stage
+          */
+         private void startRequest(ServerRequest request, RequestScheduler.Lane lane, TurnTrace trace, long queuedAt,
+                                   ServerResponseCallback callback) {
+             HedgedRequest hedged = new HedgedRequest(request.type, encoder -> encoder.request(request));
+             hedged.start(hedgeDelayMs(request.type)).whenComplete((exchange, error) -> {
+                 requestScheduler.done(lane);
+                 trace.setHedge(hedged.isHedged(), exchange != null && exchange.hedge);
+                 if (error != null) {
+                     if (!isConnected()) {
+                         // The link dropped mid-request; the idempotency key makes resending it safe
+                         enqueue(request, trace, queuedAt, callback);
+                         return;
+                     }
+                     // Every leg failed although an endpoint is still connected
+                     Throwable cause = error instanceof CompletionException && error.getCause() != null
+                             ? error.getCause() : error;
+                     final String errorMessage = "Error: " + cause.getMessage();
+                     finishTrace(trace, queuedAt, TurnTrace.UNKNOWN, errorMessage);
+                     mainHandler.post(() -> callback.onError(errorMessage));
+                     wakeConnectionThread();
+                     return;
+                 }
+
+                 setClientStages(trace, queuedAt, exchange);
+                 Log.d(TAG, "Received from " + exchange.endpoint + ": " + exchange.reply.category);
+                 Outcome outcome = evaluate(exchange.reply, trace);
+                 mainHandler.post(() -> complete(outcome, trace, queuedAt, exchange.decodeMs, callback));
+             });
          }
 
          /**
-          * Sends the JSON request to the server
+          * Holds a request until an endpoint is connected again, or fails it if the queue is full
           */
-         private void sendJsonRequest(JSONObject jsonRequest, ServerResponseCallback callback) {
-             if (!isConnected.get()) {
+         private void enqueue(ServerRequest request, TurnTrace trace, long queuedAt, ServerResponseCallback callback) {
+             OutboundQueue.Entry entry = new OutboundQueue.Entry(request, queuedAt, trace, callback);
+             if (outboundQueue.offer(entry)) {
+                 Log.d(TAG, "Queued " + request.type + " request, " + outboundQueue.size() + " waiting");
+                 mainHandler.post(callback::onQueued);
+             } else {
+                 finishTrace(trace, queuedAt, TurnTrace.UNKNOWN, "not connected");
                  mainHandler.post(() -> callback.onError("Not connected to server. Attempting to reconnect..."));
+             }
+             if (isConnected()) {
+                 requestExecutor.execute(this::flushOutboundQueue);
+             } else {
                  connect();
+                 wakeConnectionThread();
+             }
+         }
+
+         /**
+          * Sends every queued request in one BATCH frame and hands the replies to
+          * {@link #reconcile}. If the exchange fails the whole batch goes back to the head of the queue;
+          * the idempotency keys make sending it again safe.
+          */
+         private void flushOutboundQueue() {
+             if (!flushing.compareAndSet(false, true)) {
+                 return;
+             }
+             try {
+                 List<OutboundQueue.Entry> batch = new ArrayList<>();
+                 long now = System.currentTimeMillis();
+                 for (OutboundQueue.Entry entry : outboundQueue.drain()) {
+                     if (entry.isExpired(now)) {
+                         finishTrace(entry.trace, entry.queuedAt, TurnTrace.UNKNOWN, "expired");
+                         mainHandler.post(() -> entry.callback.onError("Message expired while offline"));
+                     } else {
+                         batch.add(entry);
+                     }
+                 }
+                 if (batch.isEmpty()) {
+                     return;
+                 }
+
+                 List<ServerRequest> requests = new ArrayList<>(batch.size());
+                 for (OutboundQueue.Entry entry : batch) {
+                     requests.add(entry.request);
+                 }
+                 Exchange exchange;
+                 try {
+                     exchange = exchange(BATCH_TYPE, encoder -> encoder.batch(requests), new HashSet<>());
+                 } catch (IOException e) {
+                     Log.e(TAG, "Error flushing queued requests", e);
+                     outboundQueue.requeue(batch);
+                     wakeConnectionThread();
+                     return;
+                 }
+                 Log.d(TAG, "Flushed " + batch.size() + " queued request(s) to " + exchange.endpoint);
+
+                 List<ServerReply> replies;
+                 try {
+                     replies = readBatchResponses(exchange.reply, batch.size());
+                 } catch (JSONException e) {
+                     Log.e(TAG, "Invalid BATCH response", e);
+                     exchange.reply.recycleTemplates();
+                     for (OutboundQueue.Entry entry : batch) {
+                         finishTrace(entry.trace, entry.queuedAt, exchange.decodeMs, "invalid response");
+                         mainHandler.post(() -> entry.callback.onError(
+                                 "Invalid server response format: " + e.getMessage()));
+                     }
+                     return;
+                 }
+                 List<Outcome> outcomes = new ArrayList<>(batch.size());
+                 for (int i = 0; i < batch.size(); i++) {
+                     OutboundQueue.Entry entry = batch.get(i);
+                     setClientStages(entry.trace, entry.queuedAt, exchange);
+                     outcomes.add(evaluate(replies.get(i), entry.trace));
+                 }
+                 mainHandler.post(() -> reconcile(batch, outcomes, exchange.decodeMs, 0));
+             } finally {
+                 flushing.set(false);
+             }
+         }
+
+         /**
+          * Delivers flushed replies in order on the main thread. Each answer moves the conversation
+          * on, so a reply is only used if the request still matches the current node; otherwise the
+          * message is asked again for the current node and the rest wait for that answer.
+          */
+         private void reconcile(List<OutboundQueue.Entry> batch, List<Outcome> outcomes, double decodeMs,
+                                int index) {
+             for (int i = index; i < outcomes.size(); i++) {
+                 OutboundQueue.Entry entry = batch.get(i);
+                 ServerRequest request = newRequestForCurrentNode(entry.request.message);
+                 if (entry.request.getRoute().equals(request.getRoute())) {
+                     complete(outcomes.get(i), entry.trace, entry.queuedAt, decodeMs, entry.callback);
+                     continue;
+                 }
+
+                 Log.d(TAG, "Queued reply for " + entry.request.getRoute() + " is stale, resending as "
+                         + request.getRoute());
+                 finishTrace(entry.trace, entry.queuedAt, decodeMs, "stale");
+                 if (outcomes.get(i).response != null) {
+                     chatbotManager.getTemplatePool().recycle(outcomes.get(i).response.getTemplate());
+                 }
+                 final int next = i + 1;
+                 sendRequest(request, new ServerResponseCallback() {
+                     @Override
+                     public void onServerResponse(ServerResponse response) {
+                         entry.callback.onServerResponse(response);
+                         reconcile(batch, outcomes, decodeMs, next);
+                     }
+
+                     @Override
+                     public void onError(String errorMessage) {
+                         entry.callback.onError(errorMessage);
+                         reconcile(batch, outcomes, decodeMs, next);
+                     }
+
+                     @Override
+                     public void onQueued() {
+                         entry.callback.onQueued();
+                     }
+                 });
                  return;
              }
+         }
+
+         /**
+          * One request/reply on one endpoint, with the timestamps needed for tracing.
+          * The reply is decoded on the I/O thread, while the endpoint's line buffer is still valid.
+          */
+         private static final class Exchange {
+             final Endpoint endpoint;
+             final ServerReply reply;
+             final long writeStart;
+             final long writeEnd;
+             final long received;
+             final double decodeMs;
+             boolean hedge;
+
+             Exchange(Endpoint endpoint, ServerReply reply, long writeStart, long writeEnd, long received,
+                      double decodeMs) {
+                 this.endpoint = endpoint;
+                 this.reply = reply;
+                 this.writeStart = writeStart;
+                 this.writeEnd = writeEnd;
+                 this.received = received;
+                 this.decodeMs = decodeMs;
+             }
+         }
 
-             new Thread(() -> {
+         /**
+          * Sends the frame to the fastest endpoint not in {@code used}, failing over to the
+          * next one on I/O errors and timeouts. Every endpoint tried is added to {@code used}.
+          */
+         private Exchange exchange(String requestType, RequestEncoder.Frame frame, Set<Endpoint> used)
+                 throws IOException {
+             IOException lastError = null;
+             for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+                 Endpoint endpoint;
+                 synchronized (used) {
+                     endpoint = pickEndpoint(used);
+                     if (endpoint == null) {
+                         break;
+                     }
+                     used.add(endpoint);
+                 }
+
+                 endpoint.lock();
                  try {
-                     if (out != null && socket != null && !socket.isClosed()) {
-                         // Send JSON request to server
-                         String requestStr = jsonRequest.toString();
-                         out.println(requestStr);
-                         Log.d(TAG, "Sent to server: " + requestStr);
-
-                         // Receive response from server
-                         if (in != null) {
-                             final String serverResponse = in.readLine();
-                             Log.d(TAG, "Received from server: " + serverResponse);
-
-                             // Post callback to main thread
-                             mainHandler.post(() -> {
-                                 if (serverResponse != null) {
-                                     try {
-                                         // Parse the JSON response
-                                         JSONObject jsonResponse = new JSONObject(serverResponse);
-
-                                         // Extract the category field
-                                         if (jsonResponse.has("category")) {
-                                             String category = jsonResponse.getString("category");
-
-                                             // Check if category is a valid node ID
-                                             if (isValidNodeId(category)) {
-                                                 callback.onServerResponse(category);
-                                             } else {
-                                                 callback.onError("Category '" + category + "' is not a valid node ID");
-                                             }
-                                         } else {
-                                             callback.onError("Server response missing 'category' field");
-                                         }
-                                     } catch (JSONException e) {
-                                         Log.e(TAG, "Error parsing JSON response", e);
-                                         callback.onError("Invalid server response format: " + e.getMessage());
-                                     }
-                                 } else {
-                                     callback.onError("Server sent no response");
-                                     // Connection might be broken if no response
-                                     closeConnection();
-                                 }
-                             });
+                     // Send the request to the server
+                     long writeStart = System.nanoTime();
+                     endpoint.send(frame);
+                     long writeEnd = System.nanoTime();
+                     Log.d(TAG, "Sent " + requestType + " to " + endpoint);
+
+                     // Receive and decode the response while its bytes are still in the endpoint's buffer
+                     ReplyDecoder decoder = endpoint.receive(requestTimeoutMs(requestType, endpoint));
+                     long received = System.nanoTime();
+                     TrafficRecorder recorder = trafficRecorder;
+                     if (recorder != null) {
+                         long roundTripMicros = (received - writeStart) / 1000;
+                         recorder.record(tracePrefix, System.currentTimeMillis() * 1000 - roundTripMicros, roundTripMicros,
+                                 endpoint.copyLastFrame(), endpoint.copyLastReply());
+                     }
+                     ServerReply reply = ServerReply.decode(decoder, chatbotManager.getTemplatePool());
+                     double decodeMs = toMillis(System.nanoTime() - received);
+                     endpoint.recordRtt(toMillis(received - writeStart));
+                     return new Exchange(endpoint, reply, writeStart, writeEnd, received, decodeMs);
+                 } catch (IOException e) {
+                     Log.e(TAG, "Error communicating with " + endpoint, e);
+                     endpoint.markFailed();
+                     lastError = e;
+                 } finally {
+                     endpoint.unlock();
+                 }
+             }
+             throw lastError != null ? lastError : new IOException("Connection to server lost. Reconnecting...");
+         }
+
+         /**
+          * A request that is sent once and, if it is still outstanding after the hedge delay,
+          * a second time to another endpoint. The first successful reply wins; the loser's reply
+          * is still read so its connection stays in sync. Both legs carry the same idempotency
+          * key, so a server that sees both only does the work once.
+          */
+         private final class HedgedRequest {
+             private final String requestType;
+             private final RequestEncoder.Frame frame;
+             private final Set<Endpoint> used = new HashSet<>();
+             private final CompletableFuture<Exchange> result = new CompletableFuture<>();
+             private int runningLegs;
+             private boolean hedged;
+
+             HedgedRequest(String requestType, RequestEncoder.Frame frame) {
+                 this.requestType = requestType;
+                 this.frame = frame;
+             }
+
+             /**
+              * @param hedgeDelayMs delay before hedging, or -1 to never hedge
+              */
+             CompletableFuture<Exchange> start(long hedgeDelayMs) {
+                 launchLeg(false);
+                 if (hedgeDelayMs >= 0) {
+                     try {
+                         hedgeScheduler.schedule(this::hedge, hedgeDelayMs, TimeUnit.MILLISECONDS);
+                     } catch (RejectedExecutionException e) {
+                         Log.w(TAG, "Hedge scheduler unavailable", e);
+                     }
+                 }
+                 return result;
+             }
+
+             synchronized boolean isHedged() {
+                 return hedged;
+             }
+
+             private synchronized void launchLeg(boolean hedge) {
+                 runningLegs++;
+                 requestExecutor.execute(() -> runLeg(hedge));
+             }
+
+             private void hedge() {
+                 synchronized (this) {
+                     if (result.isDone() || hedged) {
+                         return;
+                     }
+                     synchronized (used) {
+                         if (pickEndpoint(used) == null) {
+                             // Nowhere else to send it
+                             return;
                          }
-                     } else {
-                         mainHandler.post(() -> callback.onError("Connection to server lost. Reconnecting..."));
-                         closeConnection();
-                         connect();
+                     }
+                     hedged = true;
+                     launchLeg(true);
+                 }
+                 hedgesSent.incrementAndGet();
+                 Log.d(TAG, "Hedging " + requestType + " request after p" + (int) HEDGE_PERCENTILE);
+             }
+
+             private void runLeg(boolean hedge) {
+                 try {
+                     Exchange exchange = exchange(requestType, frame, used);
+                     exchange.hedge = hedge;
+                     latencyFor(requestType).record(toMillis(exchange.received - exchange.writeStart));
+                     if (!result.complete(exchange)) {
+                         // The other leg won; nobody will merge this reply
+                         exchange.reply.recycleTemplates();
+                     } else if (hedge) {
+                         hedgeWins.incrementAndGet();
                      }
                  } catch (IOException e) {
-                     Log.e(TAG, "Error communicating with server", e);
-                     closeConnection();
-                     // Post error callback to main thread
-                     mainHandler.post(() -> callback.onError("Error: " + e.getMessage()));
+                     synchronized (this) {
+                         runningLegs--;
+                         // Only fail once no other leg can still succeed
+                         if (runningLegs == 0) {
+                             result.completeExceptionally(e);
+                         }
+                     }
                  }
-             }).start();
+             }
+         }
+
+         private LatencyTracker latencyFor(String requestType) {
+             LatencyTracker tracker = latencyByType.get(requestType);
+             if (tracker == null) {
+                 latencyByType.putIfAbsent(requestType, new LatencyTracker());
+                 tracker = latencyByType.get(requestType);
+             }
+             return tracker;
          }
 
          /**
-          * Closes the current connection resources
+          * How long to wait before hedging a request of this type: the observed p95,
+          * or -1 while there are too few samples to trust it
           */
-         private synchronized void closeConnection() {
-             isConnected.set(false);
-             try {
-                 if (out != null) {
-                     out.close();
-                     out = null;
+         private long hedgeDelayMs(String requestType) {
+             LatencyTracker tracker = latencyFor(requestType);
+             if (tracker.getSampleCount() < HEDGE_MIN_SAMPLES) {
+                 return -1;
+             }
+             return Math.max(HEDGE_MIN_DELAY_MS, Math.round(tracker.percentile(HEDGE_PERCENTILE)));
+         }
+
+         public LatencyTracker getLatencyTracker(String requestType) {
+             return latencyFor(requestType);
+         }
+
+         public long getHedgesSent() {
+             return hedgesSent.get();
+         }
+
+         public long getHedgeWins() {
+             return hedgeWins.get();
+         }
+
+         public long getLocalAnswerCount() {
+             return localAnswers.get();
+         }
+
+         /**
+          * How many requests are waiting in their lanes for a free connection
+          */
+         public int getWaitingRequestCount() {
+             return requestScheduler.getWaitingCount();
+         }
+
+         /**
+          * What a reply means for its callback, worked out on the I/O thread
+          */
+         private static final class Outcome {
+             final ServerResponse response;  // null on failure
+             final String traceError;
+             final String errorMessage;
+
+             Outcome(ServerResponse response, String traceError, String errorMessage) {
+                 this.response = response;
+                 this.traceError = traceError;
+                 this.errorMessage = errorMessage;
+             }
+         }
+
+         /**
+          * Validates a decoded reply off the main thread. The category is checked against the
+          * tree's precomputed category IDs; the details were already decoded into its template.
+          */
+         private Outcome evaluate(ServerReply reply, TurnTrace trace) {
+             if (reply.malformed != null) {
+                 Log.e(TAG, "Error parsing JSON response: " + reply.malformed);
+                 reply.recycleTemplates();
+                 return new Outcome(null, "invalid response", "Invalid server response format: " + reply.malformed);
+             }
+             readServerTimings(reply, trace);
+
+             String category = reply.category;
+             if (category == null) {
+                 reply.recycleTemplates();
+                 return new Outcome(null, "missing category", "Server response missing 'category' field");
+             }
+             if (!chatbotManager.isCategoryId(category)) {
+                 reply.recycleTemplates();
+                 return new Outcome(null, "invalid category", "Category '" + category + "' is not a valid node ID");
+             }
+             return new Outcome(new ServerResponse(category, reply.template), null, null);
+         }
+
+         /**
+          * Closes the trace and hands the outcome to the callback on the calling (main) thread
+          */
+         private void complete(Outcome outcome, TurnTrace trace, long queuedAt, double decodeMs,
+                               ServerResponseCallback callback) {
+             finishTrace(trace, queuedAt, decodeMs, outcome.traceError);
+             if (outcome.response != null) {
+                 callback.onServerResponse(outcome.response);
+             } else {
+                 callback.onError(outcome.errorMessage);
+             }
+         }
+
+         /**
+          * Sends several CATEGORISE/EXTRACT requests in one BATCH frame, so they cost a single
+          * round trip. The server processes them concurrently and answers in request order.
+          * Unlike single requests, a batch is not queued while offline.
+          */
+         public void sendBatch(List<BatchRequest> requests, BatchCallback callback) {
+             final long queuedAt = System.nanoTime();
+             final List<TurnTrace> traces = new ArrayList<>(requests.size());
+             final List<ServerRequest> serverRequests = new ArrayList<>(requests.size());
+             for (BatchRequest request : requests) {
+                 ServerRequest serverRequest = newRequest(request.getType(), request.getCategory(),
+                         request.getMessage());
+                 serverRequests.add(serverRequest);
+                 traces.add(newTrace(serverRequest));
+             }
+             if (requests.isEmpty()) {
+                 mainHandler.post(() -> callback.onBatchResponse(Collections.emptyList()));
+                 return;
+             }
+             if (!isConnected()) {
+                 mainHandler.post(() -> callback.onError("Not connected to server. Attempting to reconnect..."));
+                 connect();
+                 wakeConnectionThread();
+                 return;
+             }
+
+             // A batch waits in the lane of its heaviest request
+             RequestScheduler.Lane lane = RequestScheduler.Lane.CONTROL;
+             for (ServerRequest serverRequest : serverRequests) {
+                 RequestScheduler.Lane requestLane = RequestScheduler.laneOf(serverRequest.type, serverRequest.category);
+                 if (requestLane.ordinal() > lane.ordinal()) {
+                     lane = requestLane;
                  }
-                 if (in != null) {
-                     in.close();
-                     in = null;
+             }
+             final RequestScheduler.Lane batchLane = lane;
+             requestScheduler.submit(batchLane, () -> startBatch(serverRequests, batchLane, traces, queuedAt, callback));
+         }
+
+         private void startBatch(List<ServerRequest> serverRequests, RequestScheduler.Lane lane, List<TurnTrace> traces,
+                                 long queuedAt, BatchCallback callback) {
+             HedgedRequest request = new HedgedRequest(BATCH_TYPE, encoder -> encoder.batch(serverRequests));
+             request.start(hedgeDelayMs(BATCH_TYPE)).whenComplete((exchange, error) -> {
+                 requestScheduler.done(lane);
+                 if (error != null) {
+                     Throwable cause = error instanceof CompletionException && error.getCause() != null
+                             ? error.getCause() : error;
+                     final String errorMessage = "Error: " + cause.getMessage();
+                     for (TurnTrace trace : traces) {
+                         finishTrace(trace, queuedAt, TurnTrace.UNKNOWN, errorMessage);
+                     }
+                     mainHandler.post(() -> callback.onError(errorMessage));
+                     wakeConnectionThread();
+                     return;
                  }
-                 if (socket != null) {
-                     socket.close();
-                     socket = null;
+
+                 for (TurnTrace trace : traces) {
+                     trace.setHedge(request.isHedged(), exchange.hedge);
+                     setClientStages(trace, queuedAt, exchange);
                  }
-             } catch (IOException e) {
-                 Log.e(TAG, "Error closing connection", e);
+                 mainHandler.post(() -> {
+                     try {
+                         List<ServerReply> replies = readBatchResponses(exchange.reply, traces.size());
+                         List<BatchResult> results = new ArrayList<>(replies.size());
+                         for (int i = 0; i < replies.size(); i++) {
+                             BatchResult result = BatchResult.fromReply(replies.get(i));
+                             // Batch results belong to the caller, which keeps them rather than recycling them
+                             chatbotManager.getTemplatePool().forget(result.getTemplate());
+                             readServerTimings(replies.get(i), traces.get(i));
+                             finishTrace(traces.get(i), queuedAt, exchange.decodeMs, result.getError());
+                             results.add(result);
+                         }
+                         callback.onBatchResponse(results);
+                     } catch (JSONException e) {
+                         Log.e(TAG, "Invalid BATCH response", e);
+                         exchange.reply.recycleTemplates();
+                         for (TurnTrace trace : traces) {
+                             finishTrace(trace, queuedAt, exchange.decodeMs, "invalid response");
+                         }
+                         callback.onError("Invalid server response format: " + e.getMessage());
+                     }
+                 });
+             });
+         }
+
+         /**
+          * Unpacks a BATCH reply into one response per request, in request order
+          * @throws JSONException if the reply is not a batch of the expected size, e.g. the server's error
+          */
+         private static List<ServerReply> readBatchResponses(ServerReply reply, int expected) throws JSONException {
+             if (reply.malformed != null) {
+                 throw new JSONException(reply.malformed);
+             }
+             if (reply.responses == null) {
+                 throw new JSONException(reply.error != null ? reply.error : "BATCH response missing 'responses'");
+             }
+             if (reply.responses.size() != expected) {
+                 throw new JSONException("Expected " + expected + " BATCH responses but got " + reply.responses.size());
+             }
+             return reply.responses;
+         }
+
+         private static void setClientStages(TurnTrace trace, long queuedAt, Exchange exchange) {
+             trace.setEndpoint(exchange.endpoint.toString());
+             trace.setClientStages(toMillis(exchange.writeStart - queuedAt),
+                     toMillis(exchange.writeEnd - exchange.writeStart),
+                     toMillis(exchange.received - exchange.writeEnd));
+         }
+
+         private static TurnTrace newTrace(ServerRequest request) {
+             return new TurnTrace(request.traceId, request.type, request.category, request.clientTs);
+         }
+
+         /**
+          * Copies the stage timings the server echoed for this trace, if any
+          */
+         private void readServerTimings(ServerReply reply, TurnTrace trace) {
+             if (!reply.hasTimings || !trace.getTraceId().equals(reply.traceId)) {
+                 return;
+             }
+             trace.setServerStages(reply.queueMs, reply.llmMs, reply.serializeMs, reply.serverMs);
+         }
+
+         /**
+          * Closes the trace and hands it to the recorder.
+          * decodeMs is TurnTrace.UNKNOWN when no reply was decoded.
+          */
+         private void finishTrace(TurnTrace trace, long queuedAt, double decodeMs, String error) {
+             trace.finish(decodeMs, toMillis(System.nanoTime() - queuedAt), error);
+             traceRecorder.record(trace);
+         }
+
+         private static double toMillis(long nanos) {
+             return nanos / 1_000_000.0;
+         }
+
+         public TraceRecorder getTraceRecorder() {
+             return traceRecorder;
+         }
+
+         /**
+          * Writes the per-turn client and server timing breakdown to a trace file
+          */
+         public void exportTrace(File file) throws IOException {
+             traceRecorder.exportTo(file);
+             Log.d(TAG, "Exported turn traces to " + file.getAbsolutePath());
+         }
+
+         /**
+          * Starts logging every request and its reply to the file, appending to what is there, so the
+          * traffic can be replayed against a server with backend/Replayer.java. Heartbeats and tree
+          * fetches are not logged.
+          */
+         public synchronized void startRecording(File file) {
+             stopRecording();
+             trafficRecorder = new TrafficRecorder(file);
+             Log.d(TAG, "Recording traffic to " + file.getAbsolutePath());
+         }
+
+         public synchronized void stopRecording() {
+             TrafficRecorder recorder = trafficRecorder;
+             if (recorder != null) {
+                 trafficRecorder = null;
+                 recorder.close();
+             }
+         }
+
+         /**
+          * Ends the session: sends the ΕΞΟΔΟΣ EXTRACT, with which the server closes out the conversation, and
+          * then disconnects. The exit goes in the control lane, so it neither waits behind queued requests nor
+          * needs a free connection. It is not queued offline; without a connection, or without a reply within
+          * {@link #EXIT_TIMEOUT_MS}, the client simply disconnects.
+          */
+         public void exit() {
+             if (!isConnected()) {
+                 disconnect();
+                 return;
+             }
+             AtomicBoolean finished = new AtomicBoolean(false);
+             Runnable finish = () -> {
+                 if (finished.compareAndSet(false, true)) {
+                     disconnect();
+                 }
+             };
+             ServerRequest request = newRequest("EXTRACT", RequestScheduler.EXIT_CATEGORY, EXIT_MESSAGE);
+             RequestScheduler.Lane lane = RequestScheduler.laneOf(request.type, request.category);
+             requestScheduler.submit(lane, () -> new HedgedRequest(request.type, encoder -> encoder.request(request))
+                     .start(-1).whenComplete((exchange, error) -> {
+                         requestScheduler.done(lane);
+                         if (exchange != null) {
+                             exchange.reply.recycleTemplates();
+                         }
+                         finish.run();
+                     }));
+             try {
+                 hedgeScheduler.schedule(finish, EXIT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+             } catch (RejectedExecutionException e) {
+                 finish.run();
              }
          }
 
@@ -290,21 +1195,14 @@ package com.example.jupitertheaterapp.util;
           */
          public synchronized void disconnect() {
              isRunning.set(false);
+             stopRecording();
              if (connectionThread != null) {
                  connectionThread.interrupt();
              }
-             closeConnection();
-             Log.d(TAG, "Client disconnected");
-         }
-
-         private boolean isValidNodeId(String nodeId) {
-             String[] validIds = {"ΚΡΑΤΗΣΗ", "ΑΚΥΡΩΣΗ", "ΠΛΗΡΟΦΟΡΙΕΣ", "ΑΞΙΟΛΟΓΗΣΕΙΣ & ΣΧΟΛΙΑ", "ΠΡΟΣΦΟΡΕΣ & ΕΚΠΤΩΣΕΙΣ"};
-
-             for (String id : validIds) {
-                 if (id.equals(nodeId)) {
-                     return true;
-                 }
+             for (Endpoint endpoint : endpoints) {
+                 endpoint.close();
              }
-             return false;
+             firstAttempt.complete(false);
+             Log.d(TAG, "Client disconnected");
          }
      }
\ No newline at end of file
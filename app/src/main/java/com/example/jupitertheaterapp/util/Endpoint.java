@@ -0,0 +1,342 @@
+package com.example.jupitertheaterapp.util;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One backend server from server_config.txt together with its warm connection and health statistics.
+ * The connection carries one request at a time: callers hold {@link #lock()} for a whole
+ * send/receive exchange. Frames are encoded into and replies read from buffers owned by the
+ * endpoint and reused under that lock, so steady-state traffic allocates almost nothing.
+ */
+public class Endpoint {
+    private static final String TAG = "Endpoint";
+    private static final int CONNECT_TIMEOUT_MS = 3000;
+    static final int READ_TIMEOUT_MS = 30000;  // Until heartbeats give a better bound
+    private static final double EWMA_ALPHA = 0.2;
+    // Smoothing for the heartbeat estimates, as for TCP's SRTT and RTTVAR (RFC 6298)
+    private static final double SRTT_ALPHA = 0.125;
+    private static final double RTTVAR_BETA = 0.25;
+    private static final long MIN_BACKOFF_MS = 3000;
+    private static final long MAX_BACKOFF_MS = 60000;
+
+    private final String host;
+    private final int port;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Connection components, guarded by the lock
+    private Socket socket;
+    private OutputStream out;
+    private InputStream in;
+    private volatile boolean connected = false;
+
+    // Reusable codec state, guarded by the lock
+    private final RequestEncoder encoder = new RequestEncoder();
+    private final ReplyDecoder decoder = new ReplyDecoder();
+    private final byte[] readBuffer = new byte[8192];
+    private int readPos;
+    private int readLimit;
+    private byte[] line = new byte[1024];
+    private int lineLength;
+
+    // Health statistics
+    private volatile double ewmaRttMs = 0; // 0 until measured, so new endpoints get probed first
+    private volatile int consecutiveFailures = 0;
+    private volatile long retryAtMs = 0;
+
+    // Network estimates from heartbeats, which exclude server processing time
+    private volatile double srttMs = 0;
+    private volatile double rttVarMs = 0;
+    private volatile long lastHeardMs = 0;
+
+    public Endpoint(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Parses "host:port" into an endpoint
+     * @throws IllegalArgumentException if the entry is malformed
+     */
+    public static Endpoint parse(String entry) {
+        String trimmed = entry.trim();
+        int colon = trimmed.lastIndexOf(':');
+        if (colon <= 0 || colon == trimmed.length() - 1) {
+            throw new IllegalArgumentException("Expected host:port but got '" + entry + "'");
+        }
+        try {
+            int port = Integer.parseInt(trimmed.substring(colon + 1));
+            return new Endpoint(trimmed.substring(0, colon), port);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid port in '" + entry + "'", e);
+        }
+    }
+
+    /**
+     * Parses a server config: one host:port per line, blank lines and lines starting with # are ignored.
+     * Malformed lines are logged and skipped.
+     */
+    public static List<Endpoint> parseConfig(String config) {
+        List<Endpoint> endpoints = new ArrayList<>();
+        for (String line : config.split("\\r?\\n")) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            try {
+                endpoints.add(parse(trimmed));
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "Skipping server config line", e);
+            }
+        }
+        return endpoints;
+    }
+
+    /**
+     * Opens the connection if it is not already open. Must be called with the lock held.
+     */
+    void open() throws IOException {
+        if (connected) {
+            return;
+        }
+        Log.d(TAG, "Attempting to connect to " + this);
+        try {
+            socket = new Socket();
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+            socket.setSoTimeout(READ_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+            out = socket.getOutputStream();
+            in = socket.getInputStream();
+            readPos = 0;
+            readLimit = 0;
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        connected = true;
+        lastHeardMs = System.currentTimeMillis();
+        consecutiveFailures = 0;
+        retryAtMs = 0;
+        Log.d(TAG, "Connected to " + this);
+    }
+
+    /**
+     * Encodes the frame and writes it as one line with a single write. Must be called with the lock held.
+     */
+    void send(RequestEncoder.Frame frame) throws IOException {
+        OutputStream stream = out;
+        if (!connected || stream == null) {
+            throw new IOException("Not connected to " + this);
+        }
+        encoder.encodeLine(frame).writeTo(stream);
+        stream.flush();
+    }
+
+    /**
+     * Reads one reply line, waiting at most the given time, and returns a decoder positioned at its start.
+     * The decoder reads the endpoint's line buffer in place, so it is only valid until the lock is released.
+     * Must be called with the lock held.
+     * @throws java.net.SocketTimeoutException if nothing arrives in time
+     */
+    ReplyDecoder receive(int timeoutMs) throws IOException {
+        InputStream stream = in;
+        Socket current = socket;
+        if (!connected || stream == null || current == null) {
+            throw new IOException("Not connected to " + this);
+        }
+        current.setSoTimeout(timeoutMs);
+        readLine(stream);
+        lastHeardMs = System.currentTimeMillis();
+        return decoder.reset(line, 0, lineLength);
+    }
+
+    /**
+     * Copies the frame last sent, without its newline, e.g. for a {@link TrafficRecorder}.
+     * Must be called with the lock held.
+     */
+    byte[] copyLastFrame() {
+        byte[] frame = encoder.toByteArray();
+        return Arrays.copyOf(frame, frame.length - 1);
+    }
+
+    /**
+     * Copies the reply last received, without its newline. Must be called with the lock held.
+     */
+    byte[] copyLastReply() {
+        return Arrays.copyOf(line, lineLength);
+    }
+
+    /**
+     * Reads up to the next newline into the line buffer. Bytes after it stay in the read buffer
+     * for the next reply.
+     */
+    private void readLine(InputStream stream) throws IOException {
+        lineLength = 0;
+        while (true) {
+            if (readPos == readLimit) {
+                int read = stream.read(readBuffer);
+                if (read < 0) {
+                    throw new IOException("Server sent no response");
+                }
+                readPos = 0;
+                readLimit = read;
+            }
+            int start = readPos;
+            while (readPos < readLimit && readBuffer[readPos] != '\n') {
+                readPos++;
+            }
+            appendToLine(start, readPos - start);
+            if (readPos < readLimit) {
+                // Consume the newline and drop a preceding carriage return
+                readPos++;
+                if (lineLength > 0 && line[lineLength - 1] == '\r') {
+                    lineLength--;
+                }
+                return;
+            }
+        }
+    }
+
+    private void appendToLine(int start, int count) {
+        if (lineLength + count > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + count));
+        }
+        System.arraycopy(readBuffer, start, line, lineLength, count);
+        lineLength += count;
+    }
+
+    /**
+     * Closes the connection resources. Safe to call without the lock, e.g. from disconnect().
+     */
+    synchronized void close() {
+        connected = false;
+        try {
+            // Closing the socket closes both of its streams
+            out = null;
+            in = null;
+            if (socket != null) {
+                socket.close();
+                socket = null;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error closing connection to " + this, e);
+        }
+    }
+
+    /**
+     * Folds a successful round trip into the moving average
+     */
+    void recordRtt(double rttMs) {
+        double current = ewmaRttMs;
+        ewmaRttMs = current == 0 ? rttMs : current + EWMA_ALPHA * (rttMs - current);
+    }
+
+    /**
+     * Folds a heartbeat round trip into the smoothed RTT and its mean deviation
+     */
+    void recordHeartbeatRtt(double rttMs) {
+        double srtt = srttMs;
+        if (srtt == 0) {
+            srttMs = rttMs;
+            rttVarMs = rttMs / 2;
+        } else {
+            rttVarMs = (1 - RTTVAR_BETA) * rttVarMs + RTTVAR_BETA * Math.abs(srtt - rttMs);
+            srttMs = (1 - SRTT_ALPHA) * srtt + SRTT_ALPHA * rttMs;
+        }
+    }
+
+    /**
+     * Retransmission-style timeout for one network round trip: SRTT + 4 * RTTVAR,
+     * or -1 before the first heartbeat
+     */
+    long getRtoMs() {
+        double srtt = srttMs;
+        return srtt == 0 ? -1 : Math.round(srtt + 4 * rttVarMs);
+    }
+
+    /**
+     * Whether nothing has been read from this connection for at least the given time
+     */
+    boolean isQuietFor(long intervalMs, long nowMs) {
+        return nowMs - lastHeardMs >= intervalMs;
+    }
+
+    /**
+     * Drops the connection and backs off exponentially before the next attempt
+     */
+    void markFailed() {
+        close();
+        int failures = ++consecutiveFailures;
+        long backoff = Math.min(MAX_BACKOFF_MS, MIN_BACKOFF_MS << Math.min(failures - 1, 5));
+        retryAtMs = System.currentTimeMillis() + backoff;
+        Log.w(TAG, this + " marked unhealthy, retrying in " + backoff + " ms");
+    }
+
+    boolean isDueForRetry(long nowMs) {
+        return !connected && nowMs >= retryAtMs;
+    }
+
+    void lock() {
+        lock.lock();
+    }
+
+    boolean tryLock() {
+        return lock.tryLock();
+    }
+
+    void unlock() {
+        lock.unlock();
+    }
+
+    boolean isBusy() {
+        return lock.isLocked();
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public double getEwmaRttMs() {
+        return ewmaRttMs;
+    }
+
+    /**
+     * Smoothed network round-trip time from heartbeats, or 0 before the first one
+     */
+    public double getSrttMs() {
+        return srttMs;
+    }
+
+    /**
+     * Mean deviation of the heartbeat round-trip time
+     */
+    public double getJitterMs() {
+        return rttVarMs;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+}
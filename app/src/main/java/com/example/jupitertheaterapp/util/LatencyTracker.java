@@ -0,0 +1,53 @@
+package com.example.jupitertheaterapp.util;
+
+import java.util.Arrays;
+
+/**
+ * Sliding window of recent latencies for one request type.
+ * Percentiles are computed on demand from a sorted copy of the window, which is cheap
+ * at this size and only happens once per request.
+ */
+public class LatencyTracker {
+    private static final int DEFAULT_WINDOW = 128;
+
+    private final double[] samples;
+    private int next;
+    private int size;
+
+    public LatencyTracker() {
+        this(DEFAULT_WINDOW);
+    }
+
+    public LatencyTracker(int window) {
+        samples = new double[window];
+    }
+
+    public synchronized void record(double latencyMs) {
+        samples[next] = latencyMs;
+        next = (next + 1) % samples.length;
+        if (size < samples.length) {
+            size++;
+        }
+    }
+
+    public synchronized int getSampleCount() {
+        return size;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the latency at that percentile, or -1 if nothing has been recorded yet
+     */
+    public double percentile(double percentile) {
+        double[] sorted;
+        synchronized (this) {
+            if (size == 0) {
+                return -1;
+            }
+            sorted = Arrays.copyOf(samples, size);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
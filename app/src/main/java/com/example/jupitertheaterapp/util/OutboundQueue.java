@@ -0,0 +1,287 @@
+package com.example.jupitertheaterapp.util;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests made while no endpoint is reachable, kept in submission order until the connection
+ * returns. Every change is mirrored to a spill file in app storage, so messages typed offline
+ * survive the process being killed and are offered again by {@link #open(File)}. Those stay in the
+ * file until {@link #settle} is called for them, so a process that dies again before resending them
+ * offers them once more.
+ */
+public class OutboundQueue {
+    private static final String TAG = "OutboundQueue";
+    private static final int DEFAULT_CAPACITY = 32;
+    static final long MAX_AGE_MS = 15 * 60 * 1000;  // Older questions are no longer worth answering
+
+    /**
+     * One queued request. The trace and callback only exist in the process that queued it.
+     */
+    static final class Entry {
+        final ServerRequest request;  // Sent as is on flush, so its idempotency key survives retries
+        final long enqueuedAtMs;
+        final long queuedAt;  // System.nanoTime() when the request was first submitted
+        final TurnTrace trace;
+        final Client.ServerResponseCallback callback;
+
+        Entry(ServerRequest request, long queuedAt, TurnTrace trace, Client.ServerResponseCallback callback) {
+            this.request = request;
+            this.enqueuedAtMs = System.currentTimeMillis();
+            this.queuedAt = queuedAt;
+            this.trace = trace;
+            this.callback = callback;
+        }
+
+        boolean isExpired(long nowMs) {
+            return nowMs - enqueuedAtMs > MAX_AGE_MS;
+        }
+    }
+
+    /**
+     * A request a previous process queued and never got an answer to, read back from the spill
+     * file. Resent with {@link Client#resend}, under its original idempotency key if the
+     * conversation is still where it was asked.
+     */
+    public static final class Leftover {
+        final String type;
+        final String category;
+        final String message;
+        final String idempotencyKey;
+        final List<String> missingSlots;
+        final long enqueuedAtMs;
+
+        Leftover(String type, String category, String message, String idempotencyKey, List<String> missingSlots,
+                 long enqueuedAtMs) {
+            this.type = type;
+            this.category = category;
+            this.message = message;
+            this.idempotencyKey = idempotencyKey;
+            this.missingSlots = missingSlots;
+            this.enqueuedAtMs = enqueuedAtMs;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        String getRoute() {
+            return ServerRequest.routeOf(type, category);
+        }
+    }
+
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    // Read back by open() and not yet resent; spilled ahead of the entries until settled
+    private final List<Leftover> unsettled = new ArrayList<>();
+    private final int capacity;
+    private File spillFile;
+
+    // Spill writes run in order on one thread that exits when idle
+    private final ThreadPoolExecutor spillExecutor = new ThreadPoolExecutor(
+            1, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+
+    public OutboundQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public OutboundQueue(int capacity) {
+        this.capacity = capacity;
+        spillExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Starts mirroring the queue to the given file and returns the requests a previous process
+     * left in it, oldest first. Expired requests are dropped. The rest stay in the file until
+     * {@link #settle} is called for each. Call before anything is queued.
+     */
+    public List<Leftover> open(File file) {
+        List<Leftover> leftovers = new ArrayList<>();
+        if (file.exists()) {
+            long now = System.currentTimeMillis();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(file), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    JSONObject spilled = new JSONObject(line);
+                    if (now - spilled.optLong("enqueued_at", 0) <= MAX_AGE_MS) {
+                        leftovers.add(readLeftover(spilled));
+                    }
+                }
+            } catch (IOException | JSONException e) {
+                Log.e(TAG, "Error reading spilled requests, discarding them", e);
+            }
+            Log.d(TAG, "Restored " + leftovers.size() + " spilled request(s)");
+        }
+
+        synchronized (this) {
+            spillFile = file;
+            unsettled.addAll(leftovers);
+            scheduleSpill();
+        }
+        return leftovers;
+    }
+
+    private static Leftover readLeftover(JSONObject spilled) throws JSONException {
+        String route = spilled.getString("route");
+        int separator = route.indexOf('|');
+        if (separator < 0) {
+            throw new JSONException("Malformed route: " + route);
+        }
+        List<String> missingSlots = Collections.emptyList();
+        JSONArray slots = spilled.optJSONArray("missing_slots");
+        if (slots != null && slots.length() > 0) {
+            missingSlots = new ArrayList<>(slots.length());
+            for (int i = 0; i < slots.length(); i++) {
+                missingSlots.add(slots.getString(i));
+            }
+        }
+        return new Leftover(route.substring(0, separator), route.substring(separator + 1),
+                spilled.getString("message"),
+                // Spilled before keys were kept; the server treats it as a new request
+                spilled.optString("idempotency_key", UUID.randomUUID().toString()), missingSlots,
+                spilled.optLong("enqueued_at", 0));
+    }
+
+    /**
+     * Drops a leftover from the spill file once it has been answered, failed or queued again
+     */
+    public synchronized void settle(Leftover leftover) {
+        if (unsettled.remove(leftover)) {
+            scheduleSpill();
+        }
+    }
+
+    /**
+     * Appends an entry
+     * @return false if the queue is full
+     */
+    synchronized boolean offer(Entry entry) {
+        if (entries.size() >= capacity) {
+            return false;
+        }
+        entries.addLast(entry);
+        scheduleSpill();
+        return true;
+    }
+
+    /**
+     * Removes and returns everything queued, oldest first
+     */
+    synchronized List<Entry> drain() {
+        List<Entry> drained = new ArrayList<>(entries);
+        entries.clear();
+        scheduleSpill();
+        return drained;
+    }
+
+    /**
+     * Puts entries that could not be sent back at the head of the queue, keeping their order
+     */
+    synchronized void requeue(List<Entry> unsent) {
+        for (int i = unsent.size() - 1; i >= 0; i--) {
+            entries.addFirst(unsent.get(i));
+        }
+        scheduleSpill();
+    }
+
+    public synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Snapshots the queue and writes it out on the spill thread. Must be called with the lock held.
+     */
+    private void scheduleSpill() {
+        File file = spillFile;
+        if (file == null) {
+            return;
+        }
+        StringBuilder contents = new StringBuilder();
+        try {
+            Set<String> queuedKeys = new HashSet<>();
+            for (Entry entry : entries) {
+                queuedKeys.add(entry.request.idempotencyKey);
+            }
+            for (Leftover leftover : unsettled) {
+                // Queued again under its own key but not settled yet; spill it once
+                if (!queuedKeys.contains(leftover.idempotencyKey)) {
+                    appendSpilled(contents, leftover.message, leftover.getRoute(), leftover.idempotencyKey,
+                            leftover.missingSlots, leftover.enqueuedAtMs);
+                }
+            }
+            for (Entry entry : entries) {
+                appendSpilled(contents, entry.request.message, entry.request.getRoute(),
+                        entry.request.idempotencyKey, entry.request.missingSlots, entry.enqueuedAtMs);
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Error encoding spilled request", e);
+            return;
+        }
+        spillExecutor.execute(() -> writeSpill(file, contents.toString()));
+    }
+
+    private static void appendSpilled(StringBuilder contents, String message, String route, String idempotencyKey,
+                                      List<String> missingSlots, long enqueuedAtMs) throws JSONException {
+        JSONObject spilled = new JSONObject();
+        spilled.put("message", message);
+        spilled.put("route", route);
+        spilled.put("idempotency_key", idempotencyKey);
+        if (!missingSlots.isEmpty()) {
+            spilled.put("missing_slots", new JSONArray(missingSlots));
+        }
+        spilled.put("enqueued_at", enqueuedAtMs);
+        contents.append(spilled.toString()).append('\n');
+    }
+
+    /**
+     * Replaces the spill file atomically, so a crash mid-write leaves the previous version
+     */
+    private static void writeSpill(File file, String contents) {
+        if (contents.isEmpty()) {
+            if (file.exists() && !file.delete()) {
+                Log.w(TAG, "Could not delete " + file);
+            }
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+            writer.write(contents);
+        } catch (IOException e) {
+            Log.e(TAG, "Error spilling queued requests", e);
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            Log.e(TAG, "Could not replace " + file);
+        }
+    }
+}
@@ -0,0 +1,475 @@
+package com.example.jupitertheaterapp.util;
+
+import org.json.JSONException;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Pull parser for server replies that reads UTF-8 JSON straight from a byte buffer, in the style of
+ * android.util.JsonReader but without decoding the whole line to chars first. Names can be matched
+ * against a table of pre-encoded names with {@link #selectName(byte[][])}, so known fields are
+ * dispatched without allocating and unknown ones are skipped without being materialized.
+ * Separators are only checked as far as needed to find the next token; replies come from our own server.
+ * Not thread-safe: each {@link Endpoint} owns one and uses it under its lock.
+ */
+public class ReplyDecoder {
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    // Powers of ten that are exact doubles, for the fast decimal path
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private byte[] buffer = new byte[0];
+    private int pos;
+    private int limit;
+
+    // The token found by peek(); for names and strings, the index of the closing quote
+    private Token peeked;
+    private int stringEnd;
+    private boolean stringEscaped;
+
+    // Scratch space for strings containing escapes
+    private byte[] unescaped = new byte[64];
+
+    /**
+     * Starts decoding the given bytes. The buffer is read in place and must not change while decoding.
+     */
+    public ReplyDecoder reset(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.pos = offset;
+        this.limit = offset + length;
+        this.peeked = null;
+        return this;
+    }
+
+    public Token peek() throws JSONException {
+        if (peeked != null) {
+            return peeked;
+        }
+        // Commas and colons only separate tokens, so they are skipped like whitespace
+        while (pos < limit) {
+            byte b = buffer[pos];
+            if (b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == ',' || b == ':') {
+                pos++;
+            } else {
+                break;
+            }
+        }
+        if (pos >= limit) {
+            return peeked = Token.END_DOCUMENT;
+        }
+        switch (buffer[pos]) {
+            case '{':
+                return peeked = Token.BEGIN_OBJECT;
+            case '}':
+                return peeked = Token.END_OBJECT;
+            case '[':
+                return peeked = Token.BEGIN_ARRAY;
+            case ']':
+                return peeked = Token.END_ARRAY;
+            case '"':
+                scanString();
+                // A string followed by a colon is a name
+                int after = stringEnd + 1;
+                while (after < limit && isWhitespace(buffer[after])) {
+                    after++;
+                }
+                return peeked = after < limit && buffer[after] == ':' ? Token.NAME : Token.STRING;
+            case 't':
+            case 'f':
+                return peeked = Token.BOOLEAN;
+            case 'n':
+                return peeked = Token.NULL;
+            default:
+                byte b = buffer[pos];
+                if (b == '-' || (b >= '0' && b <= '9')) {
+                    return peeked = Token.NUMBER;
+                }
+                throw syntaxError("Unexpected character '" + (char) b + "'");
+        }
+    }
+
+    public boolean hasNext() throws JSONException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    public void beginObject() throws JSONException {
+        consume(Token.BEGIN_OBJECT);
+    }
+
+    public void endObject() throws JSONException {
+        consume(Token.END_OBJECT);
+    }
+
+    public void beginArray() throws JSONException {
+        consume(Token.BEGIN_ARRAY);
+    }
+
+    public void endArray() throws JSONException {
+        consume(Token.END_ARRAY);
+    }
+
+    public String nextName() throws JSONException {
+        expect(Token.NAME);
+        return takeString();
+    }
+
+    /**
+     * Consumes the next name and returns its index in the table, or -1 if it is not in it
+     * @param names names encoded as UTF-8, e.g. with {@link #names(String...)}
+     */
+    public int selectName(byte[][] names) throws JSONException {
+        expect(Token.NAME);
+        int start = pos + 1;
+        int length = stringEnd - start;
+        int selected = -1;
+        if (!stringEscaped) {
+            for (int i = 0; i < names.length; i++) {
+                byte[] name = names[i];
+                if (name.length == length && regionMatches(name, start)) {
+                    selected = i;
+                    break;
+                }
+            }
+        }
+        pos = stringEnd + 1;
+        peeked = null;
+        return selected;
+    }
+
+    /**
+     * Returns the next string; numbers and booleans are returned as their text
+     */
+    public String nextString() throws JSONException {
+        Token token = peek();
+        if (token == Token.STRING) {
+            return takeString();
+        }
+        if (token == Token.NUMBER || token == Token.BOOLEAN) {
+            int start = pos;
+            skipLiteral();
+            return new String(buffer, start, pos - start, StandardCharsets.US_ASCII);
+        }
+        throw syntaxError("Expected STRING but was " + token);
+    }
+
+    /**
+     * Like {@link #nextString()}, but returns null for a JSON null
+     */
+    public String nextStringOrNull() throws JSONException {
+        if (peek() == Token.NULL) {
+            nextNull();
+            return null;
+        }
+        return nextString();
+    }
+
+    public boolean nextBoolean() throws JSONException {
+        expect(Token.BOOLEAN);
+        boolean value = buffer[pos] == 't';
+        skipLiteral();
+        return value;
+    }
+
+    public void nextNull() throws JSONException {
+        expect(Token.NULL);
+        skipLiteral();
+    }
+
+    /**
+     * Returns the next number as a double. Plain decimals with up to 15 significant digits are
+     * converted exactly without allocating; anything else goes through Double.parseDouble.
+     * Quoted numbers are accepted, as in JsonReader.
+     */
+    public double nextDouble() throws JSONException {
+        Token token = peek();
+        if (token == Token.STRING) {
+            return parseDouble(takeString());
+        }
+        expect(Token.NUMBER);
+        int start = pos;
+        boolean negative = buffer[pos] == '-';
+        int i = negative ? pos + 1 : pos;
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean inFraction = false;
+        boolean simple = true;
+        for (; i < limit; i++) {
+            byte b = buffer[i];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                if (mantissa != 0) {
+                    digits++;
+                }
+                if (inFraction) {
+                    fractionDigits++;
+                }
+            } else if (b == '.' && !inFraction) {
+                inFraction = true;
+            } else if (b == 'e' || b == 'E' || b == '+' || b == '-') {
+                simple = false;
+            } else {
+                break;
+            }
+        }
+        pos = i;
+        peeked = null;
+        if (simple && digits <= 15 && fractionDigits < POWERS_OF_TEN.length) {
+            double value = mantissa / POWERS_OF_TEN[fractionDigits];
+            return negative ? -value : value;
+        }
+        return parseDouble(new String(buffer, start, i - start, StandardCharsets.US_ASCII));
+    }
+
+    public long nextLong() throws JSONException {
+        Token token = peek();
+        if (token == Token.STRING) {
+            return (long) parseDouble(takeString());
+        }
+        expect(Token.NUMBER);
+        int start = pos;
+        boolean negative = buffer[pos] == '-';
+        int i = negative ? pos + 1 : pos;
+        long value = 0;
+        int digits = 0;
+        for (; i < limit && buffer[i] >= '0' && buffer[i] <= '9'; i++) {
+            value = value * 10 + (buffer[i] - '0');
+            digits++;
+        }
+        if (i < limit && (buffer[i] == '.' || buffer[i] == 'e' || buffer[i] == 'E') || digits > 18) {
+            // Not a plain integer; let the double path handle it
+            pos = start;
+            return (long) nextDouble();
+        }
+        pos = i;
+        peeked = null;
+        return negative ? -value : value;
+    }
+
+    public int nextInt() throws JSONException {
+        long value = nextLong();
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw syntaxError("Expected an int but was " + value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Skips the next value, including everything nested in it
+     */
+    public void skipValue() throws JSONException {
+        int depth = 0;
+        do {
+            Token token = peek();
+            switch (token) {
+                case BEGIN_OBJECT:
+                case BEGIN_ARRAY:
+                    depth++;
+                    pos++;
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    depth--;
+                    pos++;
+                    break;
+                case NAME:
+                case STRING:
+                    pos = stringEnd + 1;
+                    break;
+                case END_DOCUMENT:
+                    throw syntaxError("Unexpected end of input");
+                default:
+                    skipLiteral();
+            }
+            peeked = null;
+        } while (depth > 0);
+    }
+
+    /**
+     * Returns the next value as JSON text, e.g. to hand a nested object to another parser
+     */
+    public String nextRawValue() throws JSONException {
+        peek();
+        int start = pos;
+        skipValue();
+        return new String(buffer, start, pos - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encodes names once for use with {@link #selectName(byte[][])}
+     */
+    public static byte[][] names(String... names) {
+        byte[][] encoded = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            encoded[i] = names[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return encoded;
+    }
+
+    private void consume(Token token) throws JSONException {
+        expect(token);
+        pos++;
+        peeked = null;
+    }
+
+    private void expect(Token token) throws JSONException {
+        Token actual = peek();
+        if (actual != token) {
+            throw syntaxError("Expected " + token + " but was " + actual);
+        }
+    }
+
+    /**
+     * Finds the closing quote of the string starting at pos
+     */
+    private void scanString() throws JSONException {
+        stringEscaped = false;
+        for (int i = pos + 1; i < limit; i++) {
+            byte b = buffer[i];
+            if (b == '\\') {
+                stringEscaped = true;
+                i++;
+            } else if (b == '"') {
+                stringEnd = i;
+                return;
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    /**
+     * Decodes the peeked name or string and moves past it
+     */
+    private String takeString() {
+        int start = pos + 1;
+        int end = stringEnd;
+        pos = end + 1;
+        peeked = null;
+        if (!stringEscaped) {
+            return new String(buffer, start, end - start, StandardCharsets.UTF_8);
+        }
+        return unescape(start, end);
+    }
+
+    private String unescape(int start, int end) {
+        if (unescaped.length < end - start) {
+            unescaped = new byte[Math.max(unescaped.length * 2, end - start)];
+        }
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buffer[i];
+            if (b != '\\' || i + 1 >= end) {
+                unescaped[length++] = b;
+                continue;
+            }
+            byte escaped = buffer[++i];
+            switch (escaped) {
+                case 'n':
+                    unescaped[length++] = '\n';
+                    break;
+                case 'r':
+                    unescaped[length++] = '\r';
+                    break;
+                case 't':
+                    unescaped[length++] = '\t';
+                    break;
+                case 'b':
+                    unescaped[length++] = '\b';
+                    break;
+                case 'f':
+                    unescaped[length++] = '\f';
+                    break;
+                case 'u':
+                    int codePoint = hex(i + 1, end);
+                    i += 4;
+                    if (Character.isHighSurrogate((char) codePoint) && i + 6 < end
+                            && buffer[i + 1] == '\\' && buffer[i + 2] == 'u') {
+                        int low = hex(i + 3, end);
+                        if (Character.isLowSurrogate((char) low)) {
+                            codePoint = Character.toCodePoint((char) codePoint, (char) low);
+                            i += 6;
+                        }
+                    }
+                    // A \\uXXXX escape takes six bytes and its UTF-8 form at most four, so this never overflows
+                    length = appendUtf8(codePoint, length);
+                    break;
+                default:
+                    // \" \\ \/
+                    unescaped[length++] = escaped;
+            }
+        }
+        return new String(unescaped, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private int hex(int start, int end) {
+        int value = 0;
+        for (int i = start; i < start + 4 && i < end; i++) {
+            value = (value << 4) | Character.digit((char) buffer[i], 16);
+        }
+        return value;
+    }
+
+    private int appendUtf8(int codePoint, int length) {
+        if (codePoint < 0x80) {
+            unescaped[length++] = (byte) codePoint;
+        } else if (codePoint < 0x800) {
+            unescaped[length++] = (byte) (0xC0 | (codePoint >> 6));
+            unescaped[length++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else if (codePoint < 0x10000) {
+            unescaped[length++] = (byte) (0xE0 | (codePoint >> 12));
+            unescaped[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            unescaped[length++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else {
+            unescaped[length++] = (byte) (0xF0 | (codePoint >> 18));
+            unescaped[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            unescaped[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            unescaped[length++] = (byte) (0x80 | (codePoint & 0x3F));
+        }
+        return length;
+    }
+
+    /**
+     * Moves past a number, true, false or null
+     */
+    private void skipLiteral() {
+        while (pos < limit) {
+            byte b = buffer[pos];
+            if (b == ',' || b == '}' || b == ']' || b == ':' || isWhitespace(b)) {
+                break;
+            }
+            pos++;
+        }
+        peeked = null;
+    }
+
+    private boolean regionMatches(byte[] name, int start) {
+        for (int i = 0; i < name.length; i++) {
+            if (buffer[start + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    private static double parseDouble(String text) throws JSONException {
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw new JSONException("Invalid number: " + text);
+        }
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at offset " + pos);
+    }
+}
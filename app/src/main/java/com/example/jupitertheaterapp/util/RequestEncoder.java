@@ -0,0 +1,245 @@
+package com.example.jupitertheaterapp.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes request frames as UTF-8 JSON straight into a reusable byte buffer.
+ * Field names and separators are encoded once into static prefixes and strings are escaped and
+ * UTF-8 encoded in place, so once the buffer has grown to fit the largest message, encoding a
+ * request allocates nothing. Not thread-safe: each {@link Endpoint} owns one and uses it under its lock.
+ */
+public class RequestEncoder {
+    private static final int DEFAULT_CAPACITY = 512;
+
+    private static final byte[] TYPE_PREFIX = ascii("{\"type\":\"");
+    private static final byte[] CATEGORY_PREFIX = ascii("\",\"category\":\"");
+    private static final byte[] MESSAGE_PREFIX = ascii("\",\"message\":\"");
+    private static final byte[] TRACE_ID_PREFIX = ascii("\",\"trace_id\":\"");
+    private static final byte[] CLIENT_TS_PREFIX = ascii("\",\"client_ts\":");
+    private static final byte[] IDEMPOTENCY_KEY_PREFIX = ascii(",\"idempotency_key\":\"");
+    private static final byte[] MISSING_PREFIX = ascii("\",\"missing\":[\"");
+    private static final byte[] MISSING_SEPARATOR = ascii("\",\"");
+    private static final byte[] MISSING_SUFFIX = ascii("\"]}");
+    private static final byte[] REQUEST_SUFFIX = ascii("\"}");
+    private static final byte[] BATCH_PREFIX = ascii("{\"type\":\"BATCH\",\"requests\":[");
+    private static final byte[] BATCH_SUFFIX = ascii("]}");
+    private static final byte[] PING_PREFIX = ascii("{\"type\":\"PING\",\"seq\":");
+    private static final byte[] TREE_REQUEST = ascii("{\"type\":\"TREE\"}");
+    private static final byte[] HEX_DIGITS = ascii("0123456789abcdef");
+
+    /**
+     * Something that can be written as one frame, e.g. a request, a batch or a heartbeat
+     */
+    public interface Frame {
+        void encodeTo(RequestEncoder encoder);
+    }
+
+    private byte[] buffer;
+    private int length;
+
+    public RequestEncoder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public RequestEncoder(int initialCapacity) {
+        buffer = new byte[initialCapacity];
+    }
+
+    /**
+     * Encodes the frame followed by the newline that terminates it on the wire
+     */
+    public RequestEncoder encodeLine(Frame frame) {
+        length = 0;
+        frame.encodeTo(this);
+        ensureCapacity(1);
+        buffer[length++] = '\n';
+        return this;
+    }
+
+    void request(ServerRequest request) {
+        append(TYPE_PREFIX);
+        appendString(request.type);
+        append(CATEGORY_PREFIX);
+        appendString(request.category);
+        append(MESSAGE_PREFIX);
+        appendString(request.message);
+        append(TRACE_ID_PREFIX);
+        appendString(request.traceId);
+        append(CLIENT_TS_PREFIX);
+        appendLong(request.clientTs);
+        append(IDEMPOTENCY_KEY_PREFIX);
+        appendString(request.idempotencyKey);
+        List<String> missing = request.missingSlots;
+        if (missing.isEmpty()) {
+            append(REQUEST_SUFFIX);
+            return;
+        }
+        append(MISSING_PREFIX);
+        for (int i = 0; i < missing.size(); i++) {
+            if (i > 0) {
+                append(MISSING_SEPARATOR);
+            }
+            appendString(missing.get(i));
+        }
+        append(MISSING_SUFFIX);
+    }
+
+    void batch(List<ServerRequest> requests) {
+        append(BATCH_PREFIX);
+        for (int i = 0; i < requests.size(); i++) {
+            if (i > 0) {
+                ensureCapacity(1);
+                buffer[length++] = ',';
+            }
+            request(requests.get(i));
+        }
+        append(BATCH_SUFFIX);
+    }
+
+    void ping(long seq) {
+        append(PING_PREFIX);
+        appendLong(seq);
+        ensureCapacity(1);
+        buffer[length++] = '}';
+    }
+
+    void treeRequest() {
+        append(TREE_REQUEST);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, length);
+    }
+
+    /**
+     * Copies the encoded bytes; meant for tests and logging, not the send path
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private void append(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    /**
+     * Appends the contents of a JSON string, escaped and encoded as UTF-8. The quotes come from the prefixes.
+     */
+    private void appendString(String value) {
+        int n = value.length();
+        for (int i = 0; i < n; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c == '"' || c == '\\') {
+                    ensureCapacity(2);
+                    buffer[length++] = '\\';
+                    buffer[length++] = (byte) c;
+                } else if (c < 0x20) {
+                    appendControl(c);
+                } else {
+                    ensureCapacity(1);
+                    buffer[length++] = (byte) c;
+                }
+            } else if (c < 0x800) {
+                ensureCapacity(2);
+                buffer[length++] = (byte) (0xC0 | (c >> 6));
+                buffer[length++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                ensureCapacity(4);
+                buffer[length++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[length++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate: replace it, as String.getBytes would
+                ensureCapacity(1);
+                buffer[length++] = '?';
+            } else {
+                ensureCapacity(3);
+                buffer[length++] = (byte) (0xE0 | (c >> 12));
+                buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[length++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void appendControl(char c) {
+        ensureCapacity(6);
+        buffer[length++] = '\\';
+        switch (c) {
+            case '\n':
+                buffer[length++] = 'n';
+                break;
+            case '\r':
+                buffer[length++] = 'r';
+                break;
+            case '\t':
+                buffer[length++] = 't';
+                break;
+            case '\b':
+                buffer[length++] = 'b';
+                break;
+            case '\f':
+                buffer[length++] = 'f';
+                break;
+            default:
+                buffer[length++] = 'u';
+                buffer[length++] = '0';
+                buffer[length++] = '0';
+                buffer[length++] = HEX_DIGITS[c >> 4];
+                buffer[length++] = HEX_DIGITS[c & 0xF];
+        }
+    }
+
+    /**
+     * Appends a decimal number without going through Long.toString
+     */
+    private void appendLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            append(ascii(Long.toString(value)));
+            return;
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            buffer[length++] = '-';
+            value = -value;
+        }
+        int start = length;
+        do {
+            buffer[length++] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        // Digits were written least significant first
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            byte digit = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = digit;
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.jupitertheaterapp.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntSupplier;
+
+/**
+ * Decides which outbound request goes on the wire next. Each connection carries one request at a
+ * time, so a burst of slow LLM extractions used to occupy every connection while a quick
+ * categorization waited behind them. Requests now wait in one lane per kind of traffic. Whenever a
+ * connection frees up, the lanes take turns by weight (smooth weighted round robin), and each lane
+ * has an in-flight limit, so extractions can never take every connection.
+ * <p>
+ * Control requests, such as the exit, are never held: they go out at once even when every
+ * connection is busy. Hedge legs are not scheduled here; they only go to a connection the request
+ * has not used yet. Thread-safe.
+ */
+final class RequestScheduler {
+    static final String EXIT_CATEGORY = "ΕΞΟΔΟΣ";  // Sent by Client.exit() when the session ends
+
+    enum Lane {
+        CONTROL(8, Integer.MAX_VALUE),
+        CATEGORISE(3, 2),
+        EXTRACT(1, 1);
+
+        final int weight;
+        final int maxInFlight;
+
+        Lane(int weight, int maxInFlight) {
+            this.weight = weight;
+            this.maxInFlight = maxInFlight;
+        }
+    }
+
+    /**
+     * The lane for a request: the exit is control traffic, categorizations are short, extractions are heavy
+     */
+    static Lane laneOf(String type, String category) {
+        if (EXIT_CATEGORY.equals(category)) {
+            return Lane.CONTROL;
+        }
+        return "EXTRACT".equals(type) ? Lane.EXTRACT : Lane.CATEGORISE;
+    }
+
+    private static final Lane[] LANES = Lane.values();
+
+    // How many requests may be in flight at once, normally the number of connected endpoints
+    private final IntSupplier capacity;
+    private final ArrayDeque<?>[] waiting = new ArrayDeque<?>[LANES.length];
+    private final int[] inFlight = new int[LANES.length];
+    // Smooth weighted round robin credit per lane
+    private final int[] credit = new int[LANES.length];
+    private final long[] dispatched = new long[LANES.length];
+    private int totalInFlight;
+
+    RequestScheduler(IntSupplier capacity) {
+        this.capacity = capacity;
+        for (int i = 0; i < LANES.length; i++) {
+            waiting[i] = new ArrayDeque<Runnable>();
+        }
+    }
+
+    /**
+     * Runs the job once its lane's turn comes; the job must call {@link #done(Lane)} when its
+     * request has been answered or has failed. The job may run on the calling thread.
+     */
+    void submit(Lane lane, Runnable job) {
+        synchronized (this) {
+            waitingIn(lane).addLast(job);
+        }
+        dispatch();
+    }
+
+    /**
+     * Frees the request's slot and starts whatever may go next
+     */
+    void done(Lane lane) {
+        synchronized (this) {
+            inFlight[lane.ordinal()]--;
+            totalInFlight--;
+        }
+        dispatch();
+    }
+
+    /**
+     * Starts waiting requests while there is room, e.g. after a connection has been opened
+     */
+    void dispatch() {
+        List<Runnable> ready = new ArrayList<>();
+        synchronized (this) {
+            // A request started with nothing connected fails over to the offline queue, so never wait on 0
+            int limit = Math.max(1, capacity.getAsInt());
+            Runnable job;
+            while ((job = next(limit)) != null) {
+                ready.add(job);
+            }
+        }
+        // Started outside the lock; a job may complete and call done() right away
+        for (Runnable job : ready) {
+            job.run();
+        }
+    }
+
+    synchronized int getWaitingCount() {
+        int count = 0;
+        for (ArrayDeque<?> lane : waiting) {
+            count += lane.size();
+        }
+        return count;
+    }
+
+    synchronized long getDispatchedCount(Lane lane) {
+        return dispatched[lane.ordinal()];
+    }
+
+    /**
+     * Takes the next job by weight among the lanes that have one waiting and are below their
+     * limits, or null if none may start now
+     */
+    private Runnable next(int limit) {
+        Lane chosen = null;
+        int totalWeight = 0;
+        for (Lane lane : LANES) {
+            int i = lane.ordinal();
+            boolean bypassesCapacity = lane == Lane.CONTROL;
+            if (waiting[i].isEmpty() || inFlight[i] >= lane.maxInFlight
+                    || (!bypassesCapacity && totalInFlight >= limit)) {
+                continue;
+            }
+            credit[i] += lane.weight;
+            totalWeight += lane.weight;
+            if (chosen == null || credit[i] > credit[chosen.ordinal()]) {
+                chosen = lane;
+            }
+        }
+        if (chosen == null) {
+            return null;
+        }
+        int i = chosen.ordinal();
+        credit[i] -= totalWeight;
+        inFlight[i]++;
+        totalInFlight++;
+        dispatched[i]++;
+        return waitingIn(chosen).pollFirst();
+    }
+
+    @SuppressWarnings("unchecked")
+    private ArrayDeque<Runnable> waitingIn(Lane lane) {
+        return (ArrayDeque<Runnable>) waiting[lane.ordinal()];
+    }
+}
@@ -0,0 +1,215 @@
+package com.example.jupitertheaterapp.util;
+
+import com.example.jupitertheaterapp.model.MsgTemplate;
+import com.example.jupitertheaterapp.model.TemplatePool;
+
+import org.json.JSONException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The parts of a server reply the client acts on, decoded on the I/O thread with a {@link ReplyDecoder}.
+ * Unknown fields are skipped without being materialized, and "details" is decoded straight into the
+ * {@link MsgTemplate} for the reply's category.
+ */
+final class ServerReply {
+    private static final byte[][] FIELDS = ReplyDecoder.names(
+            "type", "category", "error", "details", "trace_id", "timings", "seq", "responses",
+            "tree_version", "tree");
+    private static final int TYPE = 0;
+    private static final int CATEGORY = 1;
+    private static final int ERROR = 2;
+    private static final int DETAILS = 3;
+    private static final int TRACE_ID = 4;
+    private static final int TIMINGS = 5;
+    private static final int SEQ = 6;
+    private static final int RESPONSES = 7;
+    private static final int TREE_VERSION = 8;
+    private static final int TREE = 9;
+
+    private static final byte[][] TIMING_FIELDS = ReplyDecoder.names(
+            "queue_ms", "llm_ms", "serialize_ms", "server_ms");
+    private static final int QUEUE_MS = 0;
+    private static final int LLM_MS = 1;
+    private static final int SERIALIZE_MS = 2;
+    private static final int SERVER_MS = 3;
+
+    String type;
+    String category;
+    String error;
+    MsgTemplate template;  // Filled from "details", or null if the category has no template
+    String traceId;
+    long seq = -1;
+    List<ServerReply> responses;
+    long treeVersion = -1;  // The conversation tree version the server offers, from a PONG
+    String tree;  // The conversation tree JSON, from a TREE reply
+
+    boolean hasTimings;
+    double queueMs = TurnTrace.UNKNOWN;
+    double llmMs = TurnTrace.UNKNOWN;
+    double serializeMs = TurnTrace.UNKNOWN;
+    double serverMs = TurnTrace.UNKNOWN;
+
+    // "details" seen before "category"; decoded once the category is known
+    private String detailsJson;
+    // Where templates come from; null allocates fresh ones
+    private TemplatePool templates;
+
+    // Set instead of throwing, so a malformed reply is reported to the caller rather than failed over
+    String malformed;
+
+    /**
+     * Decodes one reply. Never throws; check {@link #malformed}.
+     */
+    static ServerReply decode(ReplyDecoder decoder) {
+        return decode(decoder, null);
+    }
+
+    /**
+     * Decodes one reply, filling templates obtained from the pool. Never throws; check {@link #malformed}.
+     */
+    static ServerReply decode(ReplyDecoder decoder, TemplatePool templates) {
+        ServerReply reply = new ServerReply();
+        reply.templates = templates;
+        try {
+            reply.read(decoder);
+        } catch (JSONException e) {
+            reply.malformed = e.getMessage();
+        }
+        return reply;
+    }
+
+    private void read(ReplyDecoder decoder) throws JSONException {
+        decoder.beginObject();
+        while (decoder.hasNext()) {
+            switch (decoder.selectName(FIELDS)) {
+                case TYPE:
+                    type = decoder.nextStringOrNull();
+                    break;
+                case CATEGORY:
+                    category = decoder.nextStringOrNull();
+                    break;
+                case ERROR:
+                    error = decoder.nextStringOrNull();
+                    break;
+                case DETAILS:
+                    if (category != null) {
+                        readDetails(decoder);
+                    } else if (decoder.peek() == ReplyDecoder.Token.BEGIN_OBJECT) {
+                        // Which template to fill is only known once the category has been read
+                        detailsJson = decoder.nextRawValue();
+                    } else {
+                        decoder.skipValue();
+                    }
+                    break;
+                case TRACE_ID:
+                    traceId = decoder.nextStringOrNull();
+                    break;
+                case TIMINGS:
+                    readTimings(decoder);
+                    break;
+                case SEQ:
+                    if (decoder.peek() == ReplyDecoder.Token.NULL) {
+                        decoder.nextNull();
+                    } else {
+                        seq = decoder.nextLong();
+                    }
+                    break;
+                case RESPONSES:
+                    responses = new ArrayList<>();
+                    decoder.beginArray();
+                    while (decoder.hasNext()) {
+                        ServerReply response = new ServerReply();
+                        response.templates = templates;
+                        response.read(decoder);
+                        responses.add(response);
+                    }
+                    decoder.endArray();
+                    break;
+                case TREE_VERSION:
+                    if (decoder.peek() == ReplyDecoder.Token.NULL) {
+                        decoder.nextNull();
+                    } else {
+                        treeVersion = decoder.nextLong();
+                    }
+                    break;
+                case TREE:
+                    if (decoder.peek() == ReplyDecoder.Token.BEGIN_OBJECT) {
+                        // Kept as JSON; the tree is parsed and validated by the ChatbotManager
+                        tree = decoder.nextRawValue();
+                    } else {
+                        decoder.skipValue();
+                    }
+                    break;
+                default:
+                    decoder.skipValue();
+            }
+        }
+        decoder.endObject();
+
+        if (detailsJson != null && category != null) {
+            byte[] details = detailsJson.getBytes(StandardCharsets.UTF_8);
+            readDetails(new ReplyDecoder().reset(details, 0, details.length));
+        }
+        detailsJson = null;
+    }
+
+    private void readDetails(ReplyDecoder decoder) throws JSONException {
+        if (!MsgTemplate.hasTemplate(category) || decoder.peek() != ReplyDecoder.Token.BEGIN_OBJECT) {
+            decoder.skipValue();
+            return;
+        }
+        MsgTemplate details = templates != null
+                ? templates.obtain(category)
+                : MsgTemplate.createTemplate(category);
+        template = details;
+        details.valuesFromDecoder(decoder);
+    }
+
+    /**
+     * Returns this reply's templates, and those of a batch's responses, to the pool they came from.
+     * For replies that are dropped instead of being delivered.
+     */
+    void recycleTemplates() {
+        if (templates == null) {
+            return;
+        }
+        templates.recycle(template);
+        template = null;
+        if (responses != null) {
+            for (ServerReply response : responses) {
+                response.recycleTemplates();
+            }
+        }
+    }
+
+    private void readTimings(ReplyDecoder decoder) throws JSONException {
+        if (decoder.peek() != ReplyDecoder.Token.BEGIN_OBJECT) {
+            decoder.skipValue();
+            return;
+        }
+        hasTimings = true;
+        decoder.beginObject();
+        while (decoder.hasNext()) {
+            switch (decoder.selectName(TIMING_FIELDS)) {
+                case QUEUE_MS:
+                    queueMs = decoder.nextDouble();
+                    break;
+                case LLM_MS:
+                    llmMs = decoder.nextDouble();
+                    break;
+                case SERIALIZE_MS:
+                    serializeMs = decoder.nextDouble();
+                    break;
+                case SERVER_MS:
+                    serverMs = decoder.nextDouble();
+                    break;
+                default:
+                    decoder.skipValue();
+            }
+        }
+        decoder.endObject();
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.jupitertheaterapp.util;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One CATEGORISE or EXTRACT request as it goes on the wire. Immutable, so hedged legs,
+ * failover attempts and the offline queue share one instance and encode it whenever they send it.
+ */
+final class ServerRequest {
+    final String type;
+    final String category;
+    final String message;
+    final String traceId;
+    final long clientTs;
+    final String idempotencyKey;
+    // Slots an EXTRACT still needs; empty asks for all of them
+    final List<String> missingSlots;
+
+    ServerRequest(String type, String category, String message, String traceId, long clientTs,
+                  String idempotencyKey) {
+        this(type, category, message, traceId, clientTs, idempotencyKey, Collections.emptyList());
+    }
+
+    ServerRequest(String type, String category, String message, String traceId, long clientTs,
+                  String idempotencyKey, List<String> missingSlots) {
+        this.type = type;
+        this.category = category;
+        this.message = message;
+        this.traceId = traceId;
+        this.clientTs = clientTs;
+        this.idempotencyKey = idempotencyKey;
+        this.missingSlots = missingSlots;
+    }
+
+    /**
+     * Identifies what the request asks for independently of its message, e.g. "EXTRACT|ΚΡΑΤΗΣΗ"
+     */
+    String getRoute() {
+        return routeOf(type, category);
+    }
+
+    static String routeOf(String type, String category) {
+        return type + "|" + category;
+    }
+}
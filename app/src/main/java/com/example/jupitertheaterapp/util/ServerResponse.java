@@ -0,0 +1,32 @@
+package com.example.jupitertheaterapp.util;
+
+import com.example.jupitertheaterapp.model.MsgTemplate;
+
+/**
+ * A validated answer to one CATEGORISE or EXTRACT request, fully decoded before it reaches the main thread
+ */
+public class ServerResponse {
+    private final String nodeId;
+    private final MsgTemplate template;
+
+    ServerResponse(String nodeId, MsgTemplate template) {
+        this.nodeId = nodeId;
+        this.template = template;
+    }
+
+    /**
+     * The node the conversation moves to; always one of the tree's category IDs
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * The extracted slots for EXTRACT requests, or null if the server sent none or the message was
+     * answered on the device, whose slots ChatbotManager.extractLocally has already merged.
+     * The template comes from the session's pool; hand it to ChatbotManager.mergeSlots, which recycles it.
+     */
+    public MsgTemplate getTemplate() {
+        return template;
+    }
+}
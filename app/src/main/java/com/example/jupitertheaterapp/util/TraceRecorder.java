@@ -0,0 +1,167 @@
+package com.example.jupitertheaterapp.util;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the most recent {@link TurnTrace}s in a fixed-size ring and exports them
+ * in the Chrome trace event format, which opens directly in Perfetto or chrome://tracing.
+ */
+public class TraceRecorder {
+    private static final int DEFAULT_CAPACITY = 512;
+
+    private final TurnTrace[] ring;
+    private int next;
+    private int size;
+
+    public TraceRecorder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public TraceRecorder(int capacity) {
+        ring = new TurnTrace[capacity];
+    }
+
+    public synchronized void record(TurnTrace trace) {
+        ring[next] = trace;
+        next = (next + 1) % ring.length;
+        if (size < ring.length) {
+            size++;
+        }
+    }
+
+    /**
+     * Returns the recorded traces, oldest first
+     */
+    public synchronized List<TurnTrace> snapshot() {
+        List<TurnTrace> traces = new ArrayList<>(size);
+        int start = (next - size + ring.length) % ring.length;
+        for (int i = 0; i < size; i++) {
+            traces.add(ring[(start + i) % ring.length]);
+        }
+        return traces;
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = null;
+        }
+        next = 0;
+        size = 0;
+    }
+
+    /**
+     * Writes all recorded traces to the given file, replacing its contents
+     */
+    public void exportTo(File file) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(toChromeTrace(snapshot()).toString());
+        } catch (JSONException e) {
+            throw new IOException("Error encoding trace file", e);
+        }
+    }
+
+    /**
+     * Lays every turn out as one track: the whole turn, the client stages in order,
+     * and the server stages placed in the middle of the round trip.
+     */
+    static JSONObject toChromeTrace(List<TurnTrace> traces) throws JSONException {
+        JSONArray events = new JSONArray();
+        int track = 0;
+        for (TurnTrace trace : traces) {
+            track++;
+            long turnStartUs = trace.getClientSendEpochMs() * 1000L;
+            JSONObject args = traceArgs(trace);
+
+            addEvent(events, "turn " + trace.getRequestType(), "turn", turnStartUs, trace.getTotalMs(), track, args);
+
+            long cursorUs = turnStartUs;
+            cursorUs = addEvent(events, "client queue", "client", cursorUs, trace.getClientQueueMs(), track, null);
+            cursorUs = addEvent(events, "write", "client", cursorUs, trace.getWriteMs(), track, null);
+            long roundTripStartUs = cursorUs;
+            long afterRoundTripUs = addEvent(events, "round trip", "network", cursorUs, trace.getRoundTripMs(), track, null);
+            addEvent(events, "decode", "client", afterRoundTripUs, trace.getDecodeMs(), track, null);
+
+            if (trace.hasServerTimings()) {
+                // Assume the network time is split evenly between both directions
+                long serverStartUs = roundTripStartUs + toMicros(trace.getNetworkMs() / 2);
+                long serverCursorUs = addEvent(events, "server queue", "server", serverStartUs,
+                        trace.getServerQueueMs(), track, null);
+                serverCursorUs = addEvent(events, "server llm", "server", serverCursorUs,
+                        trace.getServerLlmMs(), track, null);
+                addEvent(events, "server serialize", "server", serverCursorUs,
+                        trace.getServerSerializeMs(), track, null);
+            }
+        }
+
+        JSONObject root = new JSONObject();
+        root.put("traceEvents", events);
+        root.put("displayTimeUnit", "ms");
+        return root;
+    }
+
+    private static JSONObject traceArgs(TurnTrace trace) throws JSONException {
+        JSONObject args = new JSONObject();
+        args.put("trace_id", trace.getTraceId());
+        args.put("type", trace.getRequestType());
+        args.put("category", trace.getCategory());
+        if (trace.getEndpoint() != null) {
+            args.put("endpoint", trace.getEndpoint());
+        }
+        args.put("hedged", trace.isHedged());
+        args.put("hedge_won", trace.isHedgeWon());
+        args.put("client_queue_ms", trace.getClientQueueMs());
+        args.put("write_ms", trace.getWriteMs());
+        args.put("round_trip_ms", trace.getRoundTripMs());
+        args.put("network_ms", trace.getNetworkMs());
+        args.put("decode_ms", trace.getDecodeMs());
+        args.put("server_queue_ms", trace.getServerQueueMs());
+        args.put("server_llm_ms", trace.getServerLlmMs());
+        args.put("server_serialize_ms", trace.getServerSerializeMs());
+        args.put("server_ms", trace.getServerTotalMs());
+        args.put("total_ms", trace.getTotalMs());
+        if (trace.getError() != null) {
+            args.put("error", trace.getError());
+        }
+        return args;
+    }
+
+    /**
+     * Appends a complete ("X") event and returns the timestamp where it ends.
+     * Stages with an unknown duration are skipped.
+     */
+    private static long addEvent(JSONArray events, String name, String category, long startUs,
+                                 double durationMs, int track, JSONObject args) throws JSONException {
+        if (durationMs == TurnTrace.UNKNOWN) {
+            return startUs;
+        }
+        long durationUs = toMicros(durationMs);
+        JSONObject event = new JSONObject();
+        event.put("name", name);
+        event.put("cat", category);
+        event.put("ph", "X");
+        event.put("ts", startUs);
+        event.put("dur", durationUs);
+        event.put("pid", 1);
+        event.put("tid", track);
+        if (args != null) {
+            event.put("args", args);
+        }
+        events.put(event);
+        return startUs + durationUs;
+    }
+
+    private static long toMicros(double millis) {
+        return Math.round(millis * 1000.0);
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.jupitertheaterapp.util;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logs every request frame the client sends and the reply frame it gets back, with when it was sent
+ * and how long the reply took, so real traffic can be re-driven against a server by
+ * backend/Replayer.java. The log is binary and appended to across processes:
+ * <pre>
+ *   header:    int magic, short format version
+ *   exchange:  UTF session, long sent at (µs since the epoch), int round trip (µs),
+ *              int request length, request, int reply length, reply
+ * </pre>
+ * Frames are stored as sent and received, without their newlines. The session is the client's trace
+ * prefix, so a replay keeps each client's requests in order. Exchanges are copied on the I/O thread
+ * and written in order on a writer thread. Once the log passes {@link #MAX_BYTES} it is moved to a
+ * ".1" file, replacing the one before, so recording never takes more than twice that.
+ */
+public class TrafficRecorder {
+    private static final String TAG = "TrafficRecorder";
+    private static final int MAGIC = 0x4A545252;  // "JTRR"
+    private static final short FORMAT_VERSION = 1;
+    private static final long MAX_BYTES = 8 * 1024 * 1024;
+
+    private final File file;
+    private DataOutputStream out;  // Owned by the writer thread
+    private long written;
+
+    // Writes run in order on one thread that exits when idle
+    private final ThreadPoolExecutor writeExecutor = new ThreadPoolExecutor(
+            1, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+
+    public TrafficRecorder(File file) {
+        this.file = file;
+        writeExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues one exchange for the log. Safe to call from any thread; the arrays must not change afterwards.
+     * @param session the client the exchange belongs to
+     * @param sentAtMicros when the request was written, in microseconds since the epoch
+     */
+    public void record(String session, long sentAtMicros, long roundTripMicros, byte[] request, byte[] reply) {
+        try {
+            writeExecutor.execute(() -> write(session, sentAtMicros, roundTripMicros, request, reply));
+        } catch (RejectedExecutionException e) {
+            // Closed; exchanges still in flight at shutdown are not recorded
+        }
+    }
+
+    /**
+     * Writes what is queued and closes the log
+     */
+    public void close() {
+        try {
+            writeExecutor.execute(this::closeLog);
+        } catch (RejectedExecutionException e) {
+            return;
+        }
+        writeExecutor.shutdown();
+    }
+
+    private void write(String session, long sentAtMicros, long roundTripMicros, byte[] request, byte[] reply) {
+        try {
+            if (out == null) {
+                openLog();
+            }
+            out.writeUTF(session);
+            out.writeLong(sentAtMicros);
+            out.writeInt((int) Math.min(Integer.MAX_VALUE, roundTripMicros));
+            out.writeInt(request.length);
+            out.write(request);
+            out.writeInt(reply.length);
+            out.write(reply);
+            // Flushed per exchange, so a killed process loses at most the exchange being written
+            out.flush();
+            written += 22 + session.length() + request.length + reply.length;
+            if (written > MAX_BYTES) {
+                rotate();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error recording to " + file, e);
+            closeLog();
+        }
+    }
+
+    private void openLog() throws IOException {
+        boolean fresh = !file.exists() || file.length() == 0;
+        written = fresh ? 0 : file.length();
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, !fresh)));
+        if (fresh) {
+            out.writeInt(MAGIC);
+            out.writeShort(FORMAT_VERSION);
+            written += 6;
+        }
+    }
+
+    private void rotate() {
+        closeLog();
+        File previous = new File(file.getPath() + ".1");
+        if (previous.exists() && !previous.delete()) {
+            Log.w(TAG, "Could not delete " + previous);
+        }
+        if (!file.renameTo(previous)) {
+            Log.w(TAG, "Could not rotate " + file);
+        }
+    }
+
+    private void closeLog() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Error closing " + file, e);
+        }
+        out = null;
+    }
+}
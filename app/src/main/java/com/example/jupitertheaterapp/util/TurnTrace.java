@@ -0,0 +1,152 @@
+package com.example.jupitertheaterapp.util;
+
+/**
+ * Timing breakdown of a single CATEGORISE/EXTRACT round trip.
+ * Client-side stages are measured locally, server-side stages are the
+ * "timings" echoed back by the server for the same trace ID.
+ */
+public class TurnTrace {
+    public static final double UNKNOWN = -1;
+
+    private final String traceId;
+    private final String requestType;
+    private final String category;
+    private final long clientSendEpochMs;
+
+    // Client-side stages (milliseconds)
+    private double clientQueueMs = UNKNOWN;
+    private double writeMs = UNKNOWN;
+    private double roundTripMs = UNKNOWN;
+    private double decodeMs = UNKNOWN;
+    private double totalMs = UNKNOWN;
+
+    // Server-side stages (milliseconds), as reported in the reply
+    private double serverQueueMs = UNKNOWN;
+    private double serverLlmMs = UNKNOWN;
+    private double serverSerializeMs = UNKNOWN;
+    private double serverTotalMs = UNKNOWN;
+
+    private String endpoint;
+    private boolean hedged;
+    private boolean hedgeWon;
+    private String error;
+
+    public TurnTrace(String traceId, String requestType, String category, long clientSendEpochMs) {
+        this.traceId = traceId;
+        this.requestType = requestType;
+        this.category = category;
+        this.clientSendEpochMs = clientSendEpochMs;
+    }
+
+    public void setClientStages(double clientQueueMs, double writeMs, double roundTripMs) {
+        this.clientQueueMs = clientQueueMs;
+        this.writeMs = writeMs;
+        this.roundTripMs = roundTripMs;
+    }
+
+    public void setServerStages(double queueMs, double llmMs, double serializeMs, double totalMs) {
+        this.serverQueueMs = queueMs;
+        this.serverLlmMs = llmMs;
+        this.serverSerializeMs = serializeMs;
+        this.serverTotalMs = totalMs;
+    }
+
+    public void setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    public void setHedge(boolean hedged, boolean hedgeWon) {
+        this.hedged = hedged;
+        this.hedgeWon = hedgeWon;
+    }
+
+    public void finish(double decodeMs, double totalMs, String error) {
+        this.decodeMs = decodeMs;
+        this.totalMs = totalMs;
+        this.error = error;
+    }
+
+    /**
+     * Time spent on the wire: the round trip minus what the server reports
+     * for itself. Unknown if the server did not echo timings.
+     */
+    public double getNetworkMs() {
+        if (roundTripMs == UNKNOWN || serverTotalMs == UNKNOWN) {
+            return UNKNOWN;
+        }
+        return Math.max(0, roundTripMs - serverTotalMs);
+    }
+
+    public boolean hasServerTimings() {
+        return serverTotalMs != UNKNOWN;
+    }
+
+    // Getters
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public String getRequestType() {
+        return requestType;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public long getClientSendEpochMs() {
+        return clientSendEpochMs;
+    }
+
+    public double getClientQueueMs() {
+        return clientQueueMs;
+    }
+
+    public double getWriteMs() {
+        return writeMs;
+    }
+
+    public double getRoundTripMs() {
+        return roundTripMs;
+    }
+
+    public double getDecodeMs() {
+        return decodeMs;
+    }
+
+    public double getTotalMs() {
+        return totalMs;
+    }
+
+    public double getServerQueueMs() {
+        return serverQueueMs;
+    }
+
+    public double getServerLlmMs() {
+        return serverLlmMs;
+    }
+
+    public double getServerSerializeMs() {
+        return serverSerializeMs;
+    }
+
+    public double getServerTotalMs() {
+        return serverTotalMs;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public boolean isHedged() {
+        return hedged;
+    }
+
+    public boolean isHedgeWon() {
+        return hedgeWon;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.jupitertheaterapp.model;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Schedule questions answered from a ShowInfo template's slots against the season's calendar
+ */
+public class ShowInfoTemplateTest {
+    private static final LocalDate SEASON_START = LocalDate.of(2026, 10, 5);  // A Monday
+    private static final int WEEKS = 4;
+
+    private PerformanceCalendar calendar;
+
+    @Before
+    public void setUp() throws JSONException {
+        JSONArray catalog = new JSONArray()
+                .put(show("Μακρύ", "Friday", "20:00", 150, "Α"))
+                .put(show("Νύχτα", "Friday", "23:30", 100, "Α"))
+                .put(show("Ξημέρωμα", "Saturday", "00:30", 90, "Β"))
+                .put(show("Αργά", "Saturday", "02:00", 60, "Α"));
+        calendar = PerformanceCalendar.fromCatalog(catalog, SEASON_START, WEEKS);
+    }
+
+    @Test
+    public void durationMinutes_readsTheUnit() {
+        assertEquals(120, ShowInfoTemplate.durationMinutes("120 λεπτά"));
+        assertEquals(120, ShowInfoTemplate.durationMinutes("120'"));
+        assertEquals(90, ShowInfoTemplate.durationMinutes("90 min"));
+        assertEquals(120, ShowInfoTemplate.durationMinutes("2 ώρες"));
+        assertEquals(120, ShowInfoTemplate.durationMinutes("κάτω από δύο ώρες"));
+        assertEquals(60, ShowInfoTemplate.durationMinutes("μία ώρα"));
+        assertEquals(90, ShowInfoTemplate.durationMinutes("μιάμιση ώρα"));
+        assertEquals(90, ShowInfoTemplate.durationMinutes("μιάμιση"));
+        assertEquals(150, ShowInfoTemplate.durationMinutes("2 ώρες και μισή"));
+        assertEquals(105, ShowInfoTemplate.durationMinutes("1 ώρα και 45 λεπτά"));
+        assertEquals(90, ShowInfoTemplate.durationMinutes("1h30"));
+        assertEquals(90, ShowInfoTemplate.durationMinutes("1,5 h"));
+        assertEquals(120, ShowInfoTemplate.durationMinutes("2"));
+        assertEquals(0, ShowInfoTemplate.durationMinutes("απόγευμα"));
+    }
+
+    @Test
+    public void findPerformances_underTwoHours() {
+        ShowInfoTemplate template = new ShowInfoTemplate();
+        template.getDay().add(Day.FRIDAY);
+        template.getDuration().add("κάτω από δύο ώρες");
+
+        List<PerformanceCalendar.Performance> found =
+                template.findPerformances(calendar, SEASON_START.atStartOfDay(), 0);
+
+        assertEquals(WEEKS, found.size());
+        for (PerformanceCalendar.Performance performance : found) {
+            assertEquals("Νύχτα", performance.getShow());
+        }
+    }
+
+    @Test
+    public void onDays_windowPastMidnightRunsIntoTheNextDay() {
+        List<PerformanceCalendar.Performance> found = calendar.onDays(SlotSet.bit(Day.FRIDAY),
+                LocalTime.of(22, 0), LocalTime.of(1, 0), 0, Collections.emptyList(), SEASON_START.atStartOfDay(), 0);
+
+        assertEquals(2 * WEEKS, found.size());
+        LocalDateTime friday = SEASON_START.plusDays(4).atStartOfDay();
+        assertEquals(friday.withHour(23).withMinute(30), found.get(0).getStart());
+        assertEquals("Νύχτα", found.get(0).getShow());
+        assertEquals(friday.plusDays(1).withHour(0).withMinute(30), found.get(1).getStart());
+        assertEquals("Ξημέρωμα", found.get(1).getShow());
+        for (int i = 1; i < found.size(); i++) {
+            assertFalse(found.get(i).getStart().isBefore(found.get(i - 1).getStart()));
+            assertNotEquals("Αργά", found.get(i).getShow());
+        }
+    }
+
+    @Test
+    public void onDays_skipsWhatHasAlreadyStarted() {
+        LocalDateTime now = SEASON_START.plusDays(4).atTime(23, 45);
+        List<PerformanceCalendar.Performance> found = calendar.onDays(SlotSet.bit(Day.FRIDAY),
+                LocalTime.of(22, 0), LocalTime.of(1, 0), 0, Collections.emptyList(), now, 0);
+
+        assertEquals(2 * WEEKS - 1, found.size());
+        assertEquals("Ξημέρωμα", found.get(0).getShow());
+    }
+
+    @Test
+    public void onDays_stopsAtTheLimit() {
+        List<PerformanceCalendar.Performance> found = calendar.onDays(0, LocalTime.MIN, LocalTime.MAX, 0,
+                Collections.singletonList("ξημέρωμα"), SEASON_START.atStartOfDay(), 3);
+
+        assertEquals(3, found.size());
+        LocalDateTime saturday = SEASON_START.plusDays(5).atTime(0, 30);
+        for (int week = 0; week < found.size(); week++) {
+            assertEquals("Ξημέρωμα", found.get(week).getShow());
+            assertEquals(saturday.plusWeeks(week), found.get(week).getStart());
+        }
+    }
+
+    private static JSONObject show(String name, String day, String time, int duration, String room)
+            throws JSONException {
+        return new JSONObject()
+                .put("name", name)
+                .put("day", day)
+                .put("time", time)
+                .put("duration", String.valueOf(duration))
+                .put("room", room);
+    }
+}
@@ -0,0 +1,273 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Re-drives traffic recorded by the app (files/traffic.rec, see TrafficRecorder) against a server,
+ * e.g. server_app.py running locally with DUMMY_RESPONSES, and diffs the replies with the recorded ones.
+ *
+ * Each recorded session gets its own connection and sends its requests in the recorded order, one at
+ * a time, so per-session ordering is kept while sessions overlap as they did for real. Requests go out
+ * at their recorded offsets divided by the speed, or back to back with "max".
+ *
+ * Usage: java Replayer.java traffic.rec [host:port] [--speed 1|N|max] [--keep-keys]
+ *   --keep-keys  sends the recorded idempotency keys; by default each run gets fresh ones so the
+ *                server does the work again instead of answering from its idempotency cache
+ * Exits with 1 if any reply differed or failed.
+ */
+public class Replayer {
+    private static final int MAGIC = 0x4A545252;  // "JTRR"
+    private static final short FORMAT_VERSION = 1;
+    private static final int READ_TIMEOUT_MS = 60000;
+    private static final int MAX_SHOWN = 300;  // Characters of a differing reply to print
+
+    // Reply fields that differ on every run; stripped before comparing
+    private static final Pattern TIMINGS = Pattern.compile(",\\s*\"timings\":\\s*\\{[^{}]*\\}");
+    private static final Pattern DEDUPLICATED = Pattern.compile(",\\s*\"deduplicated\":\\s*true");
+    private static final Pattern IDEMPOTENCY_KEY = Pattern.compile("(\"idempotency_key\":\"[^\"]*)\"");
+    private static final Pattern TYPE = Pattern.compile("\"type\":\"([A-Z]+)\"");
+
+    static final class Exchange {
+        final String session;
+        final long sentAtMicros;
+        final int roundTripMicros;
+        final String request;
+        final String reply;
+
+        Exchange(String session, long sentAtMicros, int roundTripMicros, String request, String reply) {
+            this.session = session;
+            this.sentAtMicros = sentAtMicros;
+            this.roundTripMicros = roundTripMicros;
+            this.request = request;
+            this.reply = reply;
+        }
+    }
+
+    private final String host;
+    private final int port;
+    private final double speed;  // 0 for as fast as possible
+    private final String keySuffix;  // null to keep the recorded keys
+
+    private final List<Long> recordedMicros = new ArrayList<>();
+    private final List<Long> replayedMicros = new ArrayList<>();
+    private int matched;
+    private int differed;
+    private int failed;
+
+    Replayer(String host, int port, double speed, String keySuffix) {
+        this.host = host;
+        this.port = port;
+        this.speed = speed;
+        this.keySuffix = keySuffix;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String log = null;
+        String target = "localhost:65432";
+        double speed = 1;
+        boolean keepKeys = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--speed") && i + 1 < args.length) {
+                String value = args[++i];
+                speed = value.equals("max") ? 0 : Double.parseDouble(value);
+            } else if (args[i].equals("--keep-keys")) {
+                keepKeys = true;
+            } else if (log == null) {
+                log = args[i];
+            } else {
+                target = args[i];
+            }
+        }
+        int colon = target.lastIndexOf(':');
+        if (log == null || colon <= 0 || speed < 0) {
+            System.err.println("Usage: java Replayer.java traffic.rec [host:port] [--speed 1|N|max] [--keep-keys]");
+            System.exit(2);
+        }
+
+        Map<String, List<Exchange>> sessions = read(log);
+        int total = 0;
+        for (List<Exchange> exchanges : sessions.values()) {
+            total += exchanges.size();
+        }
+        System.out.println("Replaying " + total + " requests from " + sessions.size() + " sessions against "
+                + target + " at " + (speed == 0 ? "max speed" : speed + "x"));
+
+        Replayer replayer = new Replayer(target.substring(0, colon), Integer.parseInt(target.substring(colon + 1)),
+                speed, keepKeys ? null : "-replay" + Long.toHexString(System.currentTimeMillis()));
+        long started = System.nanoTime();
+        replayer.run(sessions);
+        double seconds = (System.nanoTime() - started) / 1e9;
+        replayer.printSummary(total, seconds);
+        System.exit(replayer.differed + replayer.failed == 0 ? 0 : 1);
+    }
+
+    /**
+     * Reads the log, grouping exchanges by session in recorded order. A record cut short by the app
+     * being killed ends the log.
+     */
+    static Map<String, List<Exchange>> read(String path) throws IOException {
+        Map<String, List<Exchange>> sessions = new LinkedHashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(path + " is not a traffic recording");
+            }
+            short version = in.readShort();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported recording format " + version);
+            }
+            while (true) {
+                Exchange exchange;
+                try {
+                    String session = in.readUTF();
+                    long sentAtMicros = in.readLong();
+                    int roundTripMicros = in.readInt();
+                    String request = readFrame(in);
+                    String reply = readFrame(in);
+                    exchange = new Exchange(session, sentAtMicros, roundTripMicros, request, reply);
+                } catch (EOFException e) {
+                    break;
+                }
+                sessions.computeIfAbsent(exchange.session, s -> new ArrayList<>()).add(exchange);
+            }
+        }
+        return sessions;
+    }
+
+    private static String readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new EOFException();
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Replays every session on its own thread and waits for all of them
+     */
+    void run(Map<String, List<Exchange>> sessions) throws InterruptedException {
+        long firstMicros = Long.MAX_VALUE;
+        for (List<Exchange> exchanges : sessions.values()) {
+            firstMicros = Math.min(firstMicros, exchanges.get(0).sentAtMicros);
+        }
+        long startNanos = System.nanoTime();
+        List<Thread> threads = new ArrayList<>();
+        for (List<Exchange> exchanges : sessions.values()) {
+            long origin = firstMicros;
+            Thread thread = new Thread(() -> replaySession(exchanges, origin, startNanos));
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private void replaySession(List<Exchange> exchanges, long originMicros, long startNanos) {
+        String session = exchanges.get(0).session;
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), READ_TIMEOUT_MS);
+            socket.setSoTimeout(READ_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            for (int i = 0; i < exchanges.size(); i++) {
+                Exchange exchange = exchanges.get(i);
+                if (speed > 0) {
+                    // A request late because the previous reply was slow goes out at once
+                    long dueNanos = startNanos + (long) ((exchange.sentAtMicros - originMicros) * 1000 / speed);
+                    long waitNanos = dueNanos - System.nanoTime();
+                    if (waitNanos > 0) {
+                        Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+                    }
+                }
+                long sent = System.nanoTime();
+                out.write((withKey(exchange.request) + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                String reply = in.readLine();
+                long roundTripMicros = (System.nanoTime() - sent) / 1000;
+                if (reply == null) {
+                    throw new IOException("Server closed the connection");
+                }
+                compare(session, i, exchange, reply, roundTripMicros);
+            }
+        } catch (IOException | InterruptedException e) {
+            synchronized (this) {
+                // Nothing after the failure in this session was replayed
+                failed++;
+                System.out.println("FAILED " + session + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private String withKey(String request) {
+        if (keySuffix == null) {
+            return request;
+        }
+        return IDEMPOTENCY_KEY.matcher(request).replaceFirst("$1" + keySuffix + "\"");
+    }
+
+    private synchronized void compare(String session, int index, Exchange exchange, String reply, long roundTripMicros) {
+        recordedMicros.add((long) exchange.roundTripMicros);
+        replayedMicros.add(roundTripMicros);
+        if (normalize(exchange.reply).equals(normalize(reply))) {
+            matched++;
+            return;
+        }
+        differed++;
+        Matcher type = TYPE.matcher(exchange.request);
+        System.out.println("DIFF " + session + " #" + index + " " + (type.find() ? type.group(1) : "?"));
+        System.out.println("  request:  " + shorten(exchange.request));
+        System.out.println("  recorded: " + shorten(normalize(exchange.reply)));
+        System.out.println("  replayed: " + shorten(normalize(reply)));
+    }
+
+    private static String normalize(String reply) {
+        return DEDUPLICATED.matcher(TIMINGS.matcher(reply).replaceAll("")).replaceAll("");
+    }
+
+    private static String shorten(String text) {
+        return text.length() <= MAX_SHOWN ? text : text.substring(0, MAX_SHOWN) + "...";
+    }
+
+    private void printSummary(int total, double seconds) {
+        System.out.println("--------------------------------------");
+        System.out.println(matched + " matched, " + differed + " differed, " + failed + " sessions failed; "
+                + (matched + differed) + " of " + total + " requests replayed in "
+                + String.format("%.1f", seconds) + " s (" + String.format("%.1f", (matched + differed) / seconds)
+                + " requests/s)");
+        System.out.println("Round trip recorded: " + percentiles(recordedMicros));
+        System.out.println("Round trip replayed: " + percentiles(replayedMicros));
+    }
+
+    private static String percentiles(List<Long> micros) {
+        if (micros.isEmpty()) {
+            return "-";
+        }
+        List<Long> sorted = new ArrayList<>(micros);
+        Collections.sort(sorted);
+        return "p50 " + millis(sorted, 0.50) + " ms, p95 " + millis(sorted, 0.95) + " ms, max "
+                + millis(sorted, 1.0) + " ms";
+    }
+
+    private static String millis(List<Long> sorted, double quantile) {
+        int index = (int) Math.min(sorted.size() - 1, Math.ceil(quantile * sorted.size()) - 1);
+        return String.format("%.1f", sorted.get(Math.max(0, index)) / 1000.0);
+    }
+}
@@ -4,6 +4,10 @@ import sys
 import os
 import random
 import signal  # Import signal module for handling Ctrl+C and other signals
+import threading
+import time
+from collections import OrderedDict
+from concurrent.futures import ThreadPoolExecutor
 from message_categorizer import categorize_prompt
 from information_extractor import (
     extract_show_info,
@@ -25,151 +29,376 @@ def get_dummy_category():
     ]
     return random.choice(valid_categories)
 
-def process_client_request(client_data):
+def elapsed_ms(start, end=None):
+    """Milliseconds between two time.perf_counter() readings, rounded for the wire."""
+    if end is None:
+        end = time.perf_counter()
+    return round((end - start) * 1000.0, 3)
+
+class IdempotencyCache:
     """
-    Processes the client's JSON request and returns a structured response.
-    Expected JSON format: {"type": "CATEGORISE|EXTRACT", "category": "", "message": "..."}
+    Remembers responses by the client's idempotency key so a hedged or retried duplicate
+    reuses the first result instead of running the categorisation/extraction again.
+    A duplicate that arrives while the original is still running waits for it.
     """
-    try:
-        # Try to parse the client message as JSON
+
+    def __init__(self, max_entries=1024, ttl_seconds=600, wait_seconds=60):
+        self._lock = threading.Lock()
+        self._entries = OrderedDict()  # key -> _Entry, oldest first
+        self._max_entries = max_entries
+        self._ttl_seconds = ttl_seconds
+        self._wait_seconds = wait_seconds
+
+    class _Entry:
+        def __init__(self):
+            self.created_at = time.monotonic()
+            self.done = threading.Event()
+            self.response = None
+
+    def run(self, key, compute):
+        """Returns (response, deduplicated); compute() is only called for the first request per key."""
+        with self._lock:
+            self._evict()
+            entry = self._entries.get(key)
+            is_owner = entry is None
+            if is_owner:
+                entry = IdempotencyCache._Entry()
+                self._entries[key] = entry
+
+        if not is_owner:
+            if not entry.done.wait(self._wait_seconds) or entry.response is None:
+                raise ValueError(f"Original request for idempotency key {key} did not complete")
+            return dict(entry.response), True
+
         try:
-            request = json.loads(client_data)
-            print(f"Received JSON request: {request}")
-            
-            # Validate JSON structure
-            if not isinstance(request, dict):
-                raise ValueError("Request must be a JSON object")
-                
-            if "type" not in request:
-                raise ValueError("Request must contain 'type' field")
-                
-            if "message" not in request:
-                raise ValueError("Request must contain 'message' field")
-                
-            request_type = request.get("type")
-            request_category = request.get("category", "")
-            request_message = request.get("message", "")
+            entry.response = compute()
+            return dict(entry.response), False
+        except Exception:
+            # Failed attempts are not cached so a retry can run again
+            with self._lock:
+                self._entries.pop(key, None)
+            raise
+        finally:
+            entry.done.set()
+
+    def _evict(self):
+        now = time.monotonic()
+        while self._entries:
+            oldest_key, oldest = next(iter(self._entries.items()))
+            expired = now - oldest.created_at > self._ttl_seconds
+            if not expired and len(self._entries) < self._max_entries:
+                break
+            del self._entries[oldest_key]
+
+idempotency_cache = IdempotencyCache()
+
+# Upper bound on how many requests of one batch are processed at the same time
+BATCH_MAX_WORKERS = 8
+# Larger batches are rejected instead of tying up a connection for minutes
+BATCH_MAX_REQUESTS = 64
+
+# A conversation tree placed here is offered to clients, which fetch it when its "version" is
+# newer than theirs; without the file clients keep the tree they have
+CONVERSATION_TREE_FILE = os.path.join(os.path.dirname(os.path.abspath(__file__)), "conversation_tree.json")
+
+class ConversationTreeSource:
+    """
+    Serves CONVERSATION_TREE_FILE, re-reading it whenever it changes on disk so an edited
+    tree reaches connected clients with their next heartbeat, without a server restart.
+    """
+
+    def __init__(self, path):
+        self._path = path
+        self._lock = threading.Lock()
+        self._mtime = None
+        self._tree = None
+
+    def current(self):
+        """Returns the tree as a dict, or None if there is no valid tree file."""
+        try:
+            mtime = os.stat(self._path).st_mtime_ns
+        except OSError:
+            return None
+        with self._lock:
+            if mtime != self._mtime:
+                self._mtime = mtime
+                try:
+                    with open(self._path, encoding="utf-8") as f:
+                        tree = json.load(f)
+                    self._tree = tree if isinstance(tree, dict) and "root" in tree else None
+                except (OSError, ValueError) as e:
+                    print(f"Error reading conversation tree: {e}")
+                    self._tree = None
+            return self._tree
+
+    def version(self):
+        tree = self.current()
+        return tree.get("version", 0) if tree is not None else None
+
+conversation_tree = ConversationTreeSource(CONVERSATION_TREE_FILE)
+
+def only_missing_slots(details, missing):
+    """
+    Keeps the slots an EXTRACT asked for. The client merges each reply into what earlier turns
+    filled, so it only asks for what is still missing; an empty or absent list means every slot.
+    """
+    if not missing or not isinstance(details, dict):
+        return details
+    return {key: value for key, value in details.items() if key in missing}
+
+def dispatch_request(request_type, request_category, request_message, missing=None):
+    """
+    Runs the categorisation or extraction for one request and returns the response payload.
+    Raises ValueError for requests that cannot be served.
+    """
+    if request_type == "CATEGORISE":
+        print(f"Processing CATEGORISE request: {request_message}")
+        
+        # Use dummy responses if the flag is enabled
+        if DUMMY_RESPONSES:
+            category = get_dummy_category()
+            print(f"Using DUMMY response. Categorized as: {category}")
+            response_data = {"category": category, "details": None, "error": None}
+        else:
+            # Call the categorization function
+            category = categorize_prompt(request_message)
+            print(f"Categorized as: {category}")
+            response_data = {"category": category, "details": None, "error": None}
             
-            if not request_message:
-                raise ValueError("Message field cannot be empty")
-                
-        except json.JSONDecodeError:
-            # Legacy support for plain text messages (optional, can be removed)
-            print(f"Received plain text message (legacy): {client_data}")
-            request_type = "CATEGORISE"
-            request_category = ""
-            request_message = client_data
+    elif request_type == "EXTRACT":
+        print(f"Processing EXTRACT request for category '{request_category}': {request_message}")
         
-        # Process request based on type
-        if request_type == "CATEGORISE":
-            print(f"Processing CATEGORISE request: {request_message}")
+        if not request_category:
+            raise ValueError("Category field is required for EXTRACT requests")
             
-            # Use dummy responses if the flag is enabled
-            if DUMMY_RESPONSES:
-                category = get_dummy_category()
-                print(f"Using DUMMY response. Categorized as: {category}")
-                response_data = {"category": category, "details": None, "error": None}
-            else:
-                # Call the categorization function
-                category = categorize_prompt(request_message)
-                print(f"Categorized as: {category}")
-                response_data = {"category": category, "details": None, "error": None}
-                
-        elif request_type == "EXTRACT":
-            print(f"Processing EXTRACT request for category '{request_category}': {request_message}")
+        # Use dummy responses if the flag is enabled
+        if DUMMY_RESPONSES:
+            dummy_data = None
             
-            if not request_category:
-                raise ValueError("Category field is required for EXTRACT requests")
-                
-            # Use dummy responses if the flag is enabled
-            if DUMMY_RESPONSES:
-                dummy_data = None
-                
-                if request_category == "ΠΛΗΡΟΦΟΡΙΕΣ":
-                    dummy_data = {
-                        "name": {"value": ["A Midsummer Night's Dream"], "pvalues": []},
-                        "day": {"value": ["Friday", "Saturday", "Sunday"], "pvalues": ["Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday", "Sunday"]},
-                        "topic": {"value": ["Comedy", "Fantasy"], "pvalues": []},
-                        "time": {"value": ["20:00", "15:00"], "pvalues": []},
-                        "cast": {"value": ["George Dimitriou", "Elena Papadaki", "Nikos Ioannou"], "pvalues": []},
-                        "room": {"value": ["Grand Hall"], "pvalues": []},
-                        "duration": {"value": ["120 minutes"], "pvalues": []},
-                        "stars": {"value": [4], "pvalues": [1, 2, 3, 4, 5, ">3", "<4"]}
-                    }
-                    print(f"Using DUMMY show info: {dummy_data}")
-                elif request_category == "ΚΡΑΤΗΣΗ":
-                    dummy_data = {
-                        "show_name": {"value": "Romeo and Juliet", "pvalues": []},
-                        "room": {"value": "Main Theater", "pvalues": []},
-                        "day": {"value": "Saturday", "pvalues": ["Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday", "Sunday"]},
-                        "time": {"value": "19:30", "pvalues": []},
-                        "person": {
-                            "name": {"value": "Maria Papadopoulos", "pvalues": []},
-                            "age": {"value": "grownup > 18", "pvalues": ["child < 18", "grownup > 18", "granny > 65"]},
-                            "seat": {"value": "B12", "pvalues": []}
-                        }
-                    }
-                    print(f"Using DUMMY booking info: {dummy_data}")
-                elif request_category == "ΑΚΥΡΩΣΗ":
-                    dummy_data = {
-                        "reservation_number": {"value": "RES78901", "pvalues": []},
-                        "passcode": {"value": "JUPITER2025", "pvalues": []}
-                    }
-                    print(f"Using DUMMY cancellation info: {dummy_data}")
-                elif request_category == "ΠΡΟΣΦΟΡΕΣ & ΕΚΠΤΩΣΕΙΣ":
-                    dummy_data = {
-                        "show_name": {"value": ["Hamlet", "Macbeth"], "pvalues": []},
-                        "no_of_people": {"value": 3, "pvalues": []},
-                        "age": {"value": ["child < 18", "granny > 65"], "pvalues": ["child < 18", "grownup > 18", "granny > 65"]},
-                        "date": {"value": ["2025-05-20", "2025-05-21"], "pvalues": []}
-                    }
-                    print(f"Using DUMMY discount info: {dummy_data}")
-                elif request_category == "ΑΞΙΟΛΟΓΗΣΕΙΣ & ΣΧΟΛΙΑ":
-                    dummy_data = {
-                        "reservation_number": {"value": "DUMMY123", "pvalues": []},
-                        "passcode": {"value": "12345", "pvalues": []},
-                        "stars": {"value": 5, "pvalues": [1, 2, 3, 4, 5]},
-                        "review": {"value": "This is a dummy review for testing.", "pvalues": []}
+            if request_category == "ΠΛΗΡΟΦΟΡΙΕΣ":
+                dummy_data = {
+                    "name": {"value": ["A Midsummer Night's Dream"], "pvalues": []},
+                    "day": {"value": ["Friday", "Saturday", "Sunday"], "pvalues": ["Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday", "Sunday"]},
+                    "topic": {"value": ["Comedy", "Fantasy"], "pvalues": []},
+                    "time": {"value": ["20:00", "15:00"], "pvalues": []},
+                    "cast": {"value": ["George Dimitriou", "Elena Papadaki", "Nikos Ioannou"], "pvalues": []},
+                    "room": {"value": ["Grand Hall"], "pvalues": []},
+                    "duration": {"value": ["120 minutes"], "pvalues": []},
+                    "stars": {"value": [4], "pvalues": [1, 2, 3, 4, 5, ">3", "<4"]}
+                }
+                print(f"Using DUMMY show info: {dummy_data}")
+            elif request_category == "ΚΡΑΤΗΣΗ":
+                dummy_data = {
+                    "show_name": {"value": "Romeo and Juliet", "pvalues": []},
+                    "room": {"value": "Main Theater", "pvalues": []},
+                    "day": {"value": "Saturday", "pvalues": ["Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday", "Sunday"]},
+                    "time": {"value": "19:30", "pvalues": []},
+                    "person": {
+                        "name": {"value": "Maria Papadopoulos", "pvalues": []},
+                        "age": {"value": "grownup > 18", "pvalues": ["child < 18", "grownup > 18", "granny > 65"]},
+                        "seat": {"value": "B12", "pvalues": []}
                     }
-                    print(f"Using DUMMY review info: {dummy_data}")
-                else:
-                    raise ValueError(f"Unsupported category: {request_category}")
-                
-                response_data = {"category": request_category, "details": dummy_data, "error": None}
+                }
+                print(f"Using DUMMY booking info: {dummy_data}")
+            elif request_category == "ΑΚΥΡΩΣΗ":
+                dummy_data = {
+                    "reservation_number": {"value": "RES78901", "pvalues": []},
+                    "passcode": {"value": "JUPITER2025", "pvalues": []}
+                }
+                print(f"Using DUMMY cancellation info: {dummy_data}")
+            elif request_category == "ΠΡΟΣΦΟΡΕΣ & ΕΚΠΤΩΣΕΙΣ":
+                dummy_data = {
+                    "show_name": {"value": ["Hamlet", "Macbeth"], "pvalues": []},
+                    "no_of_people": {"value": 3, "pvalues": []},
+                    "age": {"value": ["child < 18", "granny > 65"], "pvalues": ["child < 18", "grownup > 18", "granny > 65"]},
+                    "date": {"value": ["2025-05-20", "2025-05-21"], "pvalues": []}
+                }
+                print(f"Using DUMMY discount info: {dummy_data}")
+            elif request_category == "ΑΞΙΟΛΟΓΗΣΕΙΣ & ΣΧΟΛΙΑ":
+                dummy_data = {
+                    "reservation_number": {"value": "DUMMY123", "pvalues": []},
+                    "passcode": {"value": "12345", "pvalues": []},
+                    "stars": {"value": 5, "pvalues": [1, 2, 3, 4, 5]},
+                    "review": {"value": "This is a dummy review for testing.", "pvalues": []}
+                }
+                print(f"Using DUMMY review info: {dummy_data}")
+            elif request_category == "ΕΞΟΔΟΣ":
+                dummy_data = "Client requested to close connection."
             else:
-                # Direct extraction based on provided category
-                details = None
-                
-                if request_category == "ΠΛΗΡΟΦΟΡΙΕΣ":
-                    details = extract_show_info(request_message)
-                    print(f"Extracted show info: {details}")
-                elif request_category == "ΚΡΑΤΗΣΗ":
-                    details = extract_booking_info(request_message)
-                    print(f"Extracted booking(s): {details}")
-                elif request_category == "ΑΚΥΡΩΣΗ":
-                    details = extract_cancellation_info(request_message)
-                    print(f"Extracted cancellation info: {details}")
-                elif request_category == "ΠΡΟΣΦΟΡΕΣ & ΕΚΠΤΩΣΕΙΣ":
-                    details = extract_discount_info(request_message)
-                    print(f"Extracted discount info: {details}")
-                elif request_category == "ΑΞΙΟΛΟΓΗΣΕΙΣ & ΣΧΟΛΙΑ":
-                    details = extract_review_info(request_message)
-                    print(f"Extracted review info: {details}")
-                elif request_category == "ΕΞΟΔΟΣ":
-                    details = "Client requested to close connection."
-                else:
-                    raise ValueError(f"Unsupported category: {request_category}")
-                
-                response_data = {"category": request_category, "details": details, "error": None}
+                raise ValueError(f"Unsupported category: {request_category}")
+            
+            response_data = {"category": request_category, "details": only_missing_slots(dummy_data, missing), "error": None}
+        else:
+            # Direct extraction based on provided category
+            details = None
+            
+            if request_category == "ΠΛΗΡΟΦΟΡΙΕΣ":
+                details = extract_show_info(request_message)
+                print(f"Extracted show info: {details}")
+            elif request_category == "ΚΡΑΤΗΣΗ":
+                details = extract_booking_info(request_message)
+                print(f"Extracted booking(s): {details}")
+            elif request_category == "ΑΚΥΡΩΣΗ":
+                details = extract_cancellation_info(request_message)
+                print(f"Extracted cancellation info: {details}")
+            elif request_category == "ΠΡΟΣΦΟΡΕΣ & ΕΚΠΤΩΣΕΙΣ":
+                details = extract_discount_info(request_message)
+                print(f"Extracted discount info: {details}")
+            elif request_category == "ΑΞΙΟΛΟΓΗΣΕΙΣ & ΣΧΟΛΙΑ":
+                details = extract_review_info(request_message)
+                print(f"Extracted review info: {details}")
+            elif request_category == "ΕΞΟΔΟΣ":
+                details = "Client requested to close connection."
+            else:
+                raise ValueError(f"Unsupported category: {request_category}")
+            
+            response_data = {"category": request_category, "details": only_missing_slots(details, missing), "error": None}
+    else:
+        raise ValueError(f"Unsupported request type: {request_type}. Must be 'CATEGORISE' or 'EXTRACT'")
+    return response_data
+
+def process_client_request(client_data, received_at=None):
+    """
+    Processes the client's JSON request and returns a structured response.
+    Expected JSON format: {"type": "CATEGORISE|EXTRACT", "category": "", "message": "...",
+                           "trace_id": "...", "client_ts": 1700000000000, "idempotency_key": "...",
+                           "missing": ["day", "time"]}
+    where the optional "missing" list limits an EXTRACT reply to the slots the client still needs.
+    or a batch of such requests: {"type": "BATCH", "requests": [...]}, answered with
+    {"type": "BATCH", "responses": [...]} in the same order,
+    or a heartbeat: {"type": "PING", "seq": 1}, answered at once with {"type": "PONG", "seq": 1},
+    plus "tree_version" when a conversation tree is offered, which {"type": "TREE"} then fetches as
+    {"type": "TREE", "tree": {...}}.
+    The optional trace fields are echoed back together with the server stage timings.
+    Requests sharing an idempotency key are only processed once.
+    """
+    if received_at is None:
+        received_at = time.perf_counter()
+    try:
+        # Try to parse the client message as JSON
+        request = json.loads(client_data)
+        if isinstance(request, dict) and request.get("type") == "PING":
+            # Heartbeats are frequent; answer them without logging or touching the LLM
+            pong = {"type": "PONG", "seq": request.get("seq")}
+            tree_version = conversation_tree.version()
+            if tree_version is not None:
+                pong["tree_version"] = tree_version
+            return pong
+        if isinstance(request, dict) and request.get("type") == "TREE":
+            tree = conversation_tree.current()
+            if tree is None:
+                return {"type": "TREE", "tree": None, "error": "No conversation tree offered"}
+            return {"type": "TREE", "tree": tree}
+        print(f"Received JSON request: {request}")
+    except json.JSONDecodeError:
+        # Legacy support for plain text messages (optional, can be removed)
+        print(f"Received plain text message (legacy): {client_data}")
+        request = {"type": "CATEGORISE", "category": "", "message": client_data}
+
+    if isinstance(request, dict) and request.get("type") == "BATCH":
+        return process_batch(request, received_at)
+    return process_request(request, received_at)
+
+def process_batch(batch, received_at):
+    """
+    Processes every request of a BATCH envelope concurrently and returns their responses
+    in request order. A failing request only fails its own entry.
+    """
+    requests = batch.get("requests")
+    if not isinstance(requests, list) or not requests:
+        return {"category": None, "details": None, "error": "BATCH request must contain a non-empty 'requests' list"}
+    if len(requests) > BATCH_MAX_REQUESTS:
+        return {"category": None, "details": None,
+                "error": f"BATCH request has {len(requests)} requests, the limit is {BATCH_MAX_REQUESTS}"}
+
+    print(f"Processing BATCH of {len(requests)} requests")
+    with ThreadPoolExecutor(max_workers=min(BATCH_MAX_WORKERS, len(requests))) as pool:
+        responses = list(pool.map(lambda request: process_request(request, received_at), requests))
+    return {"type": "BATCH", "responses": responses}
+
+def process_request(request, received_at):
+    """
+    Processes one already-parsed request and returns its response payload.
+    """
+    started_at = time.perf_counter()
+    trace_id = None
+    client_ts = None
+    idempotency_key = None
+    llm_ms = 0.0
+    try:
+        # Validate JSON structure
+        if not isinstance(request, dict):
+            raise ValueError("Request must be a JSON object")
+            
+        if "type" not in request:
+            raise ValueError("Request must contain 'type' field")
+            
+        if "message" not in request:
+            raise ValueError("Request must contain 'message' field")
+            
+        request_type = request.get("type")
+        request_category = request.get("category", "")
+        request_message = request.get("message", "")
+        
+        trace_id = request.get("trace_id")
+        client_ts = request.get("client_ts")
+        idempotency_key = request.get("idempotency_key")
+        missing = request.get("missing")
+
+        if not request_message:
+            raise ValueError("Message field cannot be empty")
+        
+        # Process request based on type; everything below is timed as the LLM stage
+        llm_started = time.perf_counter()
+        if idempotency_key:
+            response_data, deduplicated = idempotency_cache.run(
+                idempotency_key,
+                lambda: dispatch_request(request_type, request_category, request_message, missing))
+            if deduplicated:
+                print(f"Duplicate request for idempotency key {idempotency_key}, reusing result")
+                response_data["deduplicated"] = True
         else:
-            raise ValueError(f"Unsupported request type: {request_type}. Must be 'CATEGORISE' or 'EXTRACT'")
+            response_data = dispatch_request(request_type, request_category, request_message, missing)
+        llm_ms = elapsed_ms(llm_started)
             
     except Exception as e:
         print(f"Error processing request: {e}")
         response_data = {"category": None, "details": None, "error": str(e)}
     
+    if trace_id is not None:
+        response_data["trace_id"] = trace_id
+        response_data["client_ts"] = client_ts
+        response_data["timings"] = {
+            "queue_ms": elapsed_ms(received_at, started_at),
+            "llm_ms": llm_ms,
+            "received_at": received_at,
+        }
     return response_data
 
+def encode_response(response_payload):
+    """
+    Serializes a response payload to a single UTF-8 line.
+    For traced requests the serialization and total server time are appended to
+    the "timings" object after the body has been dumped, so the body is only encoded once.
+    Responses inside a BATCH are serialized together, so they report no serialize_ms of their own.
+    """
+    if response_payload.get("type") == "BATCH":
+        for response in response_payload["responses"]:
+            timings = response.get("timings")
+            if timings is not None:
+                timings["server_ms"] = elapsed_ms(timings.pop("received_at"))
+        return json.dumps(response_payload, ensure_ascii=False).encode('utf-8') + b'\n'
+
+    timings = response_payload.pop("timings", None)
+    serialize_started = time.perf_counter()
+    response_json = json.dumps(response_payload, ensure_ascii=False)
+    if timings is not None:
+        received_at = timings.pop("received_at")
+        timings["serialize_ms"] = elapsed_ms(serialize_started)
+        timings["server_ms"] = elapsed_ms(received_at)
+        response_json = response_json[:-1] + ', "timings": ' + json.dumps(timings) + '}'
+    return response_json.encode('utf-8') + b'\n'  # Add newline for easier client parsing
+
 def get_local_ip():
     """Get the local IP address of this machine."""
     try:
@@ -184,6 +413,43 @@ def get_local_ip():
         print(f"Error getting local IP: {e}")
         return "127.0.0.1"  # Fallback to localhost
 
+def handle_connection(conn, addr, is_running):
+    """
+    Serves one client connection until it disconnects or the server stops.
+    Runs on its own thread so a client may keep warm connections to several servers
+    and several clients may share one server.
+    Requests are newline-delimited, so a client may pipeline several in one write;
+    they are answered one per line, in order.
+    """
+    with conn, conn.makefile('rb') as reader:
+        print(f"Connected by {addr}")
+        while is_running():
+            print(f"Waiting for message from {addr}...")
+            try:
+                line = reader.readline()
+            except OSError as e:
+                print(f"Error receiving data from {addr}: {e}")
+                break
+            if not line:
+                print(f"Client {addr} disconnected (no data).")
+                break
+            received_at = time.perf_counter()
+            client_data = line.decode('utf-8').strip()
+            if not client_data:
+                continue
+            
+            # Process the client data (now expecting JSON format)
+            response_payload = process_client_request(client_data, received_at)
+            
+            # Send the response back to the client
+            try:
+                conn.sendall(encode_response(response_payload))
+                print(f"Response sent to {addr}. Waiting for next message...")
+            except socket.error as e:
+                print(f"Error sending data to {addr}: {e}")
+                break
+        print(f"Connection with {addr} closed.")
+
 def start_server(host=None, port=65432):
     """Starts the TCP server to listen for client connections."""
     if host is None:
@@ -231,31 +497,14 @@ def start_server(host=None, port=65432):
             server_socket.settimeout(1.0)
             try:
                 conn, addr = server_socket.accept()
-                # Reset timeout for normal operation
-                server_socket.settimeout(None)
+                # Accepted sockets must block normally even though the listener polls
+                conn.settimeout(None)
                 
-                with conn:
-                    print(f"Connected by {addr}")
-                    while server_running:
-                        print(f"Waiting for message from {addr}...")
-                        data = conn.recv(4096)  # Increased buffer size
-                        if not data:
-                            print(f"Client {addr} disconnected (no data).")
-                            break
-                        client_data = data.decode('utf-8').strip()
-                        
-                        # Process the client data (now expecting JSON format)
-                        response_payload = process_client_request(client_data)
-                        
-                        # Send the response back to the client
-                        try:
-                            response_json = json.dumps(response_payload, ensure_ascii=False)
-                            conn.sendall(response_json.encode('utf-8') + b'\n')  # Add newline for easier client parsing
-                            print(f"Response sent to {addr}. Waiting for next message...")
-                        except socket.error as e:
-                            print(f"Error sending data to {addr}: {e}")
-                            break
-                    print(f"Connection with {addr} closed.")
+                # Serve each connection on its own thread so clients can hold warm connections
+                worker = threading.Thread(target=handle_connection,
+                                          args=(conn, addr, lambda: server_running),
+                                          daemon=True)
+                worker.start()
             except socket.timeout:
                 # This is expected due to the timeout we set
                 continue
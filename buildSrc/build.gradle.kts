@@ -0,0 +1,13 @@
+// Build logic for the app: code generation from the backend's JSON templates
+plugins {
+    `java-library`
+}
+
+dependencies {
+    implementation(gradleApi())
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
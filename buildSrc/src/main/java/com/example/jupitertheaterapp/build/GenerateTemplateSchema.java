@@ -0,0 +1,57 @@
+package com.example.jupitertheaterapp.build;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileSystemOperations;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.inject.Inject;
+
+/**
+ * Generates the template schema classes, with their slots' storage and parsers, and the category
+ * registry from the backend's JSON templates, so the app and the server share one definition of
+ * every template's slots.
+ */
+@CacheableTask
+public abstract class GenerateTemplateSchema extends DefaultTask {
+
+    @InputDirectory
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract DirectoryProperty getTemplatesDir();
+
+    @Input
+    public abstract Property<String> getPackageName();
+
+    /**
+     * Slot names bound to the enum, in the package, whose labels the slot's pvalues are; every slot
+     * with pvalues must have one
+     */
+    @Input
+    public abstract MapProperty<String, String> getVocabularies();
+
+    @OutputDirectory
+    public abstract DirectoryProperty getOutputDir();
+
+    @Inject
+    protected abstract FileSystemOperations getFileSystemOperations();
+
+    @TaskAction
+    public void generate() throws IOException {
+        File outputDir = getOutputDir().get().getAsFile();
+        // Start clean so a removed template leaves no class behind
+        getFileSystemOperations().delete(spec -> spec.delete(outputDir));
+        new TemplateSchemaGenerator(getPackageName().get(), getVocabularies().get())
+                .generate(getTemplatesDir().get().getAsFile().toPath(), outputDir.toPath());
+    }
+}
@@ -0,0 +1,780 @@
+package com.example.jupitertheaterapp.build;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Turns backend/json_templates into Java sources: one abstract schema class per template holding its
+ * slot names, their encoded field tables and index constants, the slots' storage and the parsers that
+ * fill it, and a registry that maps category IDs to templates through a perfect hash. The category
+ * IDs come from categories.json in the same directory. Kept free of Gradle types so it can be run and
+ * debugged on its own.
+ * <p>
+ * Each slot is stored after the shape of its "value": a string, a list of strings or an int. A slot
+ * with pvalues takes its values from a closed vocabulary instead, kept as one constant of the enum
+ * the vocabulary is bound to, or as a bit set of them for a list, with the possible values as a bit
+ * set. The enums parse the labels, since users and the server also use labels outside the pvalues,
+ * such as Greek day names and star bounds.
+ */
+public final class TemplateSchemaGenerator {
+    static final String CATEGORIES_FILE = "categories.json";
+    private static final String HEADER = "// Generated from backend/json_templates by GenerateTemplateSchema. Do not edit.\n";
+    // Largest hash table tried, as a power of two, before giving up on finding a perfect hash
+    private static final int MAX_TABLE_BITS = 16;
+
+    private final String packageName;
+    // Slot name to the enum, in packageName, that its pvalues are the labels of
+    private final Map<String, String> vocabularies;
+
+    public TemplateSchemaGenerator(String packageName, Map<String, String> vocabularies) {
+        this.packageName = packageName;
+        this.vocabularies = vocabularies;
+    }
+
+    /**
+     * How a slot is stored, from the shape of its "value" and whether it has pvalues
+     */
+    enum Kind {
+        TEXT, TEXT_LIST, NUMBER, CHOICE, CHOICES, OBJECT
+    }
+
+    /**
+     * One slot of a template, or of a nested object such as a booking's person
+     */
+    static final class Slot {
+        final String name;
+        final Kind kind;
+        final String vocabulary;  // The enum for CHOICE and CHOICES, otherwise null
+        final List<Slot> slots;  // The nested object's slots for OBJECT, otherwise empty
+
+        Slot(String name, Kind kind, String vocabulary, List<Slot> slots) {
+            this.name = name;
+            this.kind = kind;
+            this.vocabulary = vocabulary;
+            this.slots = slots;
+        }
+
+        String fieldName() {
+            return camelCase(name, false);
+        }
+
+        String possibleFieldName() {
+            return "possible" + camelCase(name, true);
+        }
+    }
+
+    /**
+     * One template: the category it serves, the class the app implements it in and its top-level slots
+     */
+    static final class Template {
+        final String categoryId;
+        final String fileName;
+        final String className;
+        final Map<String, Object> slots;
+
+        Template(String categoryId, String fileName, Map<String, Object> slots) {
+            this.categoryId = categoryId;
+            this.fileName = fileName;
+            this.className = classNameOf(fileName);
+            this.slots = slots;
+        }
+
+        String schemaClassName() {
+            return className + "Schema";
+        }
+    }
+
+    /**
+     * Reads categories.json and every template it names, then writes the sources under outputDir
+     * @throws IllegalArgumentException if a template is malformed or no perfect hash is found
+     */
+    public void generate(Path templatesDir, Path outputDir) throws IOException {
+        List<Template> templates = readTemplates(templatesDir);
+        Path packageDir = outputDir.resolve(packageName.replace('.', '/'));
+        Files.createDirectories(packageDir);
+        for (Template template : templates) {
+            write(packageDir.resolve(template.schemaClassName() + ".java"), schemaSource(template));
+        }
+        write(packageDir.resolve("TemplateRegistry.java"), registrySource(templates));
+    }
+
+    static List<Template> readTemplates(Path templatesDir) throws IOException {
+        Map<String, Object> categories = asObject(parse(templatesDir.resolve(CATEGORIES_FILE)), CATEGORIES_FILE);
+        List<Template> templates = new ArrayList<>();
+        for (Map.Entry<String, Object> category : categories.entrySet()) {
+            if (!(category.getValue() instanceof String)) {
+                throw new IllegalArgumentException(CATEGORIES_FILE + ": expected a file name for " + category.getKey());
+            }
+            String fileName = (String) category.getValue();
+            Map<String, Object> slots = asObject(parse(templatesDir.resolve(fileName)), fileName);
+            templates.add(new Template(category.getKey(), fileName, slots));
+        }
+        return templates;
+    }
+
+    String schemaSource(Template template) {
+        List<Slot> slots = readSlots(template.fileName, template.slots, true);
+        StringBuilder out = new StringBuilder(HEADER);
+        out.append("package ").append(packageName).append(";\n\n");
+        out.append("import com.example.jupitertheaterapp.util.ReplyDecoder;\n\n");
+        out.append("import org.json.JSONException;\n");
+        out.append("import org.json.JSONObject;\n");
+        if (uses(slots, Kind.TEXT_LIST)) {
+            out.append("\nimport java.util.ArrayList;\n");
+            out.append("import java.util.List;\n");
+        }
+        out.append("\n/**\n * Slots of ").append(template.fileName)
+                .append(", indexed in file order like the server's details object,\n")
+                .append(" * with their storage and the parsers that fill it\n */\n");
+        out.append("abstract class ").append(template.schemaClassName()).append(" extends MsgTemplate {\n");
+        appendFieldTable(out, "", template.slots.keySet());
+        for (Slot slot : slots) {
+            if (slot.kind == Kind.OBJECT) {
+                out.append('\n');
+                List<String> names = new ArrayList<>();
+                for (Slot nested : slot.slots) {
+                    names.add(nested.name);
+                }
+                appendFieldTable(out, constantName(slot.name) + "_", names);
+            }
+        }
+        out.append('\n');
+        appendStorage(out, "    ", slots);
+        for (Slot slot : slots) {
+            if (slot.kind == Kind.OBJECT) {
+                appendObjectSchema(out, slot);
+            }
+        }
+        out.append("\n    @Override\n    protected String[] slotNames() {\n        return NAMES;\n    }\n");
+        out.append("\n    @Override\n    protected byte[][] fieldNames() {\n        return FIELDS;\n    }\n");
+
+        out.append("\n    @Override\n");
+        out.append("    protected void readField(int field, ReplyDecoder reader) throws JSONException {\n");
+        appendReadSwitch(out, "        ", "", slots);
+        out.append("    }\n");
+
+        out.append("\n    @Override\n");
+        out.append("    protected boolean populateFromJsonObject(JSONObject jsonObject) throws JSONException {\n");
+        appendPopulate(out, "        ", slots);
+        out.append("        return true;\n");
+        out.append("    }\n");
+        out.append("}\n");
+        return out.toString();
+    }
+
+    /**
+     * Classifies the slots of a template or nested object
+     * @param topLevel whether nested objects are allowed; they are only supported one level deep
+     */
+    private List<Slot> readSlots(String fileName, Map<String, Object> fields, boolean topLevel) {
+        List<Slot> slots = new ArrayList<>();
+        for (Map.Entry<String, Object> entry : fields.entrySet()) {
+            String where = fileName + ": " + entry.getKey();
+            Map<String, Object> fieldObject = asObject(entry.getValue(), where);
+            if (!fieldObject.containsKey("value")) {
+                if (!topLevel) {
+                    throw new IllegalArgumentException(where + ": objects nested more than one level deep");
+                }
+                slots.add(new Slot(entry.getKey(), Kind.OBJECT, null,
+                        readSlots(fileName, fieldObject, false)));
+                continue;
+            }
+            Object value = fieldObject.get("value");
+            Object pvalues = fieldObject.get("pvalues");
+            boolean closed = pvalues instanceof List && !((List<?>) pvalues).isEmpty();
+            String vocabulary = null;
+            if (closed) {
+                vocabulary = vocabularies.get(entry.getKey());
+                if (vocabulary == null) {
+                    throw new IllegalArgumentException(where + ": has pvalues but no vocabulary enum;"
+                            + " bind the slot name to one in the task's vocabularies");
+                }
+            }
+            Kind kind;
+            if (value instanceof List) {
+                kind = closed ? Kind.CHOICES : Kind.TEXT_LIST;
+            } else if (value instanceof String) {
+                kind = closed ? Kind.CHOICE : Kind.TEXT;
+            } else if (value instanceof Number) {
+                kind = closed ? Kind.CHOICE : Kind.NUMBER;
+            } else {
+                throw new IllegalArgumentException(where + ": expected a string, number or array value");
+            }
+            slots.add(new Slot(entry.getKey(), kind, vocabulary, Collections.emptyList()));
+        }
+        return slots;
+    }
+
+    private static boolean uses(List<Slot> slots, Kind kind) {
+        for (Slot slot : slots) {
+            if (slot.kind == kind || uses(slot.slots, kind)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void appendStorage(StringBuilder out, String indent, List<Slot> slots) {
+        for (Slot slot : slots) {
+            String field = slot.fieldName();
+            switch (slot.kind) {
+                case TEXT:
+                    out.append(indent).append("protected String ").append(field).append(" = \"\";\n");
+                    break;
+                case TEXT_LIST:
+                    out.append(indent).append("protected final List<String> ").append(field)
+                            .append(" = new ArrayList<>();\n");
+                    break;
+                case NUMBER:
+                    out.append(indent).append("protected int ").append(field).append(";\n");
+                    break;
+                case CHOICE:
+                    out.append(indent).append("protected ").append(slot.vocabulary).append(' ').append(field)
+                            .append(";  // null until filled\n");
+                    appendSlotSet(out, indent, slot.vocabulary, slot.possibleFieldName());
+                    break;
+                case CHOICES:
+                    appendSlotSet(out, indent, slot.vocabulary, field);
+                    appendSlotSet(out, indent, slot.vocabulary, slot.possibleFieldName());
+                    break;
+                case OBJECT:
+                    break;
+            }
+        }
+    }
+
+    private static void appendSlotSet(StringBuilder out, String indent, String vocabulary, String field) {
+        out.append(indent).append("protected final SlotSet<").append(vocabulary).append("> ").append(field)
+                .append(" = new SlotSet<>(").append(vocabulary).append(".class);\n");
+    }
+
+    /**
+     * A nested object's slots, as a class the template's own class for the object extends, and the
+     * accessor the template implements to hand out its instance
+     */
+    private static void appendObjectSchema(StringBuilder out, Slot object) {
+        String className = camelCase(object.name, true) + "Schema";
+        String prefix = constantName(object.name) + "_";
+        out.append("\n    /**\n     * Slots of the nested \"").append(object.name).append("\" object\n     */\n");
+        out.append("    abstract static class ").append(className).append(" {\n");
+        appendStorage(out, "        ", object.slots);
+
+        out.append("\n        /**\n         * Empties every slot, keeping the lists and sets themselves\n         */\n");
+        out.append("        void clear() {\n");
+        for (Slot slot : object.slots) {
+            String field = slot.fieldName();
+            switch (slot.kind) {
+                case TEXT:
+                    out.append("            ").append(field).append(" = \"\";\n");
+                    break;
+                case NUMBER:
+                    out.append("            ").append(field).append(" = 0;\n");
+                    break;
+                case CHOICE:
+                    out.append("            ").append(field).append(" = null;\n");
+                    out.append("            ").append(slot.possibleFieldName()).append(".clear();\n");
+                    break;
+                case CHOICES:
+                    out.append("            ").append(field).append(".clear();\n");
+                    out.append("            ").append(slot.possibleFieldName()).append(".clear();\n");
+                    break;
+                default:
+                    out.append("            ").append(field).append(".clear();\n");
+            }
+        }
+        out.append("        }\n");
+
+        out.append("\n        /**\n         * Replaces the slots with those of the field object the reader is at\n         */\n");
+        out.append("        void readFrom(ReplyDecoder reader) throws JSONException {\n");
+        out.append("            clear();\n");
+        out.append("            if (!beginFieldObject(reader)) {\n                return;\n            }\n");
+        out.append("            while (reader.hasNext()) {\n");
+        out.append("                int field = reader.selectName(").append(prefix).append("FIELDS);\n");
+        appendReadSwitch(out, "                ", prefix, object.slots);
+        out.append("            }\n");
+        out.append("            reader.endObject();\n");
+        out.append("        }\n");
+
+        out.append("\n        /**\n         * Replaces the slots with those of the field object\n         */\n");
+        out.append("        void populateFrom(JSONObject jsonObject) throws JSONException {\n");
+        out.append("            clear();\n");
+        appendPopulate(out, "            ", object.slots);
+        out.append("        }\n");
+        out.append("    }\n");
+
+        out.append("\n    /**\n     * The template's \"").append(object.name).append("\" object\n     */\n");
+        out.append("    protected abstract ").append(className).append(' ').append(object.fieldName()).append("();\n");
+    }
+
+    private static void appendReadSwitch(StringBuilder out, String indent, String prefix, List<Slot> slots) {
+        out.append(indent).append("switch (field) {\n");
+        for (Slot slot : slots) {
+            String field = slot.fieldName();
+            String vocabulary = slot.vocabulary;
+            out.append(indent).append("    case ").append(prefix).append(constantName(slot.name)).append(":\n");
+            String body = indent + "        ";
+            switch (slot.kind) {
+                case TEXT:
+                    out.append(body).append(field).append(" = readStringField(reader);\n");
+                    break;
+                case TEXT_LIST:
+                    out.append(body).append("readStringListField(reader, ").append(field).append(");\n");
+                    break;
+                case NUMBER:
+                    out.append(body).append(field).append(" = readIntField(reader);\n");
+                    break;
+                case CHOICE:
+                    out.append(body).append(field).append(" = readChoiceField(reader, ").append(vocabulary)
+                            .append(".class, ").append(vocabulary).append("::bitsOf, ")
+                            .append(slot.possibleFieldName()).append(");\n");
+                    break;
+                case CHOICES:
+                    out.append(body).append("readSlotSet(reader, ").append(vocabulary).append("::bitsOf, ")
+                            .append(field).append(", ").append(slot.possibleFieldName()).append(");\n");
+                    break;
+                case OBJECT:
+                    out.append(body).append(field).append("().readFrom(reader);\n");
+                    break;
+            }
+            out.append(body).append("break;\n");
+        }
+        out.append(indent).append("    default:\n");
+        out.append(indent).append("        reader.skipValue();\n");
+        out.append(indent).append("}\n");
+    }
+
+    /**
+     * Field objects that are missing or not objects are skipped, as the streaming parser does
+     */
+    private static void appendPopulate(StringBuilder out, String indent, List<Slot> slots) {
+        out.append(indent).append("JSONObject fieldObject;\n");
+        for (Slot slot : slots) {
+            String field = slot.fieldName();
+            String vocabulary = slot.vocabulary;
+            out.append(indent).append("if ((fieldObject = jsonObject.optJSONObject(").append(literal(slot.name))
+                    .append(")) != null) {\n");
+            String body = indent + "    ";
+            switch (slot.kind) {
+                case TEXT:
+                    out.append(body).append(field).append(" = extractStringValue(fieldObject);\n");
+                    break;
+                case TEXT_LIST:
+                    out.append(body).append("setAll(").append(field)
+                            .append(", extractStringListValue(fieldObject));\n");
+                    break;
+                case NUMBER:
+                    out.append(body).append(field).append(" = extractIntValue(fieldObject);\n");
+                    break;
+                case CHOICE:
+                    out.append(body).append(field).append(" = choiceOf(").append(vocabulary)
+                            .append(".class, extractBits(fieldObject, \"value\", ").append(vocabulary)
+                            .append("::bitsOf));\n");
+                    out.append(body).append(slot.possibleFieldName())
+                            .append(".setBits(extractBits(fieldObject, \"pvalues\", ").append(vocabulary)
+                            .append("::bitsOf));\n");
+                    break;
+                case CHOICES:
+                    out.append(body).append(field).append(".setBits(extractBits(fieldObject, \"value\", ")
+                            .append(vocabulary).append("::bitsOf));\n");
+                    out.append(body).append(slot.possibleFieldName())
+                            .append(".setBits(extractBits(fieldObject, \"pvalues\", ").append(vocabulary)
+                            .append("::bitsOf));\n");
+                    break;
+                case OBJECT:
+                    out.append(body).append(field).append("().populateFrom(fieldObject);\n");
+                    break;
+            }
+            out.append(indent).append("}\n");
+        }
+    }
+
+    private static void appendFieldTable(StringBuilder out, String prefix, Collection<String> names) {
+        out.append("    static final String[] ").append(prefix).append("NAMES = {");
+        int i = 0;
+        for (String name : names) {
+            out.append(i++ == 0 ? "" : ", ").append(literal(name));
+        }
+        out.append("};\n");
+        out.append("    static final byte[][] ").append(prefix).append("FIELDS = ReplyDecoder.names(")
+                .append(prefix).append("NAMES);\n");
+        i = 0;
+        for (String name : names) {
+            out.append("    static final int ").append(prefix).append(constantName(name))
+                    .append(" = ").append(i++).append(";\n");
+        }
+    }
+
+    String registrySource(List<Template> templates) {
+        int[] hashes = new int[templates.size()];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = templates.get(i).categoryId.hashCode();
+        }
+        PerfectHash hash = PerfectHash.find(hashes);
+        String[] table = new String[1 << hash.bits];
+        String[] classes = new String[table.length];
+        for (Template template : templates) {
+            int slot = hash.slotOf(template.categoryId.hashCode());
+            table[slot] = template.categoryId;
+            classes[slot] = template.className;
+        }
+
+        StringBuilder out = new StringBuilder(HEADER);
+        out.append("package ").append(packageName).append(";\n\n");
+        out.append("/**\n");
+        out.append(" * Maps category IDs to templates through a perfect hash found at build time: a multiply and\n");
+        out.append(" * a shift of the ID's hash code give a distinct index for every ID, checked with one equals.\n");
+        out.append(" */\n");
+        out.append("final class TemplateRegistry {\n");
+        out.append("    static final int SIZE = ").append(table.length).append(";\n");
+        out.append("    private static final int MULTIPLIER = ").append(String.format(Locale.ROOT, "0x%08x", hash.multiplier))
+                .append(";\n");
+        out.append("    private static final int SHIFT = ").append(32 - hash.bits).append(";\n");
+        out.append("    private static final String[] IDS = {\n");
+        for (String id : table) {
+            out.append("            ").append(id == null ? "null" : literal(id)).append(",\n");
+        }
+        out.append("    };\n\n");
+        out.append("    private TemplateRegistry() {\n    }\n\n");
+        out.append("    /**\n     * The category's index below {@link #SIZE}, or -1 if it has no template\n     */\n");
+        out.append("    static int indexOf(String id) {\n");
+        out.append("        if (id == null) {\n            return -1;\n        }\n");
+        out.append("        int index = (id.hashCode() * MULTIPLIER) >>> SHIFT;\n");
+        out.append("        return id.equals(IDS[index]) ? index : -1;\n");
+        out.append("    }\n\n");
+        out.append("    static String idAt(int index) {\n        return IDS[index];\n    }\n\n");
+        out.append("    static MsgTemplate create(int index) {\n");
+        out.append("        switch (index) {\n");
+        for (int slot = 0; slot < classes.length; slot++) {
+            if (classes[slot] != null) {
+                out.append("            case ").append(slot).append(":\n");
+                out.append("                return new ").append(classes[slot]).append("();\n");
+            }
+        }
+        out.append("            default:\n");
+        out.append("                throw new IllegalArgumentException(\"No template at index \" + index);\n");
+        out.append("        }\n    }\n}\n");
+        return out.toString();
+    }
+
+    /**
+     * index = (hash * multiplier) >>> (32 - bits), collision-free over the given hashes
+     */
+    static final class PerfectHash {
+        final int multiplier;
+        final int bits;
+
+        private PerfectHash(int multiplier, int bits) {
+            this.multiplier = multiplier;
+            this.bits = bits;
+        }
+
+        int slotOf(int hash) {
+            return (hash * multiplier) >>> (32 - bits);
+        }
+
+        /**
+         * Tries odd multipliers from a fixed sequence, so the output is the same on every build,
+         * and doubles the table until one works
+         */
+        static PerfectHash find(int[] hashes) {
+            int bits = 1;
+            while ((1 << bits) < hashes.length) {
+                bits++;
+            }
+            for (; bits <= MAX_TABLE_BITS; bits++) {
+                int candidate = 0x9E3779B9;  // Golden ratio, the usual Fibonacci hashing multiplier
+                for (int attempt = 0; attempt < 100_000; attempt++) {
+                    PerfectHash hash = new PerfectHash(candidate | 1, bits);
+                    if (hash.isCollisionFree(hashes)) {
+                        return hash;
+                    }
+                    candidate = candidate * 0x2C1B3C6D + 0x297A2D39;
+                }
+            }
+            throw new IllegalArgumentException("No perfect hash for " + hashes.length + " category IDs");
+        }
+
+        private boolean isCollisionFree(int[] hashes) {
+            Set<Integer> used = new HashSet<>();
+            for (int hash : hashes) {
+                if (!used.add(slotOf(hash))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * show_info.json becomes ShowInfoTemplate
+     */
+    static String classNameOf(String fileName) {
+        String base = fileName.endsWith(".json") ? fileName.substring(0, fileName.length() - 5) : fileName;
+        StringBuilder name = new StringBuilder();
+        for (String part : base.split("_")) {
+            if (!part.isEmpty()) {
+                name.append(Character.toUpperCase(part.charAt(0))).append(part.substring(1));
+            }
+        }
+        return name.append("Template").toString();
+    }
+
+    /**
+     * show_name becomes showName, or ShowName capitalized
+     */
+    static String camelCase(String slot, boolean capitalized) {
+        StringBuilder name = new StringBuilder();
+        for (String part : slot.split("[^A-Za-z0-9]+")) {
+            if (part.isEmpty()) {
+                continue;
+            }
+            boolean upper = capitalized || name.length() > 0;
+            name.append(upper ? Character.toUpperCase(part.charAt(0)) : Character.toLowerCase(part.charAt(0)))
+                    .append(part.substring(1));
+        }
+        return name.toString();
+    }
+
+    static String constantName(String slot) {
+        return slot.toUpperCase(Locale.ROOT).replaceAll("[^A-Z0-9]+", "_");
+    }
+
+    /**
+     * A Java string literal with everything outside printable ASCII escaped, so the sources
+     * compile the same whatever encoding the compiler assumes
+     */
+    static String literal(String value) {
+        StringBuilder out = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c >= 0x20 && c < 0x7F) {
+                out.append(c);
+            } else {
+                out.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            }
+        }
+        return out.append('"').toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asObject(Object value, String where) {
+        if (!(value instanceof Map)) {
+            throw new IllegalArgumentException(where + ": expected a JSON object");
+        }
+        return (Map<String, Object>) value;
+    }
+
+    private static Object parse(Path file) throws IOException {
+        String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        try {
+            return new JsonReader(text).readDocument();
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(file.getFileName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static void write(Path file, String source) throws IOException {
+        Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Just enough JSON for the templates. Objects keep their key order, which fixes the slot indices.
+     */
+    static final class JsonReader {
+        private final String text;
+        private int pos;
+
+        JsonReader(String text) {
+            this.text = text;
+        }
+
+        Object readDocument() {
+            Object value = readValue();
+            skipWhitespace();
+            if (pos != text.length()) {
+                throw error("Trailing characters");
+            }
+            return value;
+        }
+
+        private Object readValue() {
+            skipWhitespace();
+            if (pos >= text.length()) {
+                throw error("Unexpected end of input");
+            }
+            char c = text.charAt(pos);
+            switch (c) {
+                case '{':
+                    return readObject();
+                case '[':
+                    return readArray();
+                case '"':
+                    return readString();
+                case 't':
+                    expect("true");
+                    return Boolean.TRUE;
+                case 'f':
+                    expect("false");
+                    return Boolean.FALSE;
+                case 'n':
+                    expect("null");
+                    return null;
+                default:
+                    return readNumber();
+            }
+        }
+
+        private Map<String, Object> readObject() {
+            Map<String, Object> object = new LinkedHashMap<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return object;
+            }
+            while (true) {
+                skipWhitespace();
+                if (peek() != '"') {
+                    throw error("Expected a name");
+                }
+                String name = readString();
+                skipWhitespace();
+                if (peek() != ':') {
+                    throw error("Expected ':'");
+                }
+                pos++;
+                if (object.put(name, readValue()) != null) {
+                    throw error("Duplicate name '" + name + "'");
+                }
+                skipWhitespace();
+                char c = peek();
+                pos++;
+                if (c == '}') {
+                    return object;
+                }
+                if (c != ',') {
+                    throw error("Expected ',' or '}'");
+                }
+            }
+        }
+
+        private List<Object> readArray() {
+            List<Object> array = new ArrayList<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == ']') {
+                pos++;
+                return array;
+            }
+            while (true) {
+                array.add(readValue());
+                skipWhitespace();
+                char c = peek();
+                pos++;
+                if (c == ']') {
+                    return array;
+                }
+                if (c != ',') {
+                    throw error("Expected ',' or ']'");
+                }
+            }
+        }
+
+        private String readString() {
+            StringBuilder out = new StringBuilder();
+            pos++;
+            while (true) {
+                char c = peek();
+                pos++;
+                if (c == '"') {
+                    return out.toString();
+                }
+                if (c != '\\') {
+                    out.append(c);
+                    continue;
+                }
+                char escaped = peek();
+                pos++;
+                switch (escaped) {
+                    case 'b':
+                        out.append('\b');
+                        break;
+                    case 'f':
+                        out.append('\f');
+                        break;
+                    case 'n':
+                        out.append('\n');
+                        break;
+                    case 'r':
+                        out.append('\r');
+                        break;
+                    case 't':
+                        out.append('\t');
+                        break;
+                    case 'u':
+                        if (pos + 4 > text.length()) {
+                            throw error("Truncated escape");
+                        }
+                        out.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default:
+                        out.append(escaped);
+                }
+            }
+        }
+
+        private Number readNumber() {
+            int start = pos;
+            while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+                pos++;
+            }
+            if (start == pos) {
+                throw error("Unexpected character '" + text.charAt(pos) + "'");
+            }
+            String number = text.substring(start, pos);
+            try {
+                return number.matches("-?\\d+") ? (Number) Long.parseLong(number) : (Number) Double.parseDouble(number);
+            } catch (NumberFormatException e) {
+                throw error("Invalid number " + number);
+            }
+        }
+
+        private void expect(String word) {
+            if (!text.startsWith(word, pos)) {
+                throw error("Expected " + word);
+            }
+            pos += word.length();
+        }
+
+        private char peek() {
+            if (pos >= text.length()) {
+                throw error("Unexpected end of input");
+            }
+            return text.charAt(pos);
+        }
+
+        private void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at offset " + pos);
+        }
+    }
+}